@@ -47,9 +47,9 @@ public class Constant implements Term {
     
     private int hashCode = Integer.MIN_VALUE;
     
-    private static Cache<String,Constant> cache = new Cache<String,Constant>();
+    private static Cache<String,Constant> cache = new Cache<String,Constant>(1 << 20);
 
-    private static Cache<Pair<String,String>,Constant> cache2 = new Cache<Pair<String,String>,Constant>();
+    private static Cache<Pair<String,String>,Constant> cache2 = new Cache<Pair<String,String>,Constant>(1 << 20);
     
     /** Creates a new instance of Constant */
     private Constant(String name) {
@@ -144,7 +144,7 @@ public class Constant implements Term {
     }
     
     /**
-     * Clears the cache of Constants - the cache is implemented using soft-references so
+     * Clears the cache of Constants - the cache is bounded and evicts rarely used constants automatically so
      * it is not necessary to call this method manually but it may be useful at some occasions.
      */
     public static void clearCache(){
@@ -10,74 +10,111 @@
 
 package ida.ilp.logic;
 
-import ida.ilp.logic.subsumption.CustomPredicate;
-import ida.ilp.logic.subsumption.Matching;
-import ida.ilp.logic.subsumption.SolutionConsumer;
+import ida.ilp.logic.subsumption.JoinGrounder;
+import ida.ilp.logic.subsumption.SpecialBinaryPredicates;
+import ida.ilp.logic.subsumption.SpecialVarargPredicates;
 import ida.utils.Sugar;
-import ida.utils.VectorUtils;
-import ida.utils.collections.MultiMap;
 import ida.utils.tuples.Pair;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 
 /**
  * Created by kuzelkao_cardiff on 05/10/17.
+ *
+ * The model is computed by semi-naive evaluation: the facts are kept in a JoinGrounder which is extended in place,
+ * and in every round, only those instantiations of the rules are enumerated in which at least one positive body literal
+ * is matched to a fact derived in the previous round (the delta). The first round evaluates the rules w.r.t. all facts.
+ * Rules which are not range-restricted (some of their variables do not appear in positive body literals, so they range over
+ * all terms) are evaluated again w.r.t. all facts whenever new terms have appeared in the derived facts.
  */
 public class LeastHerbrandModel {
 
+    private final static Set<String> specialPredicates = Sugar.setFromCollections(SpecialBinaryPredicates.SPECIAL_PREDICATES, SpecialVarargPredicates.SPECIAL_PREDICATES);
+
     public Set<Literal> herbrandModel(List<? extends Clause> clauses) {
-        MultiMap<Pair<String, Integer>, Literal> herbrand = new MultiMap<Pair<String, Integer>, Literal>();
         Pair<List<Clause>, List<Literal>> rulesAndFacts = rulesAndFacts(clauses);
-        List<Clause> rules = rulesAndFacts.r;
-
-
-        Set<Pair<String, Integer>> headSignatures = new HashSet<Pair<String, Integer>>();
-        for (Clause rule : rules) {
+        Set<Literal> herbrand = new LinkedHashSet<Literal>(rulesAndFacts.s);
+        JoinGrounder grounder = new JoinGrounder(new Clause(rulesAndFacts.s));
+
+        List<Literal> heads = new ArrayList<Literal>();
+        List<Clause> queries = new ArrayList<Clause>();
+        //positive literals of the queries (i.e. negated literals of the bodies of the rules) over which the joins are computed
+        List<List<Literal>> bodies = new ArrayList<List<Literal>>();
+        List<Boolean> rangeRestricted = new ArrayList<Boolean>();
+        for (Clause rule : rulesAndFacts.r) {
             Literal head = head(rule);
-            Pair<String, Integer> headSignature = new Pair<String, Integer>(head.predicate(), head.arity());
-            headSignatures.add(headSignature);
-            herbrand.set(headSignature, new HashSet<Literal>());
-        }
-
-        for (Literal groundLiteral : rulesAndFacts.s) {
-            herbrand.put(new Pair<String, Integer>(groundLiteral.predicate(), groundLiteral.arity()), groundLiteral);
+            //the negated head in the query filters out the instantiations whose heads are already in the model
+            Clause query = new Clause(flipSigns(rule.literals()));
+            List<Literal> body = new ArrayList<Literal>();
+            for (Literal l : query.literals()) {
+                if (!l.isNegated() && !specialPredicates.contains(l.predicate())) {
+                    body.add(l);
+                }
+            }
+            heads.add(head);
+            queries.add(query);
+            bodies.add(body);
+            rangeRestricted.add(new Clause(body).variables().containsAll(query.variables()));
         }
 
-        boolean changed;
-        do {
-            int herbrandSize0 = VectorUtils.sum(herbrand.sizes());
-            Matching matching = new Matching(Sugar.<Clause>list(new Clause(Sugar.flatten(herbrand.values()))));
-            for (Pair<String, Integer> predicate : headSignatures) {
-                //may overwrite the previous ones which is actually what we want
-                matching.getEngine().addCustomPredicate(new TupleNotIn(predicate.r, predicate.s, herbrand.get(predicate)));
-            }
-            for (Clause rule : rules) {
-                Literal head = head(rule);
-                Pair<String, Integer> headSignature = new Pair<String, Integer>(head.predicate(), head.arity());
-                SolutionConsumer solutionConsumer = new HerbrandSolutionConsumer(head, headSignature, herbrand);
-                matching.getEngine().addSolutionConsumer(solutionConsumer);
-                if (LogicUtils.isGround(head)) {
-                    Clause query = new Clause(flipSigns(rule.literals()));
-                    if (matching.subsumption(query, 0)) {
-                        herbrand.put(headSignature, head);
-                    }
+        //relation sizes before the last delta was added, i.e. the tuples with indices >= old size form the delta
+        Map<Pair<String, Integer>, Integer> oldSizes = null;
+        //number of terms before the last delta was added
+        int oldNumTerms = 0;
+        while (true) {
+            Set<Literal> derived = new LinkedHashSet<Literal>();
+            for (int i = 0; i < queries.size(); i++) {
+                Clause query = queries.get(i);
+                List<Literal> body = bodies.get(i);
+                if (oldSizes == null || (!rangeRestricted.get(i) && grounder.numTerms() > oldNumTerms)) {
+                    addHeads(heads.get(i), grounder.allSubstitutions(query), herbrand, derived);
                 } else {
-                    Clause query = new Clause(flipSigns(Sugar.union(rule.literals(), new Literal(tupleNotInPredicateName(head.predicate(), head.arity()), true, head.arguments()))));
-                    Pair<Term[], List<Term[]>> substitutions;
-                    do {
-                        //not super optimal but the rule grounding will dominate the runtime anyway...
-                        substitutions = matching.allSubstitutions(query, 0, 512);
-                    } while (substitutions.s.size() > 0);
+                    //body literals before the delta literal are matched only to the old facts so that every instantiation is enumerated once
+                    for (int j = 0; j < body.size(); j++) {
+                        Literal deltaLiteral = body.get(j);
+                        int oldSize = oldSize(deltaLiteral, oldSizes);
+                        int size = grounder.relationSize(deltaLiteral.predicate(), deltaLiteral.arity());
+                        if (oldSize >= size) {
+                            continue;
+                        }
+                        Map<Literal, int[]> ranges = new HashMap<Literal, int[]>();
+                        for (int k = 0; k < j; k++) {
+                            ranges.put(body.get(k), new int[]{0, oldSize(body.get(k), oldSizes)});
+                        }
+                        ranges.put(deltaLiteral, new int[]{oldSize, size});
+                        addHeads(heads.get(i), grounder.allSubstitutions(query, ranges), herbrand, derived);
+                    }
                 }
-                matching.getEngine().removeSolutionConsumer(solutionConsumer);
             }
-            int herbrandSize1 = VectorUtils.sum(herbrand.sizes());
-            changed = herbrandSize1 > herbrandSize0;
-        } while (changed);
-        return Sugar.setFromCollections(Sugar.flatten(herbrand.values()));
+            if (derived.isEmpty()) {
+                break;
+            }
+            oldSizes = new HashMap<Pair<String, Integer>, Integer>();
+            for (Literal l : derived) {
+                Pair<String, Integer> signature = new Pair<String, Integer>(l.predicate(), l.arity());
+                if (!oldSizes.containsKey(signature)) {
+                    oldSizes.put(signature, grounder.relationSize(l.predicate(), l.arity()));
+                }
+            }
+            oldNumTerms = grounder.numTerms();
+            grounder.addFacts(derived);
+        }
+        return herbrand;
+    }
+
+    private static int oldSize(Literal l, Map<Pair<String, Integer>, Integer> oldSizes) {
+        Integer oldSize = oldSizes.get(new Pair<String, Integer>(l.predicate(), l.arity()));
+        //relations without new facts have not changed
+        return oldSize == null ? Integer.MAX_VALUE : oldSize;
+    }
+
+    private static void addHeads(Literal head, Pair<Term[], List<Term[]>> substitutions, Set<Literal> herbrand, Set<Literal> derived) {
+        for (Term[] substitution : substitutions.s) {
+            Literal groundHead = LogicUtils.substitute(head, substitutions.r, substitution);
+            if (herbrand.add(groundHead)) {
+                derived.add(groundHead);
+            }
+        }
     }
 
     private Literal head(Clause c) {
@@ -110,63 +147,17 @@ public class LeastHerbrandModel {
         return new Pair<List<Clause>, List<Literal>>(rest, groundFacts);
     }
 
-    private static String tupleNotInPredicateName(String predicate, int arity) {
-        return "@tuplenotin-" + predicate + "/" + arity;
-    }
-
-    private static class HerbrandSolutionConsumer implements SolutionConsumer {
-
-        private Literal head;
-
-        private Pair<String, Integer> headSignature;
-
-        private MultiMap<Pair<String, Integer>, Literal> herbrand;
-
-        private HerbrandSolutionConsumer(Literal head, Pair<String, Integer> headSignature, MultiMap<Pair<String, Integer>, Literal> herbrand) {
-            this.head = head;
-            this.headSignature = headSignature;
-            this.herbrand = herbrand;
-        }
-
-        @Override
-        public void solution(Term[] template, Term[] solution) {
-            herbrand.put(headSignature, LogicUtils.substitute(head, template, solution));
-        }
-    }
-
-    private static class TupleNotIn implements CustomPredicate {
-
-        private Set<Literal> literals;
-
-        private String name;
-
-        private String predicate;
-
-        TupleNotIn(String predicate, int arity, Set<Literal> literals) {
-            this.predicate = predicate;
-            this.name = tupleNotInPredicateName(predicate, arity);
-            this.literals = literals;
-        }
-
-        @Override
-        public String name() {
-            return name;
-        }
-
-        @Override
-        public boolean isSatisfiable(Term... arguments) {
-            if (Sugar.countNulls(arguments) > 0) {
-                return true;
-            }
-            //System.out.println("? "+!literals.contains(new Literal(predicate, arguments))+" -- "+new Literal(predicate, arguments)+" -- "+literals);
-            return !literals.contains(new Literal(predicate, arguments));
-        }
-    }
-
     public static void main(String[] args) {
         List<Clause> clauses = Sugar.list(Clause.parse("ahoj(a)"),
                 Clause.parse("q(X), !ahoj(X)"), Clause.parse("ahoj(X),!q(X)"));
         System.out.println(new LeastHerbrandModel().herbrandModel(clauses));
+        //X is not bound by the body, so it ranges over all terms including c which first appears in the derived q(c,b)
+        clauses = Sugar.list(Clause.parse("p(b)"), Clause.parse("q(c,X), !p(Z)"));
+        Set<Literal> model = new LeastHerbrandModel().herbrandModel(clauses);
+        System.out.println(model);
+        if (!model.contains(Literal.parseLiteral("q(c,c)"))){
+            throw new IllegalStateException("q(c,c) should be in the least Herbrand model");
+        }
     }
 
 
@@ -277,23 +277,34 @@ public class LogicUtils {
             if (retVal.size() == count){
                 break;
             }
-            String pred = "pred_"+i;
+            String pred = "pred"+i;
             if (c.getLiteralsByPredicate(pred).isEmpty()){
-                retVal.add("pred"+i);
+                retVal.add(pred);
             }
         }
         return retVal;
     }
 
     public static List<String> freshPredicateNames(Set<String> c, int count){
+        return freshPredicateNames(c, "pred", count);
+    }
+
+    /**
+     * Creates a list of predicate names of the form prefix+i which are not contained in the given set.
+     * @param c the predicate names which must not be generated
+     * @param prefix prefix of the generated names
+     * @param count number of predicate names to be generated
+     * @return list of new predicate names
+     */
+    public static List<String> freshPredicateNames(Set<String> c, String prefix, int count){
         List<String> retVal = new ArrayList<String>();
         for (int i = 0; i < Integer.MAX_VALUE; i++){
             if (retVal.size() == count){
                 break;
             }
-            String pred = "pred_"+i;
+            String pred = prefix+i;
             if (!c.contains(pred)){
-                retVal.add("pred"+i);
+                retVal.add(pred);
             }
         }
         return retVal;
@@ -37,9 +37,9 @@ public class Variable implements Term {
     
     private int hashCode = Integer.MIN_VALUE;
     
-    private static Cache<String,Variable> cache = new Cache<String,Variable>();
+    private static Cache<String,Variable> cache = new Cache<String,Variable>(1 << 20);
 
-    private static Cache<Pair<String,String>,Variable> cache2 = new Cache<Pair<String,String>,Variable>();
+    private static Cache<Pair<String,String>,Variable> cache2 = new Cache<Pair<String,String>,Variable>(1 << 20);
     
     /** Creates a new instance of Constant */
     private Variable(String name) {
@@ -116,8 +116,7 @@ public class Variable implements Term {
     
     /**
      * Clears the cache of variables. This method does not have to be called because
-     * the caching mechanism uses soft-references therefore the cache should be cleared
-     * automatically by the garbage collector if neccessary.
+     * the cache is bounded and evicts rarely used variables automatically.
      */
     public static void clearCache(){
         cache.clear();
@@ -0,0 +1,467 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ida.ilp.logic.io;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Constant;
+import ida.ilp.logic.Literal;
+import ida.utils.Sugar;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact representation of a database of ground facts (e.g. the .db files with evidence), one literal per line, for example:
+ * <br />
+ * <br />
+ * student(Person272)<br />
+ * ta(Course124, Person105, Autumn_0304)<br />
+ * !advisedBy(Person105, Person272)<br />
+ * <br />
+ * All arguments are treated as constants (also the ones starting with upper-case letters, which would be parsed
+ * as variables by Literal.parseLiteral). Optionally, the first characters of the constants can be converted to lower-case
+ * in the same way as done by LogicUtils.constantizeClause. Function symbols are not supported. Quoted arguments are allowed.
+ * <br />
+ * <br />
+ * The file is memory-mapped and tokenized directly from the bytes, predicate names and constants are interned into integer
+ * dictionaries, so that one String is created per distinct symbol, not per occurrence. The literals are stored in one int array
+ * in the same layout as used by SubsumptionEngineJ2.ClauseE (predicate, arity, arguments), so the database can be
+ * compiled for the subsumption engine without creating an intermediate Clause (see Matching.createClauseE(EvidenceDatabase)).
+ * Duplicate lines are not removed.
+ *
+ * @author Ondra
+ */
+public class EvidenceDatabase {
+
+    //maximum size of one memory-mapped region
+    private final static int MAX_CHUNK = 1 << 30;
+
+    private final static Charset UTF8 = Charset.forName("UTF-8");
+
+    private SymbolTable predicates = new SymbolTable(false);
+
+    private SymbolTable constants;
+
+    private Constant[] constantObjects;
+
+    private int[] literals = new int[1024];
+
+    private int length = 0;
+
+    private int literalCount = 0;
+
+    private BitSet negated = new BitSet();
+
+    private EvidenceDatabase(boolean lowerCaseConstants){
+        this.constants = new SymbolTable(lowerCaseConstants);
+    }
+
+    /**
+     * Reads the database from the given file.
+     * @param file the file with ground facts, one literal per line
+     * @return the parsed database
+     * @throws IOException if the file cannot be read or it is not well-formed
+     */
+    public static EvidenceDatabase read(File file) throws IOException {
+        return read(file, false);
+    }
+
+    /**
+     * Reads the database from the given file.
+     * @param file the file with ground facts, one literal per line
+     * @param lowerCaseConstants if true, the first character of every constant is converted to lower-case
+     *                           (the result is then the same as when the literals are parsed and passed through LogicUtils.constantizeClause)
+     * @return the parsed database
+     * @throws IOException if the file cannot be read or it is not well-formed
+     */
+    public static EvidenceDatabase read(File file, boolean lowerCaseConstants) throws IOException {
+        EvidenceDatabase db = new EvidenceDatabase(lowerCaseConstants);
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            long position = 0;
+            int lineNumber = 1;
+            while (position < size){
+                int chunkLength = (int)Math.min(size-position, MAX_CHUNK);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, chunkLength);
+                int end = chunkLength;
+                if (position+chunkLength < size){
+                    //the chunk must end at the end of a line
+                    while (end > 0 && buffer.get(end-1) != '\n'){
+                        end--;
+                    }
+                    if (end == 0){
+                        throw new IOException("Line "+lineNumber+" is too long.");
+                    }
+                }
+                int lineStart = 0;
+                for (int i = 0; i < end; i++){
+                    if (buffer.get(i) == '\n'){
+                        db.parseLine(buffer, lineStart, i, lineNumber++);
+                        lineStart = i+1;
+                    }
+                }
+                if (lineStart < end){
+                    db.parseLine(buffer, lineStart, end, lineNumber++);
+                }
+                position += end;
+            }
+        } finally {
+            raf.close();
+        }
+        db.literals = Arrays.copyOf(db.literals, db.length);
+        db.predicates.trim();
+        db.constants.trim();
+        return db;
+    }
+
+    private void parseLine(ByteBuffer buffer, int start, int end, int lineNumber) throws IOException {
+        start = skipWhitespace(buffer, start, end);
+        end = trimWhitespace(buffer, start, end);
+        if (start < end && buffer.get(end-1) == '.'){
+            end = trimWhitespace(buffer, start, end-1);
+        }
+        if (start >= end){
+            return;
+        }
+        boolean neg = false;
+        if (buffer.get(start) == '!'){
+            neg = true;
+            start = skipWhitespace(buffer, start+1, end);
+        }
+        int predicateEnd = scanToken(buffer, start, end, true, lineNumber);
+        int predicate = this.predicates.intern(buffer, start, trimWhitespace(buffer, start, predicateEnd));
+        if (predicate < 0){
+            throw new IOException("Missing predicate name on line "+lineNumber+".");
+        }
+        int header = this.length;
+        ensureCapacity(2);
+        this.literals[this.length++] = predicate;
+        this.literals[this.length++] = 0;
+        if (predicateEnd < end){
+            //buffer.get(predicateEnd) == '('
+            if (buffer.get(end-1) != ')'){
+                throw new IOException("Missing ')' on line "+lineNumber+".");
+            }
+            int closing = end-1;
+            int argStart = skipWhitespace(buffer, predicateEnd+1, closing);
+            if (argStart < closing){
+                while (true){
+                    int argEnd = scanToken(buffer, argStart, closing, false, lineNumber);
+                    int constant = this.constants.intern(buffer, argStart, trimWhitespace(buffer, argStart, argEnd));
+                    if (constant < 0){
+                        throw new IOException("Empty argument on line "+lineNumber+".");
+                    }
+                    ensureCapacity(1);
+                    this.literals[this.length++] = constant;
+                    this.literals[header+1]++;
+                    if (argEnd >= closing){
+                        break;
+                    }
+                    argStart = skipWhitespace(buffer, argEnd+1, closing);
+                }
+            }
+        }
+        if (neg){
+            this.negated.set(header);
+        }
+        this.literalCount++;
+    }
+
+    /**
+     * Finds the end of a token (a predicate name if <em>predicate</em> is true, an argument otherwise),
+     * quoted parts of the token are skipped.
+     * @return index of the first '(' (for predicates) or ',' (for arguments) which is not in quotes, or <em>end</em>
+     */
+    private static int scanToken(ByteBuffer buffer, int start, int end, boolean predicate, int lineNumber) throws IOException {
+        byte quote = 0;
+        for (int i = start; i < end; i++){
+            byte b = buffer.get(i);
+            if (quote != 0){
+                if (b == '\\'){
+                    i++;
+                } else if (b == quote){
+                    quote = 0;
+                }
+            } else if (b == '\'' || b == '"'){
+                quote = b;
+            } else if (b == '('){
+                if (predicate){
+                    return i;
+                }
+                throw new IOException("Function symbols are not supported (line "+lineNumber+").");
+            } else if (b == ','){
+                if (!predicate){
+                    return i;
+                }
+                throw new IOException("Unexpected ',' on line "+lineNumber+".");
+            } else if (b == ')'){
+                throw new IOException("Unexpected ')' on line "+lineNumber+".");
+            }
+        }
+        if (quote != 0){
+            throw new IOException("Unterminated quotes on line "+lineNumber+".");
+        }
+        return end;
+    }
+
+    private static int skipWhitespace(ByteBuffer buffer, int start, int end){
+        while (start < end && (buffer.get(start) & 0xff) <= ' '){
+            start++;
+        }
+        return start;
+    }
+
+    private static int trimWhitespace(ByteBuffer buffer, int start, int end){
+        while (end > start && (buffer.get(end-1) & 0xff) <= ' '){
+            end--;
+        }
+        return end;
+    }
+
+    private void ensureCapacity(int additional){
+        if (this.length+additional > this.literals.length){
+            this.literals = Arrays.copyOf(this.literals, Math.max(this.length+additional, 2*this.literals.length));
+        }
+    }
+
+    /**
+     *
+     * @return number of literals (lines with a literal) in the database
+     */
+    public int countLiterals(){
+        return this.literalCount;
+    }
+
+    /**
+     *
+     * @return number of distinct predicate names
+     */
+    public int countPredicates(){
+        return this.predicates.size;
+    }
+
+    /**
+     *
+     * @return number of distinct constants
+     */
+    public int countConstants(){
+        return this.constants.size;
+    }
+
+    public String predicateName(int predicateID){
+        return this.predicates.names[predicateID];
+    }
+
+    public String constantName(int constantID){
+        return this.constants.names[constantID];
+    }
+
+    /**
+     *
+     * @param constantID identifier of the constant
+     * @return the constant (instance of class Constant) with the given identifier
+     */
+    public Constant constant(int constantID){
+        if (this.constantObjects == null){
+            Constant[] constantObjects = new Constant[this.constants.size];
+            for (int i = 0; i < constantObjects.length; i++){
+                constantObjects[i] = Constant.construct(this.constants.names[i]);
+            }
+            this.constantObjects = constantObjects;
+        }
+        return this.constantObjects[constantID];
+    }
+
+    /**
+     * The literals of the database in the form: predicateID, arity, constantID_1, ..., constantID_arity, predicateID, arity, ...
+     * The returned array must not be modified.
+     * @return the literals of the database
+     */
+    public int[] literals(){
+        return this.literals;
+    }
+
+    /**
+     *
+     * @param literalIndex position of a literal in the array returned by literals()
+     * @return true if the literal starting at the given position is negated
+     */
+    public boolean isNegated(int literalIndex){
+        return this.negated.get(literalIndex);
+    }
+
+    /**
+     *
+     * @param literalIndex position of a literal in the array returned by literals()
+     * @return the literal starting at the given position
+     */
+    public Literal literal(int literalIndex){
+        int arity = this.literals[literalIndex+1];
+        Literal l = new Literal(predicateName(this.literals[literalIndex]), isNegated(literalIndex), arity);
+        for (int i = 0; i < arity; i++){
+            l.set(constant(this.literals[literalIndex+2+i]), i);
+        }
+        return l;
+    }
+
+    /**
+     * Converts the database to a Clause (for the code which needs Clauses).
+     * @return Clause containing all literals from the database
+     */
+    public Clause toClause(){
+        List<Literal> list = new ArrayList<Literal>(this.literalCount);
+        for (int i = 0; i < this.length; i += 2+this.literals[i+1]){
+            list.add(literal(i));
+        }
+        return new Clause(list);
+    }
+
+    /**
+     * Open-addressing hash table interning byte sequences (UTF-8 encoded names) to consecutive integers.
+     */
+    private static class SymbolTable {
+
+        private final boolean lowerCaseFirstCharacter;
+
+        //slots contain indices of the keys (+1), 0 = empty slot
+        private int[] table = new int[1024];
+
+        private byte[][] keys = new byte[256][];
+
+        private int[] hashes = new int[256];
+
+        //identifiers of the keys, several keys may share one identifier when the names are normalized
+        private int[] ids = new int[256];
+
+        private int keyCount = 0;
+
+        private Map<String,Integer> normalizedNames;
+
+        private String[] names = new String[256];
+
+        private int size = 0;
+
+        private SymbolTable(boolean lowerCaseFirstCharacter){
+            this.lowerCaseFirstCharacter = lowerCaseFirstCharacter;
+            if (lowerCaseFirstCharacter){
+                this.normalizedNames = new HashMap<String,Integer>();
+            }
+        }
+
+        /**
+         *
+         * @return identifier of the symbol stored in buffer[start, end), or -1 if the symbol is empty
+         */
+        private int intern(ByteBuffer buffer, int start, int end){
+            if (start >= end){
+                return -1;
+            }
+            int hash = 0x811c9dc5;
+            for (int i = start; i < end; i++){
+                hash = (hash ^ buffer.get(i)) * 0x01000193;
+            }
+            int mask = this.table.length-1;
+            int slot = hash & mask;
+            int entry;
+            while ((entry = this.table[slot]) != 0){
+                int key = entry-1;
+                if (this.hashes[key] == hash && equal(this.keys[key], buffer, start, end)){
+                    return this.ids[key];
+                }
+                slot = (slot+1) & mask;
+            }
+            byte[] bytes = new byte[end-start];
+            for (int i = start; i < end; i++){
+                bytes[i-start] = buffer.get(i);
+            }
+            String name = new String(bytes, UTF8);
+            Integer id = null;
+            if (this.lowerCaseFirstCharacter){
+                name = Sugar.firstCharacterToLowerCase(name);
+                id = this.normalizedNames.get(name);
+            }
+            if (id == null){
+                id = this.size++;
+                if (id == this.names.length){
+                    this.names = Arrays.copyOf(this.names, 2*id);
+                }
+                this.names[id] = name;
+                if (this.lowerCaseFirstCharacter){
+                    this.normalizedNames.put(name, id);
+                }
+            }
+            int key = this.keyCount++;
+            if (key == this.keys.length){
+                this.keys = Arrays.copyOf(this.keys, 2*key);
+                this.hashes = Arrays.copyOf(this.hashes, 2*key);
+                this.ids = Arrays.copyOf(this.ids, 2*key);
+            }
+            this.keys[key] = bytes;
+            this.hashes[key] = hash;
+            this.ids[key] = id;
+            this.table[slot] = key+1;
+            if (2*this.keyCount > this.table.length){
+                rehash();
+            }
+            return id;
+        }
+
+        private static boolean equal(byte[] key, ByteBuffer buffer, int start, int end){
+            if (key.length != end-start){
+                return false;
+            }
+            for (int i = 0; i < key.length; i++){
+                if (key[i] != buffer.get(start+i)){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void rehash(){
+            int[] newTable = new int[2*this.table.length];
+            int mask = newTable.length-1;
+            for (int key = 0; key < this.keyCount; key++){
+                int slot = this.hashes[key] & mask;
+                while (newTable[slot] != 0){
+                    slot = (slot+1) & mask;
+                }
+                newTable[slot] = key+1;
+            }
+            this.table = newTable;
+        }
+
+        /**
+         * Drops the data which are needed only while the database is being read.
+         */
+        private void trim(){
+            this.names = Arrays.copyOf(this.names, this.size);
+            this.keys = null;
+            this.hashes = null;
+            this.ids = null;
+            this.table = null;
+            this.normalizedNames = null;
+        }
+    }
+}
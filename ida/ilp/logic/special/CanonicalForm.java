@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ida.ilp.logic.special;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.ilp.logic.Variable;
+
+import java.util.*;
+
+/**
+ * Canonical form of a clause w.r.t. renaming of variables. Two clauses have the same canonical form
+ * if and only if they are equal up to a bijective renaming of variables (constants, predicates, signs of literals and types
+ * of variables must be preserved).
+ *
+ * The canonical labelling of variables is computed in the style of nauty: the partition of variables is refined
+ * to an equitable partition (colour refinement on the hypergraph given by the literals), the first non-singleton cell is then individualised
+ * vertex by vertex and the leaf with the lexicographically smallest certificate is selected. Branches are pruned using the automorphisms
+ * discovered at leaves with equal certificates.
+ */
+public class CanonicalForm {
+
+    private String certificate;
+
+    private long hash;
+
+    private Clause canonicalClause;
+
+    private Variable[] variables;
+
+    private Literal[] literals;
+
+    //literal index -> for every argument: the index of the variable or -1 if it is not a variable
+    private int[][] arguments;
+
+    //literal index -> id of the literal with variables abstracted away
+    private int[] shapes;
+
+    //variable index -> list of {literal index, argument position}
+    private int[][][] occurrences;
+
+    private String[] shapeStrings;
+
+    //search state
+    private String bestCertificate;
+
+    private int[] bestLabelling;
+
+    private String firstCertificate;
+
+    private int[] firstLabelling;
+
+    private List<int[]> automorphisms = new ArrayList<int[]>();
+
+    public CanonicalForm(Clause clause){
+        this.init(clause);
+        int[] colours = this.initialColours();
+        colours = this.refine(colours);
+        this.search(colours, new ArrayList<Integer>());
+        this.certificate = this.bestCertificate;
+        this.hash = hash64(this.certificate);
+        this.canonicalClause = this.toClause(this.bestLabelling);
+        //only needed during the search
+        this.automorphisms = null;
+        this.firstLabelling = null;
+        this.firstCertificate = null;
+        this.occurrences = null;
+    }
+
+    private void init(Clause clause){
+        Set<Variable> vars = clause.variables();
+        this.variables = vars.toArray(new Variable[vars.size()]);
+        Map<Variable,Integer> variableIndices = new HashMap<Variable,Integer>();
+        for (int i = 0; i < this.variables.length; i++){
+            variableIndices.put(this.variables[i], i);
+        }
+        this.literals = clause.literals().toArray(new Literal[clause.countLiterals()]);
+        this.arguments = new int[this.literals.length][];
+        this.shapeStrings = new String[this.literals.length];
+        List<List<int[]>> occ = new ArrayList<List<int[]>>();
+        for (int i = 0; i < this.variables.length; i++){
+            occ.add(new ArrayList<int[]>());
+        }
+        for (int i = 0; i < this.literals.length; i++){
+            Literal l = this.literals[i];
+            this.arguments[i] = new int[l.arity()];
+            for (int j = 0; j < l.arity(); j++){
+                Integer var = l.get(j) instanceof Variable ? variableIndices.get(l.get(j)) : null;
+                if (var == null){
+                    this.arguments[i][j] = -1;
+                } else {
+                    this.arguments[i][j] = var;
+                    occ.get(var).add(new int[]{i, j});
+                }
+            }
+            this.shapeStrings[i] = encode(l, this.arguments[i], null);
+        }
+        String[] sortedShapes = this.shapeStrings.clone();
+        Arrays.sort(sortedShapes);
+        this.shapes = new int[this.literals.length];
+        for (int i = 0; i < this.literals.length; i++){
+            this.shapes[i] = Arrays.binarySearch(sortedShapes, this.shapeStrings[i]);
+        }
+        this.occurrences = new int[this.variables.length][][];
+        for (int i = 0; i < this.variables.length; i++){
+            this.occurrences[i] = occ.get(i).toArray(new int[occ.get(i).size()][]);
+        }
+    }
+
+    private int[] initialColours(){
+        //types of variables
+        String[] types = new String[this.variables.length];
+        for (int i = 0; i < types.length; i++){
+            types[i] = this.variables[i].type() == null ? "" : "#"+this.variables[i].type();
+        }
+        String[] sortedTypes = types.clone();
+        Arrays.sort(sortedTypes);
+        int[] colours = new int[this.variables.length];
+        for (int i = 0; i < colours.length; i++){
+            colours[i] = Arrays.binarySearch(sortedTypes, types[i]);
+        }
+        return colours;
+    }
+
+    //colour refinement, the new colours respect the order of the old colours
+    private int[] refine(int[] colours){
+        int numColours = countColours(colours);
+        while (true){
+            int[][] signatures = new int[this.variables.length][];
+            for (int v = 0; v < this.variables.length; v++){
+                int[][] occs = new int[this.occurrences[v].length][];
+                for (int k = 0; k < occs.length; k++){
+                    int literal = this.occurrences[v][k][0];
+                    int[] args = this.arguments[literal];
+                    int[] occ = new int[args.length+2];
+                    occ[0] = this.shapes[literal];
+                    occ[1] = this.occurrences[v][k][1];
+                    for (int j = 0; j < args.length; j++){
+                        occ[j+2] = args[j] == -1 ? -1 : colours[args[j]];
+                    }
+                    occs[k] = occ;
+                }
+                Arrays.sort(occs, LEXICOGRAPHIC);
+                int length = 1;
+                for (int[] occ : occs){
+                    length += occ.length+1;
+                }
+                int[] signature = new int[length];
+                signature[0] = colours[v];
+                int index = 1;
+                for (int[] occ : occs){
+                    signature[index++] = occ.length;
+                    System.arraycopy(occ, 0, signature, index, occ.length);
+                    index += occ.length;
+                }
+                signatures[v] = signature;
+            }
+            int[] newColours = rank(signatures);
+            int newNumColours = countColours(newColours);
+            if (newNumColours == numColours){
+                return newColours;
+            }
+            colours = newColours;
+            numColours = newNumColours;
+        }
+    }
+
+    private void search(int[] colours, List<Integer> individualised){
+        int n = this.variables.length;
+        //first non-singleton cell (the one with the smallest colour)
+        int[] cellSizes = new int[n];
+        for (int c : colours){
+            cellSizes[c]++;
+        }
+        int targetColour = -1;
+        for (int c = 0; c < n; c++){
+            if (cellSizes[c] > 1){
+                targetColour = c;
+                break;
+            }
+        }
+        if (targetColour == -1){
+            leaf(colours);
+            return;
+        }
+        List<Integer> explored = new ArrayList<Integer>();
+        for (int v = 0; v < n; v++){
+            if (colours[v] == targetColour){
+                if (!explored.isEmpty() && isInOrbitOfExplored(v, explored, individualised)){
+                    continue;
+                }
+                explored.add(v);
+                int[] newColours = new int[n];
+                for (int u = 0; u < n; u++){
+                    newColours[u] = 2*colours[u] + (colours[u] == targetColour && u != v ? 1 : 0);
+                }
+                individualised.add(v);
+                this.search(this.refine(rank(newColours)), individualised);
+                individualised.remove(individualised.size()-1);
+            }
+        }
+    }
+
+    //orbits of the group generated by the automorphisms found so far which fix the individualised variables
+    private boolean isInOrbitOfExplored(int v, List<Integer> explored, List<Integer> individualised){
+        int[] parents = new int[this.variables.length];
+        for (int i = 0; i < parents.length; i++){
+            parents[i] = i;
+        }
+        for (int[] automorphism : this.automorphisms){
+            boolean fixes = true;
+            for (int u : individualised){
+                if (automorphism[u] != u){
+                    fixes = false;
+                    break;
+                }
+            }
+            if (fixes){
+                for (int u = 0; u < automorphism.length; u++){
+                    int r1 = find(parents, u), r2 = find(parents, automorphism[u]);
+                    if (r1 != r2){
+                        parents[r1] = r2;
+                    }
+                }
+            }
+        }
+        int root = find(parents, v);
+        for (int u : explored){
+            if (find(parents, u) == root){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int find(int[] parents, int i){
+        while (parents[i] != i){
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private void leaf(int[] labelling){
+        String cert = this.certificate(labelling);
+        if (this.firstCertificate == null){
+            this.firstCertificate = cert;
+            this.firstLabelling = labelling;
+            this.bestCertificate = cert;
+            this.bestLabelling = labelling;
+            return;
+        }
+        if (cert.equals(this.firstCertificate)){
+            this.automorphisms.add(automorphism(this.firstLabelling, labelling));
+        } else if (cert.equals(this.bestCertificate)){
+            this.automorphisms.add(automorphism(this.bestLabelling, labelling));
+        } else if (cert.compareTo(this.bestCertificate) < 0){
+            this.bestCertificate = cert;
+            this.bestLabelling = labelling;
+        }
+    }
+
+    //maps every variable v to the variable which gets the same label in labelling1 as v in labelling2
+    private static int[] automorphism(int[] labelling1, int[] labelling2){
+        int[] inverse1 = new int[labelling1.length];
+        for (int i = 0; i < labelling1.length; i++){
+            inverse1[labelling1[i]] = i;
+        }
+        int[] retVal = new int[labelling2.length];
+        for (int i = 0; i < labelling2.length; i++){
+            retVal[i] = inverse1[labelling2[i]];
+        }
+        return retVal;
+    }
+
+    private String certificate(int[] labelling){
+        String[] encodedLiterals = new String[this.literals.length];
+        for (int i = 0; i < this.literals.length; i++){
+            encodedLiterals[i] = encode(this.literals[i], this.arguments[i], labelling);
+        }
+        Arrays.sort(encodedLiterals);
+        StringBuilder sb = new StringBuilder();
+        for (String s : encodedLiterals){
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    //unambiguous encoding of a literal, variables are replaced by their labels (or by a placeholder if labelling is null)
+    private String encode(Literal l, int[] args, int[] labelling){
+        StringBuilder sb = new StringBuilder();
+        sb.append(l.isNegated() ? '!' : '+').append(l.predicate().length()).append(':').append(l.predicate()).append('/').append(l.arity());
+        for (int j = 0; j < args.length; j++){
+            if (args[j] == -1){
+                String s = l.get(j).toString();
+                sb.append('c').append(s.length()).append(':').append(s);
+            } else {
+                sb.append('v');
+                if (labelling != null){
+                    sb.append(labelling[args[j]]);
+                }
+                String type = this.variables[args[j]].type();
+                if (type != null){
+                    sb.append('#').append(type.length()).append(':').append(type);
+                }
+                sb.append(';');
+            }
+        }
+        return sb.toString();
+    }
+
+    private Clause toClause(int[] labelling){
+        Variable[] canonicalVariables = new Variable[this.variables.length];
+        for (int i = 0; i < canonicalVariables.length; i++){
+            canonicalVariables[i] = Variable.construct("V"+labelling[i], this.variables[i].type());
+        }
+        List<Literal> canonicalLiterals = new ArrayList<Literal>(this.literals.length);
+        for (int i = 0; i < this.literals.length; i++){
+            Literal l = this.literals[i];
+            Literal newLiteral = new Literal(l.predicate(), l.isNegated(), l.arity());
+            for (int j = 0; j < l.arity(); j++){
+                newLiteral.set(this.arguments[i][j] == -1 ? l.get(j) : canonicalVariables[this.arguments[i][j]], j);
+            }
+            canonicalLiterals.add(newLiteral);
+        }
+        return new Clause(canonicalLiterals);
+    }
+
+    //dense ranks of the given keys w.r.t. their natural (lexicographic) order
+    private static int[] rank(int[][] keys){
+        Integer[] order = new Integer[keys.length];
+        for (int i = 0; i < order.length; i++){
+            order[i] = i;
+        }
+        final int[][] fKeys = keys;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return LEXICOGRAPHIC.compare(fKeys[o1], fKeys[o2]);
+            }
+        });
+        int[] ranks = new int[keys.length];
+        int rank = 0;
+        for (int i = 0; i < order.length; i++){
+            if (i > 0 && LEXICOGRAPHIC.compare(keys[order[i-1]], keys[order[i]]) != 0){
+                rank++;
+            }
+            ranks[order[i]] = rank;
+        }
+        return ranks;
+    }
+
+    private static int[] rank(int[] keys){
+        int[][] wrapped = new int[keys.length][];
+        for (int i = 0; i < keys.length; i++){
+            wrapped[i] = new int[]{keys[i]};
+        }
+        return rank(wrapped);
+    }
+
+    private static int countColours(int[] colours){
+        int max = -1;
+        for (int c : colours){
+            max = Math.max(max, c);
+        }
+        return max+1;
+    }
+
+    private final static Comparator<int[]> LEXICOGRAPHIC = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] o1, int[] o2) {
+            int l = Math.min(o1.length, o2.length);
+            for (int i = 0; i < l; i++){
+                if (o1[i] != o2[i]){
+                    return o1[i] < o2[i] ? -1 : 1;
+                }
+            }
+            return o1.length < o2.length ? -1 : (o1.length == o2.length ? 0 : 1);
+        }
+    };
+
+    //64-bit FNV-1a with a final avalanche step
+    private static long hash64(String s){
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++){
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     *
+     * @return the clause with variables renamed to V0, V1, ... according to the canonical labelling
+     */
+    public Clause canonicalClause(){
+        return this.canonicalClause;
+    }
+
+    /**
+     *
+     * @return string which uniquely determines the clause up to renaming of variables
+     */
+    public String certificate(){
+        return this.certificate;
+    }
+
+    /**
+     *
+     * @return 64-bit hash of the certificate
+     */
+    public long longHashCode(){
+        return this.hash;
+    }
+
+    @Override
+    public int hashCode(){
+        return (int)(this.hash ^ (this.hash >>> 32));
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if (o instanceof CanonicalForm){
+            CanonicalForm cf = (CanonicalForm)o;
+            return cf.hash == this.hash && cf.certificate.equals(this.certificate);
+        }
+        return false;
+    }
+
+    @Override
+    public String toString(){
+        return this.canonicalClause.toString();
+    }
+}
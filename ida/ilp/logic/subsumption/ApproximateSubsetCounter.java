@@ -47,8 +47,6 @@ public class ApproximateSubsetCounter {
 
     private Clause db;
 
-    private Random random = new Random(getClass().getName().hashCode());
-
     private final static Object cacheLock = new Object();
 
     private static Cache<Pair<Set<IsoClauseWrapper>,Integer>,Double> cache = new Cache<Pair<Set<IsoClauseWrapper>, Integer>, Double>();
@@ -88,12 +86,15 @@ public class ApproximateSubsetCounter {
             }
         }
         double retVal;
+        //the sampling is seeded by the query, so the estimate does not depend on the other queries counted before (possibly
+        //by other threads) and the cached value is the same whichever thread computes it first
+        Random random = new Random(31*getClass().getName().hashCode() + representative.hashCode());
         int maxExact = 10000;
         int count1 = count(orOfQueries, maxCard, maxExact);
         if (count1 < maxExact){
             retVal = Math.log(count1) / log2;
         } else {
-            Double estimate = logApproxBySimpleSampling(orOfQueries, maxCard, 10000);
+            Double estimate = logApproxBySimpleSampling(orOfQueries, maxCard, 10000, random);
             if (estimate != null) {
                 //System.out.println("Simple sampling estimate: "+estimate);
                 retVal = estimate.doubleValue();
@@ -104,7 +105,7 @@ public class ApproximateSubsetCounter {
                     if (verbose) {
                         System.out.println("warning: using xor-based sampling (slow).");
                     }
-                    retVal = approxMC2(orOfQueries, this.clauseE, maxCard);
+                    retVal = approxMC2(orOfQueries, this.clauseE, maxCard, random);
                 } else {
                     retVal = Math.log(count1) / log2;
                 }
@@ -116,12 +117,12 @@ public class ApproximateSubsetCounter {
         return retVal;
     }
 
-    private Double logApproxBySimpleSampling(List<Clause> orOfQueries, int maxCard, int numSamples){
+    private Double logApproxBySimpleSampling(List<Clause> orOfQueries, int maxCard, int numSamples, Random random){
         double hits = 0;
         List<Constant> constants = Sugar.listFromCollections(LogicUtils.constants(this.db));
         double tries = 0;
         outerLoop: for (int i = 0; i < numSamples; i++){
-            Tuple<Constant> sample = Combinatorics.randomCombination(constants, maxCard, this.random);
+            Tuple<Constant> sample = Combinatorics.randomCombination(constants, maxCard, random);
             tries++;
             Clause e = new Clause(Sugar.union(LogicUtils.induced(this.db, sample.toSet()).literals(), new Literal("", sample.toList())));
             for (Clause q : orOfQueries){
@@ -171,11 +172,11 @@ public class ApproximateSubsetCounter {
         return allImages(orOfQueries, this.clauseE, maxCard, maxCount, null, null);
     }
 
-    private double approxMC2(Clause query, SubsumptionEngineJ2.ClauseE clauseE, int maxCard){
-        return Sugar.println(approxMC2(Sugar.<Clause>list(query), clauseE, maxCard));
+    private double approxMC2(Clause query, SubsumptionEngineJ2.ClauseE clauseE, int maxCard, Random random){
+        return Sugar.println(approxMC2(Sugar.<Clause>list(query), clauseE, maxCard, random));
     }
 
-    private double approxMC2(List<Clause> orOfQueries, SubsumptionEngineJ2.ClauseE clauseE, int maxCard){
+    private double approxMC2(List<Clause> orOfQueries, SubsumptionEngineJ2.ClauseE clauseE, int maxCard, Random random){
         double threshold = 1+9.84*(1+epsilon/(1+epsilon))*Sugar.square(1 + 1 / epsilon);
         Set<Set<Term>> imgs = allImages(orOfQueries, clauseE, maxCard, (int)threshold, null, null);
         if (imgs.size() < (int)threshold){
@@ -190,7 +191,7 @@ public class ApproximateSubsetCounter {
         int logNCells = 1;
         List<Double> logCounts = new ArrayList<Double>();
         for (int i = 0; i < t; i++){
-            Pair<Double,Double> p = approxMC2Core(orOfQueries, clauseE, maxCard, (int)threshold, logNCells);
+            Pair<Double,Double> p = approxMC2Core(orOfQueries, clauseE, maxCard, (int)threshold, logNCells, random);
             if (p != null) {
                 logCounts.add(p.r + Math.log(p.s) / log2);
                 logNCells = p.r.intValue();
@@ -204,14 +205,14 @@ public class ApproximateSubsetCounter {
         return logCountsArray[logCountsArray.length/2];
     }
 
-    private Pair<Double,Double> approxMC2Core(List<Clause> orOfQueries, SubsumptionEngineJ2.ClauseE clauseE, int maxCard, int threshold, int logPrevNCells){
+    private Pair<Double,Double> approxMC2Core(List<Clause> orOfQueries, SubsumptionEngineJ2.ClauseE clauseE, int maxCard, int threshold, int logPrevNCells, Random random){
         int numTerms = clauseE.allTerms().size();
         int numRows = (int)Math.ceil(Combinatorics.logBinomial(numTerms, maxCard)/log2);
         boolean[][] left = new boolean[numRows][];
         boolean[] right = new boolean[numRows];
         for (int i = 0; i < left.length; i++){
-            left[i] = VectorUtils.randomBooleanVector(numTerms, this.random);
-            right[i] = this.random.nextBoolean();
+            left[i] = VectorUtils.randomBooleanVector(numTerms, random);
+            right[i] = random.nextBoolean();
         }
         Set<Set<Term>> images = allImages(orOfQueries, clauseE, maxCard, threshold, left,  right);
         if (images.size() >= threshold){
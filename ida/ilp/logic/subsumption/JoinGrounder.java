@@ -0,0 +1,627 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ida.ilp.logic.subsumption;
+
+import ida.ilp.logic.*;
+import ida.utils.Sugar;
+import ida.utils.tuples.Pair;
+
+import java.util.*;
+
+/**
+ * Computes all substitutions of a query clause w.r.t. one ground example by evaluating the query
+ * as a conjunctive query over relations. Positive literals of the query are joins over hash indexes
+ * of the positive literals of the example, negated literals are closed-world "not present" checks and the special
+ * predicates (@neq, @alldiff, @in etc.) are filters, both are evaluated as soon as all their variables are bound.
+ * The variable domains are first reduced by semi-joins and the joins are then ordered greedily by their estimated selectivity.
+ *
+ * The set of returned substitutions is the same as the one returned by Matching.allSubstitutions (in theta-subsumption
+ * or object-identity mode) on the same example, only the order may differ. Queries with @anypred or symmetric predicates
+ * are delegated to Matching.
+ *
+ * The example can be extended in place by addFacts(...). The tuples of every relation are kept in the order in which
+ * they were added, so a range of indices of a relation (see relationSize(...)) identifies e.g. the facts added in the last
+ * round of a fixpoint computation, and the positive literals of a query can be restricted to such ranges.
+ */
+public class JoinGrounder {
+
+    private Clause example;
+
+    private int subsumptionMode = Matching.THETA_SUBSUMPTION;
+
+    private Map<Pair<String,Integer>,List<Term[]>> relations = new HashMap<Pair<String,Integer>,List<Term[]>>();
+
+    private Set<Literal> facts = new HashSet<Literal>();
+
+    private Set<Term> allTerms;
+
+    //literals added by addFacts(...) which are not yet part of the example used by Matching
+    private List<Literal> addedLiterals = new ArrayList<Literal>();
+
+    private Matching matching;
+
+    private final static Set<String> specialPredicates = Sugar.setFromCollections(SpecialBinaryPredicates.SPECIAL_PREDICATES, SpecialVarargPredicates.SPECIAL_PREDICATES);
+
+    /**
+     * Creates a new instance of JoinGrounder
+     * @param example the example - typically a set of ground literals (its negated literals only contribute terms, as in Matching)
+     */
+    public JoinGrounder(Clause example){
+        this.example = example;
+        for (Literal l : example.literals()){
+            if (!l.isNegated() && this.facts.add(l)){
+                addTuple(l);
+            }
+        }
+        this.allTerms = new LinkedHashSet<Term>(example.terms());
+    }
+
+    private void addTuple(Literal l){
+        Pair<String,Integer> key = new Pair<String,Integer>(l.predicate(), l.arity());
+        List<Term[]> relation = this.relations.get(key);
+        if (relation == null){
+            relation = new ArrayList<Term[]>();
+            this.relations.put(key, relation);
+        }
+        relation.add(l.arguments().clone());
+    }
+
+    /**
+     * Extends the example in place. The tuples of the new positive literals are appended at the ends of their relations
+     * (literals which are already contained in the example are ignored), negated literals only contribute terms.
+     * @param literals the literals to be added
+     */
+    public void addFacts(Collection<Literal> literals){
+        for (Literal l : literals){
+            if (!l.isNegated() && this.facts.add(l)){
+                addTuple(l);
+            }
+            for (int i = 0; i < l.arity(); i++){
+                this.allTerms.add(l.get(i));
+            }
+            this.addedLiterals.add(l);
+        }
+    }
+
+    /**
+     *
+     * @param predicate
+     * @param arity
+     * @return number of tuples (i.e. positive literals of the example) of the given relation
+     */
+    public int relationSize(String predicate, int arity){
+        List<Term[]> relation = this.relations.get(new Pair<String,Integer>(predicate, arity));
+        return relation == null ? 0 : relation.size();
+    }
+
+    /**
+     *
+     * @return number of terms of the example (the domain of the variables which do not appear in positive literals of queries)
+     */
+    public int numTerms(){
+        return this.allTerms.size();
+    }
+
+    /**
+     * Computes all substitutions for which all positive literals of the query are contained in the example, no negated literal
+     * of the query is contained in the example and all special literals are true.
+     * @param query the query clause
+     * @return pair: the first element is an array of variables, the second element is a list
+     * of arrays of terms - each such array represents one substitution to the respective variables.
+     */
+    public Pair<Term[],List<Term[]>> allSubstitutions(Clause query){
+        return allSubstitutions(query, null);
+    }
+
+    /**
+     * Computes all substitutions as allSubstitutions(query) but the positive literals of the query which are keys of the map
+     * can only be matched to the tuples of their relations with indices in the given ranges [from, to) - this is what
+     * semi-naive evaluation needs (e.g. one literal is matched only to the newly derived facts). Queries which are delegated
+     * to Matching ignore the ranges, so the result is then a superset.
+     * @param query the query clause
+     * @param ranges map: positive literal of the query -> {from, to}, can be null
+     * @return pair: the first element is an array of variables, the second element is a list
+     * of arrays of terms - each such array represents one substitution to the respective variables.
+     */
+    public Pair<Term[],List<Term[]>> allSubstitutions(Clause query, Map<Literal,int[]> ranges){
+        if (!isSupported(query)){
+            if (!this.addedLiterals.isEmpty()){
+                this.example = new Clause(Sugar.union(this.example.literals(), this.addedLiterals));
+                this.addedLiterals.clear();
+                this.matching = null;
+            }
+            if (this.matching == null){
+                this.matching = new Matching(Sugar.<Clause>list(this.example));
+                this.matching.setSubsumptionMode(this.subsumptionMode);
+            }
+            return this.matching.allSubstitutions(query, 0, Integer.MAX_VALUE);
+        }
+        return new Query(query, ranges).solve();
+    }
+
+    private boolean isSupported(Clause query){
+        for (Literal l : query.literals()){
+            if (l.predicate().equals(SpecialVarargPredicates.ANYPRED) || l.predicate().startsWith(SymmetricPredicates.PREFIX)){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *
+     * @param subsumptionMode Matching.THETA_SUBSUMPTION or Matching.OI_SUBSUMPTION (in which the variables must be mapped to distinct terms)
+     */
+    public void setSubsumptionMode(int subsumptionMode){
+        this.subsumptionMode = subsumptionMode;
+        if (this.matching != null){
+            this.matching.setSubsumptionMode(subsumptionMode);
+        }
+    }
+
+    private class Query {
+
+        private Variable[] variables;
+
+        private Map<Variable,Integer> variableIndices = new HashMap<Variable,Integer>();
+
+        private List<Literal> joins = new ArrayList<Literal>();
+
+        private List<Literal> filters = new ArrayList<Literal>();
+
+        //for each join literal: the tuples which survived the semi-join reduction
+        private List<Term[]>[] tuples;
+
+        private Set<Term>[] domains;
+
+        private Step[] plan;
+
+        private List<Literal> initialFilters = new ArrayList<Literal>();
+
+        private Map<Literal,int[]> ranges;
+
+        private Query(Clause query, Map<Literal,int[]> ranges){
+            this.ranges = ranges;
+            this.variables = query.variables().toArray(new Variable[0]);
+            for (int i = 0; i < this.variables.length; i++){
+                this.variableIndices.put(this.variables[i], i);
+            }
+            for (Literal l : query.literals()){
+                if (l.isNegated() || specialPredicates.contains(l.predicate())){
+                    this.filters.add(l);
+                } else {
+                    this.joins.add(l);
+                }
+            }
+        }
+
+        private Pair<Term[],List<Term[]>> solve(){
+            List<Term[]> solutions = new ArrayList<Term[]>();
+            if (reduce()) {
+                plan();
+                Term[] assignment = new Term[this.variables.length];
+                if (checkFilters(this.initialFilters, assignment)) {
+                    enumerate(0, assignment, new HashSet<Term>(), solutions);
+                }
+            }
+            return new Pair<Term[],List<Term[]>>(this.variables, solutions);
+        }
+
+        //semi-join reduction of the join relations and of the variable domains, returns false if there is no solution
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private boolean reduce(){
+            this.tuples = new List[this.joins.size()];
+            this.domains = new Set[this.variables.length];
+            for (int i = 0; i < this.joins.size(); i++){
+                Literal l = this.joins.get(i);
+                List<Term[]> relation = relations.get(new Pair<String,Integer>(l.predicate(), l.arity()));
+                if (relation == null){
+                    return false;
+                }
+                int[] range = this.ranges == null ? null : this.ranges.get(l);
+                if (range != null){
+                    relation = relation.subList(Math.min(range[0], relation.size()), Math.min(range[1], relation.size()));
+                }
+                List<Term[]> filtered = new ArrayList<Term[]>();
+                for (Term[] tuple : relation){
+                    if (isConsistent(l, tuple)){
+                        filtered.add(tuple);
+                    }
+                }
+                if (filtered.isEmpty()){
+                    return false;
+                }
+                this.tuples[i] = filtered;
+            }
+            boolean changed;
+            do {
+                changed = false;
+                for (int i = 0; i < this.joins.size(); i++){
+                    Literal l = this.joins.get(i);
+                    List<Term[]> filtered = new ArrayList<Term[]>(this.tuples[i].size());
+                    for (Term[] tuple : this.tuples[i]){
+                        if (isInDomains(l, tuple)){
+                            filtered.add(tuple);
+                        }
+                    }
+                    if (filtered.isEmpty()){
+                        return false;
+                    }
+                    this.tuples[i] = filtered;
+                    for (int j = 0; j < l.arity(); j++){
+                        if (l.get(j) instanceof Variable){
+                            int var = this.variableIndices.get(l.get(j));
+                            Set<Term> projection = new HashSet<Term>();
+                            for (Term[] tuple : filtered){
+                                projection.add(tuple[j]);
+                            }
+                            //the projection is a subset of the current domain because the tuples have been filtered
+                            if (this.domains[var] == null || projection.size() < this.domains[var].size()){
+                                this.domains[var] = projection;
+                                changed = true;
+                            }
+                        }
+                    }
+                }
+            } while (changed);
+            //variables which do not appear in any positive literal range over all terms of the example
+            for (int i = 0; i < this.variables.length; i++){
+                if (this.domains[i] == null){
+                    Set<Term> domain = new LinkedHashSet<Term>();
+                    for (Term t : allTerms){
+                        if (hasType(this.variables[i], t)){
+                            domain.add(t);
+                        }
+                    }
+                    if (domain.isEmpty()){
+                        return false;
+                    }
+                    this.domains[i] = domain;
+                }
+            }
+            return true;
+        }
+
+        //constants, repeated variables and types of variables
+        private boolean isConsistent(Literal l, Term[] tuple){
+            for (int j = 0; j < tuple.length; j++){
+                Term t = l.get(j);
+                if (t instanceof Variable){
+                    if (!hasType((Variable)t, tuple[j])){
+                        return false;
+                    }
+                    for (int k = 0; k < j; k++){
+                        if (l.get(k).equals(t) && !tuple[k].equals(tuple[j])){
+                            return false;
+                        }
+                    }
+                } else if (!t.equals(tuple[j])){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean isInDomains(Literal l, Term[] tuple){
+            for (int j = 0; j < tuple.length; j++){
+                if (l.get(j) instanceof Variable){
+                    Set<Term> domain = this.domains[this.variableIndices.get(l.get(j))];
+                    if (domain != null && !domain.contains(tuple[j])){
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean hasType(Variable v, Term t){
+            return v.type() == null || v.type().equals(t.type());
+        }
+
+        private void plan(){
+            List<Step> steps = new ArrayList<Step>();
+            boolean[] bound = new boolean[this.variables.length];
+            boolean[] joined = new boolean[this.joins.size()];
+            List<Literal> remainingFilters = new ArrayList<Literal>(this.filters);
+            this.initialFilters = popEvaluableFilters(remainingFilters, bound);
+            for (int k = 0; k < this.joins.size(); k++){
+                int best = -1;
+                double bestEstimate = Double.POSITIVE_INFINITY;
+                for (int i = 0; i < this.joins.size(); i++){
+                    if (!joined[i]){
+                        //expected number of tuples per binding of the already bound variables
+                        double estimate = this.tuples[i].size();
+                        Literal l = this.joins.get(i);
+                        Set<Integer> boundHere = new HashSet<Integer>();
+                        for (int j = 0; j < l.arity(); j++){
+                            if (l.get(j) instanceof Variable){
+                                int var = this.variableIndices.get(l.get(j));
+                                if (bound[var] && boundHere.add(var)){
+                                    estimate /= this.domains[var].size();
+                                }
+                            }
+                        }
+                        if (estimate < bestEstimate || best == -1){
+                            best = i;
+                            bestEstimate = estimate;
+                        }
+                    }
+                }
+                joined[best] = true;
+                steps.add(new JoinStep(best, bound));
+                steps.get(steps.size()-1).filters = popEvaluableFilters(remainingFilters, bound);
+            }
+            //variables which do not appear in positive literals, smallest domains first
+            List<Integer> unbound = new ArrayList<Integer>();
+            for (int i = 0; i < this.variables.length; i++){
+                if (!bound[i]){
+                    unbound.add(i);
+                }
+            }
+            Collections.sort(unbound, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return Integer.compare(domains[o1].size(), domains[o2].size());
+                }
+            });
+            for (int var : unbound){
+                bound[var] = true;
+                steps.add(new VariableStep(var));
+                steps.get(steps.size()-1).filters = popEvaluableFilters(remainingFilters, bound);
+            }
+            this.plan = steps.toArray(new Step[steps.size()]);
+        }
+
+        private List<Literal> popEvaluableFilters(List<Literal> remainingFilters, boolean[] bound){
+            List<Literal> retVal = new ArrayList<Literal>();
+            for (Iterator<Literal> it = remainingFilters.iterator(); it.hasNext();){
+                Literal l = it.next();
+                boolean ground = true;
+                for (int j = 0; j < l.arity(); j++){
+                    if (l.get(j) instanceof Variable && !bound[this.variableIndices.get(l.get(j))]){
+                        ground = false;
+                        break;
+                    }
+                }
+                if (ground){
+                    retVal.add(l);
+                    it.remove();
+                }
+            }
+            return retVal;
+        }
+
+        private void enumerate(int stepIndex, Term[] assignment, Set<Term> used, List<Term[]> solutions){
+            if (stepIndex == this.plan.length){
+                solutions.add(assignment.clone());
+                return;
+            }
+            Step step = this.plan[stepIndex];
+            for (Term[] values : step.candidates(assignment)){
+                int[] newVariables = step.newVariables;
+                int numBound = 0;
+                boolean ok = true;
+                for (; numBound < newVariables.length; numBound++){
+                    Term value = values[step.newVariablePositions[numBound]];
+                    if (subsumptionMode == Matching.OI_SUBSUMPTION && !used.add(value)){
+                        ok = false;
+                        break;
+                    }
+                    assignment[newVariables[numBound]] = value;
+                }
+                if (ok && checkFilters(step.filters, assignment)){
+                    enumerate(stepIndex+1, assignment, used, solutions);
+                }
+                for (int i = 0; i < numBound; i++){
+                    if (subsumptionMode == Matching.OI_SUBSUMPTION){
+                        used.remove(assignment[newVariables[i]]);
+                    }
+                    assignment[newVariables[i]] = null;
+                }
+            }
+        }
+
+        private boolean checkFilters(List<Literal> filters, Term[] assignment){
+            for (Literal l : filters){
+                Term[] args = new Term[l.arity()];
+                for (int j = 0; j < args.length; j++){
+                    Term t = l.get(j);
+                    args[j] = t instanceof Variable ? assignment[this.variableIndices.get(t)] : t;
+                }
+                boolean isTrue;
+                if (specialPredicates.contains(l.predicate())){
+                    isTrue = isSpecialTrue(l.predicate(), args);
+                } else {
+                    isTrue = facts.contains(new Literal(l.predicate(), args));
+                }
+                if (isTrue == l.isNegated()){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private abstract class Step {
+
+            int[] newVariables;
+
+            int[] newVariablePositions;
+
+            List<Literal> filters;
+
+            abstract Collection<Term[]> candidates(Term[] assignment);
+        }
+
+        private class JoinStep extends Step {
+
+            private int[] keyPositions;
+
+            //variables bound by the previous steps which are used to look up the matching tuples
+            private int[] keyVariables;
+
+            private List<Term[]> all;
+
+            private Map<List<Term>,List<Term[]>> index;
+
+            //marks the variables of the literal as bound
+            private JoinStep(int literalIndex, boolean[] bound){
+                Literal l = joins.get(literalIndex);
+                List<Integer> keyPositions = new ArrayList<Integer>();
+                List<Integer> keyVariables = new ArrayList<Integer>();
+                List<Integer> newVariables = new ArrayList<Integer>();
+                List<Integer> newVariablePositions = new ArrayList<Integer>();
+                for (int j = 0; j < l.arity(); j++){
+                    if (l.get(j) instanceof Variable){
+                        int var = variableIndices.get(l.get(j));
+                        if (bound[var]){
+                            //repeated occurrences of new variables are already consistent in the reduced tuples
+                            if (!newVariables.contains(var)){
+                                keyPositions.add(j);
+                                keyVariables.add(var);
+                            }
+                        } else {
+                            bound[var] = true;
+                            newVariables.add(var);
+                            newVariablePositions.add(j);
+                        }
+                    }
+                }
+                this.keyPositions = toArray(keyPositions);
+                this.keyVariables = toArray(keyVariables);
+                this.newVariables = toArray(newVariables);
+                this.newVariablePositions = toArray(newVariablePositions);
+                if (this.keyPositions.length == 0){
+                    this.all = tuples[literalIndex];
+                } else {
+                    this.index = new HashMap<List<Term>,List<Term[]>>();
+                    for (Term[] tuple : tuples[literalIndex]){
+                        List<Term> key = new ArrayList<Term>(this.keyPositions.length);
+                        for (int position : this.keyPositions){
+                            key.add(tuple[position]);
+                        }
+                        List<Term[]> bucket = this.index.get(key);
+                        if (bucket == null){
+                            bucket = new ArrayList<Term[]>();
+                            this.index.put(key, bucket);
+                        }
+                        bucket.add(tuple);
+                    }
+                }
+            }
+
+            @Override
+            Collection<Term[]> candidates(Term[] assignment){
+                if (this.index == null){
+                    return this.all;
+                }
+                List<Term> key = new ArrayList<Term>(this.keyVariables.length);
+                for (int var : this.keyVariables){
+                    key.add(assignment[var]);
+                }
+                List<Term[]> bucket = this.index.get(key);
+                return bucket == null ? Collections.<Term[]>emptyList() : bucket;
+            }
+        }
+
+        private class VariableStep extends Step {
+
+            private List<Term[]> values = new ArrayList<Term[]>();
+
+            private VariableStep(int var){
+                this.newVariables = new int[]{var};
+                this.newVariablePositions = new int[]{0};
+                for (Term t : domains[var]){
+                    this.values.add(new Term[]{t});
+                }
+            }
+
+            @Override
+            Collection<Term[]> candidates(Term[] assignment){
+                return this.values;
+            }
+        }
+    }
+
+    //semantics of the special predicates as in SubsumptionEngineJ2 (for ground arguments)
+    private static boolean isSpecialTrue(String predicate, Term[] args){
+        if (predicate.equals(SpecialVarargPredicates.TRUE)){
+            return true;
+        } else if (predicate.equals(SpecialVarargPredicates.FALSE)){
+            return false;
+        } else if (predicate.equals(SpecialVarargPredicates.ALLDIFF)){
+            return new HashSet<Term>(Arrays.asList(args)).size() == args.length;
+        } else if (predicate.equals(SpecialVarargPredicates.IN)){
+            for (int i = 1; i < args.length; i++){
+                if (args[0].equals(args[i])){
+                    return true;
+                }
+            }
+            return false;
+        } else if (predicate.equals(SpecialVarargPredicates.TUPLE)){
+            for (int i = 0; i < args.length/2; i++){
+                if (!args[i].equals(args[i+args.length/2])){
+                    return false;
+                }
+            }
+            return true;
+        } else if (predicate.equals(SpecialVarargPredicates.MAX_CARD)){
+            if (!(args[0] instanceof Constant)){
+                return true;
+            }
+            Constant constant = (Constant)args[0];
+            if (!constant.isNumeric()){
+                return false;
+            }
+            int cardinality = constant.intValue();
+            return cardinality >= args.length-1 || new HashSet<Term>(Arrays.asList(args).subList(1, args.length)).size() <= cardinality;
+        }
+        Term arg1 = args[0], arg2 = args[1];
+        Constant c1, c2;
+        if (arg1 instanceof Constant && arg2 instanceof Constant && (c1 = (Constant) arg1).isNumeric() && (c2 = (Constant) arg2).isNumeric()) {
+            double d1 = c1.doubleValue(), d2 = c2.doubleValue();
+            if (predicate.equals(SpecialBinaryPredicates.NEQ)){
+                return d1 != d2;
+            } else if (predicate.equals(SpecialBinaryPredicates.EQ)){
+                return d1 == d2;
+            } else if (predicate.equals(SpecialBinaryPredicates.GT)){
+                return d1 > d2;
+            } else if (predicate.equals(SpecialBinaryPredicates.GEQ)){
+                return d1 >= d2;
+            } else if (predicate.equals(SpecialBinaryPredicates.LT)){
+                return d1 < d2;
+            } else {
+                return d1 <= d2;
+            }
+        }
+        int comparison = arg1.toString().compareTo(arg2.toString());
+        if (predicate.equals(SpecialBinaryPredicates.NEQ)){
+            return !arg1.equals(arg2);
+        } else if (predicate.equals(SpecialBinaryPredicates.EQ)){
+            return arg1.equals(arg2);
+        } else if (predicate.equals(SpecialBinaryPredicates.GT)){
+            return comparison > 0;
+        } else if (predicate.equals(SpecialBinaryPredicates.GEQ)){
+            return comparison >= 0;
+        } else if (predicate.equals(SpecialBinaryPredicates.LT)){
+            return comparison < 0;
+        } else {
+            return comparison <= 0;
+        }
+    }
+
+    private static int[] toArray(List<Integer> list){
+        int[] retVal = new int[list.size()];
+        for (int i = 0; i < retVal.length; i++){
+            retVal[i] = list.get(i);
+        }
+        return retVal;
+    }
+}
@@ -16,6 +16,7 @@
 package ida.ilp.logic.subsumption;
 
 import ida.ilp.logic.*;
+import ida.ilp.logic.io.EvidenceDatabase;
 import ida.utils.IntegerFunction;
 import ida.utils.Sugar;
 import ida.utils.VectorUtils;
@@ -27,6 +28,10 @@ import java.util.*;
 /**
  * Class Matching encapsulates engines for computing theta-subsumption, namely ReSumEr1 and ReSumEr2 (Kuzelka, Zelezny, Fundamenta Informaticae, 2008)
  * 
+ * The methods evaluateOnExamples, subsumption and allSubstitutions may be called concurrently from several threads
+ * (the examples are compiled only once and shared by all of them), as long as the settings are not changed in the meantime
+ * and adaptive propagation strength (setAdaptPropagationStrength) is switched off.
+ * 
  * @author ondra
  */
 public class Matching {
@@ -80,6 +85,17 @@ public class Matching {
         }
     }
 
+    /**
+     * Creates a new instance of class Matching with one example given as a database of ground facts
+     * (it is compiled without creating an intermediate Clause).
+     *
+     * @param database the example
+     */
+    public Matching(EvidenceDatabase database) {
+        this();
+        this.examples.add(this.engine.createClauseE(database));
+    }
+
     /**
      * Sets the sequence of "tries" iterable restarts of the subsumption algorithms.
      * For example if we want to have a sequence of restarts increasing exponentially as 10 exp(index) + 100
@@ -301,6 +317,17 @@ public class Matching {
         //return engine.createClauseE(preprocessExample(e));
     }
 
+    /**
+     * Creates the representation of the given database of ground facts as SubsumptionEngineJ2.ClauseE
+     * directly, i.e. without converting it to Clause first.
+     *
+     * @param db the database
+     * @return the representation of the database as SubsumptionEngineJ2.ClauseE
+     */
+    public SubsumptionEngineJ2.ClauseE createClauseE(EvidenceDatabase db) {
+        return engine.createClauseE(db);
+    }
+
     /**
      * Computes subsumption for clauses c (hypothesis), e (example).
      *
@@ -17,6 +17,7 @@ package ida.ilp.logic.subsumption;
 
 
 import ida.ilp.logic.*;
+import ida.ilp.logic.io.EvidenceDatabase;
 import ida.utils.Combinatorics;
 import ida.utils.IntegerFunction;
 import ida.utils.Sugar;
@@ -33,15 +34,17 @@ import java.util.*;
  * It is not advisable to use this class directly. It is more comfortable to use the class Matching which performs
  * preprocessing of clauses etc.
  * 
+ * One engine may be used by several threads at once: compiled examples (ClauseE) are immutable and the state
+ * of the search is kept per thread. ClauseC objects hold the state of the search too, so each of them may be used by only one
+ * thread at a time. The settings of the engine (setters, custom predicates, solution consumers) should not be changed while it is solving.
+ * 
  * @author ondra
  */
 public class SubsumptionEngineJ2 {
 
-    public static int countFC = 0;
-
     private int lowArity = 3;
 
-    private ValueToIndex<String> predicatesToIntegers = new ValueToIndex<String>();
+    private final ConcurrentValueToIndex<String> predicatesToIntegers = new ConcurrentValueToIndex<String>();
 
     private Set<Integer> specialPredicateIds = new HashSet<Integer>();
 
@@ -51,10 +54,6 @@ public class SubsumptionEngineJ2 {
 
     private boolean learnVariableOrder = true;
 
-    private int exploredNodesInCurrentRestart = 0;
-
-    private int currentCutoff = Integer.MAX_VALUE;
-
     private int maxRestarts = Integer.MAX_VALUE;
 
     public final static int THETA = 1, OBJECT_IDENTITY = 2;
@@ -65,28 +64,26 @@ public class SubsumptionEngineJ2 {
 
     private int arcConsistencyFrom = 6;
 
-    private int[] firstVariableOrder;
-
-    private int[] lastVariableOrder;
-
     private IntegerFunction restartSequence = new IntegerFunction.ConstantFunction(Integer.MAX_VALUE);
 
-    private boolean solvedWithoutSearch = false;
-
-    private int numberOfLastRestart = -1;
-
     private long timeout = Long.MAX_VALUE;
 
-    protected ValueToIndex<Term> termsToIntegers = new ValueToIndex<Term>();
+    protected final ConcurrentValueToIndex<Term> termsToIntegers = new ConcurrentValueToIndex<Term>();
+
+    protected final ConcurrentValueToIndex<String> typesToIntegers = new ConcurrentValueToIndex<String>();
 
-    protected ValueToIndex<String> typesToIntegers = new ValueToIndex<String>();
+    //the state of the search is kept per thread so that the engine (together with the ClauseE objects compiled by it) can be shared by several threads
+    private final ThreadLocal<SearchState> searchState = new ThreadLocal<SearchState>(){
+        @Override
+        protected SearchState initialValue(){
+            return new SearchState();
+        }
+    };
 
     private final static int NORMAL_PREDICATE = 1, COMPLETELY_SYMMETRIC_PREDICATE = 2, SPECIAL_PREDICATE = 4;
 
     private LinkedHashSet<SolutionConsumer> solutionConsumers = new LinkedHashSet<SolutionConsumer>();
 
-    private Map<Integer,Number> numbers = new HashMap<Integer, Number>();
-
     //this is for speed - so that we could just be checking integer identifiers
     private final static int alldiff = -1, neq = -2, eq = -3, leq = -4, lt = -5, geq = -6, gt = -7, maxcard = -8, in = -9, anypred = -10, truepred = -11, falsepred = -12, tuplepred = -13;
 
@@ -213,8 +210,9 @@ public class SubsumptionEngineJ2 {
         if (variableOrder != null && firstVariable != -1){
             throw new IllegalArgumentException();
         }
+        SearchState state = searchState.get();
         if (!initialUnsatCheck(c,e) || !c.initialize(e) || (this.arcConsistencyFrom <= 0 && !arcConsistencyOnProjection(c, e))){
-            this.solvedWithoutSearch = true;
+            state.solvedWithoutSearch = true;
             Term[] template = new Term[c.containedIn.length];
             for (int i = 0; i < template.length; i++){
                 template[i] = c.variablesToIntegers.indexToValue(i);
@@ -233,7 +231,7 @@ public class SubsumptionEngineJ2 {
                 j++;
             }
         }
-        this.solvedWithoutSearch = false;
+        state.solvedWithoutSearch = false;
         solveAll(c, e, 0, 0, variableOrder, new HashSet<Integer>(), template, solutions, maxCount, maxDepth);
         return new Pair<Term[],List<Term[]>>(template,solutions);
     }
@@ -379,9 +377,10 @@ public class SubsumptionEngineJ2 {
         if (resumerVersion >= 3){
             throw new UnsupportedOperationException();
         }
-        this.numberOfLastRestart = 0;
+        SearchState state = searchState.get();
+        state.numberOfLastRestart = 0;
         if (!initialUnsatCheck(cs,e)){
-            this.solvedWithoutSearch = true;
+            state.solvedWithoutSearch = true;
             return Boolean.FALSE;
         }
         ClauseC c = null;
@@ -398,16 +397,16 @@ public class SubsumptionEngineJ2 {
             deadline = System.currentTimeMillis()+this.timeout;
         }
         if (!cs.initialize(e)){
-            this.solvedWithoutSearch = true;
-            this.numberOfLastRestart = restart;
+            state.solvedWithoutSearch = true;
+            state.numberOfLastRestart = restart;
             return Boolean.FALSE;
         } else if (c.literals.length == 0){
-            this.solvedWithoutSearch = true;
+            state.solvedWithoutSearch = true;
             return Boolean.TRUE;
         }
         do {
-            exploredNodesInCurrentRestart = 0;
-            currentCutoff = restartSequence.f(restart)+2*c.variableDomains.length;
+            state.exploredNodesInCurrentRestart = 0;
+            state.currentCutoff = restartSequence.f(restart)+2*c.variableDomains.length;
             int[] variableOrder;
             if (resumerVersion > 1 && restart % 2 == 0 && c.forcedVariable != -1){
                 variableOrder = variableOrder(c, e, c.forcedVariable, subsumptionMode == THETA);
@@ -420,7 +419,7 @@ public class SubsumptionEngineJ2 {
             }
             if (!ac && restart >= getArcConsistencyFrom()){
                 if (!arcConsistencyOnProjection(c, e)){
-                    this.numberOfLastRestart = restart;
+                    state.numberOfLastRestart = restart;
                     return false;
                 }
                 ac = true;
@@ -428,15 +427,15 @@ public class SubsumptionEngineJ2 {
             }
             Term[] template = new Term[variableOrder.length];
             if (cs instanceof ClauseC){
-                success = solveR(c, e, 0, variableOrder, restart, new HashSet<Integer>(), template, deadline);
+                success = solveR(c, e, 0, variableOrder, restart, new HashSet<Integer>(), template, deadline, state);
             }
             //System.out.println("explored nodes: "+this.exploredNodesInCurrentRestart);
         } while (success == null && restart++ < maxRestarts && (System.currentTimeMillis() < deadline));
-        this.solvedWithoutSearch = false;
+        state.solvedWithoutSearch = false;
         if (success == null){
-            this.firstVariableOrder = null;
+            state.firstVariableOrder = null;
         }
-        this.numberOfLastRestart = restart;
+        state.numberOfLastRestart = restart;
         return success;
     }
 
@@ -476,14 +475,14 @@ public class SubsumptionEngineJ2 {
         return true;
     }
 
-    private Boolean solveR(ClauseC c, ClauseE e, int varIndex, int[] variableOrder, int restart, Set<Integer> oiSet, Term[] template, long deadline){
+    private Boolean solveR(ClauseC c, ClauseE e, int varIndex, int[] variableOrder, int restart, Set<Integer> oiSet, Term[] template, long deadline, SearchState state){
         while (varIndex < variableOrder.length && c.isConstant(variableOrder[varIndex])){
             varIndex++;
         }
         if (varIndex == variableOrder.length){
             return Boolean.TRUE;
         }
-        if (exploredNodesInCurrentRestart++ >= currentCutoff || (exploredNodesInCurrentRestart % 100 == 0 && System.currentTimeMillis() >= deadline)){
+        if (state.exploredNodesInCurrentRestart++ >= state.currentCutoff || (state.exploredNodesInCurrentRestart % 100 == 0 && System.currentTimeMillis() >= deadline)){
             return null;
         }
         int[] valueOrder = valueOrder(c, e, variableOrder[varIndex], restart);
@@ -497,7 +496,7 @@ public class SubsumptionEngineJ2 {
                 if (this.subsumptionMode == OBJECT_IDENTITY && !c.isConstant(variableOrder[varIndex])){
                     oiSet.add(valueOrder[i]);
                 }
-                Boolean success = solveR(c, e, varIndex+1, variableOrder, restart, oiSet, template, deadline);
+                Boolean success = solveR(c, e, varIndex+1, variableOrder, restart, oiSet, template, deadline, state);
                 if (success == null){
                     return null;
                 } else if (success.booleanValue()){
@@ -538,10 +537,11 @@ public class SubsumptionEngineJ2 {
         if (c.containedIn.length == 0){
             return new int[]{};
         }
-        if (this.learnVariableOrder && this.firstVariableOrder != null){
-            int[] ret = this.firstVariableOrder;
-            this.firstVariableOrder = null;
-            this.lastVariableOrder = ret;
+        SearchState state = searchState.get();
+        if (this.learnVariableOrder && state.firstVariableOrder != null){
+            int[] ret = state.firstVariableOrder;
+            state.firstVariableOrder = null;
+            state.lastVariableOrder = ret;
             return ret;
         }
         //todo - move to ClausE, this is unnecessarily slow
@@ -593,16 +593,16 @@ public class SubsumptionEngineJ2 {
             }
         }
 
-        this.lastVariableOrder = VectorUtils.toIntegerArray(variableOrder);
-        return this.lastVariableOrder;
+        state.lastVariableOrder = VectorUtils.toIntegerArray(variableOrder);
+        return state.lastVariableOrder;
     }
 
     /**
      * 
-     * @return the last ordering of variables used by the algorithm 
+     * @return the last ordering of variables used by the algorithm (in the calling thread)
      */
     public int[] getLastVariableOrder(){
-        return this.lastVariableOrder;
+        return searchState.get().lastVariableOrder;
     }
 
     /**
@@ -610,7 +610,7 @@ public class SubsumptionEngineJ2 {
      * @param order order of variables represented by their indices iterable the data structure ClauseC
      */
     public void setFirstVariableOrder(int[] order){
-        this.firstVariableOrder = order;
+        searchState.get().firstVariableOrder = order;
     }
 
     private int maxIndexWithTieBreaking(double values[]){
@@ -654,10 +654,10 @@ public class SubsumptionEngineJ2 {
 
     /**
      * 
-     * @return true if the last solved problem has been solved without the backtracking search
+     * @return true if the last solved problem (in the calling thread) has been solved without the backtracking search
      */
     public boolean solvedWithoutSearch(){
-        return this.solvedWithoutSearch;
+        return searchState.get().solvedWithoutSearch;
     }
 
     /**
@@ -752,10 +752,28 @@ public class SubsumptionEngineJ2 {
 
     /**
      * 
-     * @return number of restarts used iterable the last run of the algorithm.
+     * @return number of restarts used iterable the last run of the algorithm (in the calling thread).
      */
     public int getNoOfRestarts(){
-        return this.numberOfLastRestart-1;
+        return searchState.get().numberOfLastRestart-1;
+    }
+
+    /**
+     * Mutable state of one run of the search algorithms, each thread using the engine has its own instance.
+     */
+    private static class SearchState {
+
+        private int exploredNodesInCurrentRestart = 0;
+
+        private int currentCutoff = Integer.MAX_VALUE;
+
+        private int[] firstVariableOrder;
+
+        private int[] lastVariableOrder;
+
+        private boolean solvedWithoutSearch = false;
+
+        private int numberOfLastRestart = -1;
     }
 
     /**
@@ -1081,7 +1099,6 @@ public class SubsumptionEngineJ2 {
          * partial solution really cannot be extended to full solution.
          */
         private boolean groundFC(int variable, int value, ClauseE e){
-            countFC++;
             if (!ground(variable, value, e)){
                 return false;
             }
@@ -1289,44 +1306,70 @@ public class SubsumptionEngineJ2 {
      */
     public class ClauseE {
 
-        protected Map<Pair<Integer,Integer>,IntegerSet> variableDomains = new HashMap<Pair<Integer,Integer>,IntegerSet>();
+        protected final Map<Pair<Integer,Integer>,IntegerSet> variableDomains = new HashMap<Pair<Integer,Integer>,IntegerSet>();
 
-        private IntegerMultiMap<Integer> typedTerms = new IntegerMultiMap<Integer>();
+        private final IntegerMultiMap<Integer> typedTerms;
 
-        protected int[] literals;
-
-        private IntegerSet allTerms;
+        protected final int[] literals;
 
-        private IntegerSet predicates;
+        private final IntegerSet allTerms;
 
-        protected IntegerSet[] domainsByPredicates;
+        private final IntegerSet predicates;
 
-        private LowArityLiterals lal;
+        protected final IntegerSet[] domainsByPredicates;
 
-        private HighArityLiterals hal;
+        private final LowArityLiterals lal;
 
-        private CompletelySymmetricLiterals csl;
+        private final HighArityLiterals hal;
 
-        private Map<Term,Integer> numbers = new HashMap<Term,Integer>();
+        private final CompletelySymmetricLiterals csl;
 
         /**
          * Creates a new instance of class ClauseE which serves as an efficient data-structure
          * for storing the clauses that are on the right-hand side of theta-subsumption relation (i.e. the examples).
+         * ClauseE objects are not modified after they are created, so one ClauseE may be matched
+         * against from several threads at once.
          * 
          * @param clause the clause which should be compiled into the efficient representation
          */
         public ClauseE(Clause clause){
+            this(exampleLiterals(clause));
+        }
+
+        /**
+         * Creates a new instance of class ClauseE directly from the integer representation of a database of ground facts
+         * (without constructing an intermediate Clause). The identifiers used by the database are translated to the identifiers used
+         * by this engine only once per predicate and constant. The result is equivalent to new ClauseE(db.toClause())
+         * up to duplicate literals.
+         *
+         * @param db the database which should be compiled into the efficient representation
+         */
+        public ClauseE(EvidenceDatabase db){
+            this(exampleLiterals(db));
+        }
+
+        //builds the indices over the positive literals of the example (both public constructors only translate their input to ExampleLiterals)
+        private ClauseE(ExampleLiterals example){
+            this.literals = example.literals;
             MultiMap<Integer,Integer> integerMultiMap = new MultiMap<Integer,Integer>();
-            Set<Integer> predicates = new HashSet<Integer>();
-            int literalIndex = 0;
-            for (Literal l : clause.literals()){
-                if (!l.isNegated()) {
-                    integerMultiMap.put(predicatesToIntegers.valueToIndex(l.predicate()), literalIndex);
-                    literalIndex += 2 + l.arity();
-                    predicates.add(predicatesToIntegers.valueToIndex(l.predicate()));
+            MultiMap<Pair<Integer,Integer>,Integer> varDomains = new MultiMap<Pair<Integer,Integer>,Integer>();
+            for (int index = 0; index < literals.length; index += 2+literals[index+1]){
+                int predicate = literals[index];
+                int arity = literals[index+1];
+                integerMultiMap.put(predicate, index);
+                if (example.symmetricPredicates.contains(predicate)){
+                    for (int k = 0; k < arity; k++) {
+                        for (int j = 0; j < arity; j++) {
+                            varDomains.put(new Pair<Integer, Integer>(predicate, k), literals[index + 2 + j]);
+                        }
+                    }
+                } else {
+                    for (int j = 0; j < arity; j++) {
+                        varDomains.put(new Pair<Integer, Integer>(predicate, j), literals[index + 2 + j]);
+                    }
                 }
             }
-            this.predicates = IntegerSet.createIntegerSet(predicates);
+            this.predicates = IntegerSet.createIntegerSet(integerMultiMap.keySet());
             domainsByPredicates = new IntegerSet[predicatesToIntegers.max()+1];
             for (Map.Entry<Integer,Set<Integer>> entry : integerMultiMap.entrySet()){
                 //negative values are for special predicateNames
@@ -1334,50 +1377,14 @@ public class SubsumptionEngineJ2 {
                     domainsByPredicates[entry.getKey()] = IntegerSet.createIntegerSet(entry.getValue());
                 }
             }
-            literals = new int[literalIndex];
-            Map<Literal,Integer> intLitMap = new HashMap<Literal,Integer>();
-            Map<Integer,Literal> litIntMap = new HashMap<Integer,Literal>();
-            int index = 0;
-            MultiMap<Pair<Integer,Integer>,Integer> varDomains = new MultiMap<Pair<Integer,Integer>,Integer>();
-            for (Literal l : clause.literals()){
-                if (!l.isNegated()) {
-                    literals[index] = predicatesToIntegers.valueToIndex(l.predicate());
-                    literals[index + 1] = l.arity();
-                    intLitMap.put(l, index);
-                    litIntMap.put(index, l);
-                    index += 2;
-                    if (l.predicate().startsWith(SymmetricPredicates.PREFIX)){
-                        for (int i = 0; i < l.arity(); i++) {
-                            for (int j = 0; j < l.arity(); j++) {
-                                literals[index + j] = termsToIntegers.valueToIndex(l.get(j));
-                                varDomains.put(new Pair<Integer, Integer>(literals[index - 2], i), literals[index + j]);
-                            }
-                        }
-                    } else {
-                        for (int j = 0; j < l.arity(); j++) {
-                            literals[index + j] = termsToIntegers.valueToIndex(l.get(j));
-                            varDomains.put(new Pair<Integer, Integer>(literals[index - 2], j), literals[index + j]);
-                        }
-                    }
-                    index += l.arity();
-                }
-            }
             for (Map.Entry<Pair<Integer,Integer>,Set<Integer>> entry : varDomains.entrySet()){
                 this.variableDomains.put(entry.getKey(), IntegerSet.createIntegerSet(entry.getValue()));
             }
             lal = new LowArityLiterals(literals, lowArity);
             hal = new HighArityLiterals(literals, lowArity);
             csl = new CompletelySymmetricLiterals(literals);
-            Set<Integer> allTermsHere = new HashSet<Integer>();
-            MultiMap<Integer,Integer> typedTermsMM = new MultiMap<Integer,Integer>();
-            for (Term t : clause.terms()){
-                allTermsHere.add(termsToIntegers.valueToIndex(t));
-                if (t.type() != null){
-                    typedTermsMM.put(typesToIntegers.valueToIndex(t.type()), termsToIntegers.valueToIndex(t));
-                }
-            }
-            allTerms = IntegerSet.createIntegerSet(allTermsHere);
-            typedTerms = IntegerMultiMap.createIntegerMultiMap(typedTermsMM);
+            allTerms = IntegerSet.createIntegerSet(example.allTerms);
+            typedTerms = IntegerMultiMap.createIntegerMultiMap(example.typedTerms);
         }
 
         public IntegerSet typedTerms(int type){
@@ -1447,6 +1454,95 @@ public class SubsumptionEngineJ2 {
         }
     }
 
+    //the positive literals of an example translated to the identifiers used by this engine (the input of the ClauseE constructor)
+    private static class ExampleLiterals {
+
+        //predicate, arity, arguments, predicate, arity, arguments...
+        private int[] literals;
+
+        private Set<Integer> symmetricPredicates = new HashSet<Integer>();
+
+        private Set<Integer> allTerms = new HashSet<Integer>();
+
+        //type -> terms
+        private MultiMap<Integer,Integer> typedTerms = new MultiMap<Integer,Integer>();
+    }
+
+    private ExampleLiterals exampleLiterals(Clause clause){
+        ExampleLiterals retVal = new ExampleLiterals();
+        //the predicates are translated before the terms (this determines the identifiers of new predicates and terms)
+        int literalsLength = 0;
+        for (Literal l : clause.literals()){
+            if (!l.isNegated()) {
+                literalsLength += 2 + l.arity();
+                int predicate = predicatesToIntegers.valueToIndex(l.predicate());
+                if (l.predicate().startsWith(SymmetricPredicates.PREFIX)){
+                    retVal.symmetricPredicates.add(predicate);
+                }
+            }
+        }
+        retVal.literals = new int[literalsLength];
+        int index = 0;
+        for (Literal l : clause.literals()){
+            if (!l.isNegated()) {
+                retVal.literals[index] = predicatesToIntegers.valueToIndex(l.predicate());
+                retVal.literals[index + 1] = l.arity();
+                index += 2;
+                for (int j = 0; j < l.arity(); j++) {
+                    retVal.literals[index + j] = termsToIntegers.valueToIndex(l.get(j));
+                }
+                index += l.arity();
+            }
+        }
+        for (Term t : clause.terms()){
+            retVal.allTerms.add(termsToIntegers.valueToIndex(t));
+            if (t.type() != null){
+                retVal.typedTerms.put(typesToIntegers.valueToIndex(t.type()), termsToIntegers.valueToIndex(t));
+            }
+        }
+        return retVal;
+    }
+
+    private ExampleLiterals exampleLiterals(EvidenceDatabase db){
+        ExampleLiterals retVal = new ExampleLiterals();
+        int[] dbLiterals = db.literals();
+        int[] predicateIDs = new int[db.countPredicates()];
+        for (int i = 0; i < predicateIDs.length; i++){
+            predicateIDs[i] = predicatesToIntegers.valueToIndex(db.predicateName(i));
+            if (db.predicateName(i).startsWith(SymmetricPredicates.PREFIX)){
+                retVal.symmetricPredicates.add(predicateIDs[i]);
+            }
+        }
+        //constants read from a database do not have types
+        int[] termIDs = new int[db.countConstants()];
+        for (int i = 0; i < termIDs.length; i++){
+            termIDs[i] = termsToIntegers.valueToIndex(db.constant(i));
+            retVal.allTerms.add(termIDs[i]);
+        }
+        int literalsLength = 0;
+        for (int i = 0; i < dbLiterals.length; i += 2+dbLiterals[i+1]){
+            if (!db.isNegated(i)){
+                literalsLength += 2+dbLiterals[i+1];
+            }
+        }
+        retVal.literals = new int[literalsLength];
+        int index = 0;
+        for (int i = 0; i < dbLiterals.length; i += 2+dbLiterals[i+1]){
+            if (db.isNegated(i)){
+                continue;
+            }
+            int arity = dbLiterals[i+1];
+            retVal.literals[index] = predicateIDs[dbLiterals[i]];
+            retVal.literals[index + 1] = arity;
+            index += 2;
+            for (int j = 0; j < arity; j++) {
+                retVal.literals[index + j] = termIDs[dbLiterals[i + 2 + j]];
+            }
+            index += arity;
+        }
+        return retVal;
+    }
+
     private boolean isGround(int[] cliterals, int[] grounding, int index){
         for (int i = index+3, j = 0; i < index+cliterals[index+1]+3; i++, j++){
             if (grounding[cliterals[i]] == -1){
@@ -1653,13 +1749,13 @@ public class SubsumptionEngineJ2 {
 
     private class HighArityLiterals {
 
-        private Map<Triple<Integer,Integer,Integer>,Integer> lower;
+        private final Map<Triple<Integer,Integer,Integer>,Integer> lower;
 
-        private Map<Triple<Integer,Integer,Integer>,Integer> upper;
+        private final Map<Triple<Integer,Integer,Integer>,Integer> upper;
 
-        private int[] literals;
+        private final int[] literals;
 
-        private int maxArity;
+        private final int maxArity;
 
         /**
          * 
@@ -1755,45 +1851,39 @@ public class SubsumptionEngineJ2 {
      */
     private class LowArityLiterals {
 
-        private VectorSet set = new VectorSet();
+        //indexes[predicate][arity], null if there are no such literals
+        private final ProjectionIndex[][] indexes;
 
-        private int maxArity;
+        private final int maxArity;
 
         /**
          * 
          * @param literals
          * @param maxArity
          */
+        @SuppressWarnings({"unchecked", "rawtypes"})
         public LowArityLiterals(int[] literals, int maxArity){
             this.maxArity = maxArity;
+            int maxPredicate = -1;
             for (int i = 0; i < literals.length; i += literals[i+1]+2){
-                add(literals, i);
+                maxPredicate = Math.max(maxPredicate, literals[i]);
             }
-            //set.printStats();
-        }
-
-        /**
-         * 
-         * @param literals
-         * @param index
-         */
-        public void add(int[] literals, int index){
-            int arity = literals[index+1];
-            if (arity <= maxArity){
-                List<Integer> list = new ArrayList<Integer>();
-                for (int j = 0; j < arity; j++){
-                    list.add(j);
+            List<int[]>[][] tuples = new List[maxPredicate+1][maxArity+1];
+            for (int i = 0; i < literals.length; i += literals[i+1]+2){
+                int arity = literals[i+1];
+                if (arity <= maxArity){
+                    if (tuples[literals[i]][arity] == null){
+                        tuples[literals[i]][arity] = new ArrayList<int[]>();
+                    }
+                    tuples[literals[i]][arity].add(Arrays.copyOfRange(literals, i+2, i+2+arity));
                 }
-                List<Tuple<Integer>> subsequences = Combinatorics.allSubsequences(list);
-                for (Tuple<Integer> t : subsequences){
-                    int[] literal = new int[arity+2];
-                    Arrays.fill(literal, -maxArity-2);
-                    literal[0] = literals[index];
-                    literal[1] = literals[index+1];
-                    for (int k = 0; k < t.size(); k++){
-                        literal[t.get(k)+2] = literals[index+2+t.get(k)];
+            }
+            this.indexes = new ProjectionIndex[maxPredicate+1][maxArity+1];
+            for (int predicate = 0; predicate <= maxPredicate; predicate++){
+                for (int arity = 0; arity <= maxArity; arity++){
+                    if (tuples[predicate][arity] != null){
+                        this.indexes[predicate][arity] = new ProjectionIndex(arity, tuples[predicate][arity]);
                     }
-                    set.add(literal);
                 }
             }
         }
@@ -1810,17 +1900,22 @@ public class SubsumptionEngineJ2 {
             if ((cliterals[index+2] & SPECIAL_PREDICATE) != 0/*specialPredicateIds.contains(cliterals[index])*/){
                 return matchSpecialLiteral(c, index, e);
             }
-            //auxBuffer = new int[cliterals[index + 1] + 2];
-            auxBuffer[0] = cliterals[index];
-            auxBuffer[1] = cliterals[index + 1];
-            for (int i = index + 3, j = 0; i < index + cliterals[index + 1] + 3; i++, j++) {
-                if (c.groundedValues[cliterals[i]] == -1) {
-                    auxBuffer[j + 2] = -maxArity - 2;
-                } else {
-                    auxBuffer[j + 2] = c.groundedValues[cliterals[i]];
+            int predicate = cliterals[index];
+            int arity = cliterals[index + 1];
+            ProjectionIndex projectionIndex;
+            if (predicate >= this.indexes.length || arity > this.maxArity || (projectionIndex = this.indexes[predicate][arity]) == null){
+                return false;
+            }
+            //auxBuffer holds the values of the bound arguments, mask their positions
+            int mask = 0;
+            for (int j = 0; j < arity; j++) {
+                int value = c.groundedValues[cliterals[index + 3 + j]];
+                if (value != -1) {
+                    auxBuffer[j] = value;
+                    mask |= 1 << j;
                 }
             }
-            return set.contains(auxBuffer);
+            return projectionIndex.contains(auxBuffer, mask);
         }
     }
 
@@ -1830,7 +1925,7 @@ public class SubsumptionEngineJ2 {
     private class CompletelySymmetricLiterals {
 
 
-        private Map<Integer,IntegerMultiMap<Integer>> termsToLiterals = new HashMap<Integer,IntegerMultiMap<Integer>>();
+        private final Map<Integer,IntegerMultiMap<Integer>> termsToLiterals = new HashMap<Integer,IntegerMultiMap<Integer>>();
 
         /**
          *
@@ -1908,6 +2003,10 @@ public class SubsumptionEngineJ2 {
         return new ClauseE(e);
     }
 
+    public ClauseE createClauseE(EvidenceDatabase db){
+        return new ClauseE(db);
+    }
+
     /**
      * 
      * @param seed
@@ -1943,12 +2042,13 @@ public class SubsumptionEngineJ2 {
     }
 
     protected Term[] lastVariableOrder(ClauseC c){
-        if (this.lastVariableOrder == null){
+        int[] lastVariableOrder = searchState.get().lastVariableOrder;
+        if (lastVariableOrder == null){
             return null;
         } else {
             List<Term> varsList = new ArrayList<Term>();
-            for (int i = 0; i < this.lastVariableOrder.length; i++){
-                Term t = c.variablesToIntegers.indexToValue(this.lastVariableOrder[i]);
+            for (int i = 0; i < lastVariableOrder.length; i++){
+                Term t = c.variablesToIntegers.indexToValue(lastVariableOrder[i]);
                 if (t instanceof Variable){
                     varsList.add(t);
                 }
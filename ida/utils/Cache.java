@@ -14,58 +14,565 @@
  */
 package ida.utils;
 
-import java.lang.ref.SoftReference;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Class implementing a simple cache.
- * 
+ * Class implementing a simple bounded concurrent cache. The cache holds at most a given total weight of entries (by default
+ * every entry has weight 1, i.e. the bound is the number of entries). When the bound is exceeded, the entries are evicted
+ * using W-TinyLFU policy: new entries enter a small LRU window, from which they are admitted to the main segmented LRU
+ * (probation and protected part) only if their estimated frequency of use (stored approximately in a count-min sketch) is higher than
+ * the frequency of the entry which would have to be evicted from the main part instead. So entries which are used often are not
+ * flushed from the cache by a burst of entries which are used only once.
+ *
+ * Lookups do not block, the accesses are recorded in a small lossy buffer which is processed in batches. Entries can
+ * optionally expire a given time after they were stored or last accessed. The cache keeps statistics of hits, misses and evictions.
+ *
  * @param <R> type of the keys of the cached values
  * @param <S> type of the cached values
  * @author Ondra
  */
 public class Cache<R,S> {
-    
-    private SoftReference<ConcurrentHashMap<R,S>> softRef;
-    
+
+    /**
+     * Default bound on the number of entries of caches constructed by the constructor without parameters.
+     */
+    public final static long DEFAULT_MAXIMUM_SIZE = 1 << 16;
+
+    private final static int WINDOW = 0, PROBATION = 1, PROTECTED = 2;
+
+    private final static int READ_BUFFER_SIZE = 128;
+
+    private final ConcurrentHashMap<R,Node<R,S>> map = new ConcurrentHashMap<R,Node<R,S>>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final long maximumWeight;
+
+    private final long maximumWindowWeight;
+
+    private final long maximumProtectedWeight;
+
+    private final Weigher<R,S> weigher;
+
+    //everything below (except the read buffer and the statistics) is guarded by lock
+
+    private final AccessOrder<R,S>[] queues;
+
+    private long totalWeight;
+
+    private FrequencySketch sketch;
+
+    private final int maximumSketchSize;
+
+    private final AtomicReferenceArray<Node<R,S>> readBuffer = new AtomicReferenceArray<Node<R,S>>(READ_BUFFER_SIZE);
+
+    private final AtomicLong readCounter = new AtomicLong();
+
+    private long drainedReads;
+
+    private long expireAfterWriteNanos = -1, expireAfterAccessNanos = -1;
+
+    private final AtomicLong misses = new AtomicLong(), evictions = new AtomicLong(), evictedWeight = new AtomicLong();
+
+    /**
+     * Creates a new empty instance of class Cache which holds at most DEFAULT_MAXIMUM_SIZE entries
+     */
+    public Cache(){
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Creates a new empty instance of class Cache
+     * @param maximumSize maximum number of entries in the cache
+     */
+    public Cache(long maximumSize){
+        this(maximumSize, null);
+    }
+
     /**
      * Creates a new empty instance of class Cache
+     * @param maximumWeight maximum total weight of the entries in the cache
+     * @param weigher computes the weights of the entries (if null, every entry has weight 1)
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public Cache(long maximumWeight, Weigher<R,S> weigher){
+        if (maximumWeight < 1){
+            throw new IllegalArgumentException("Maximum weight of the cache must be positive.");
+        }
+        this.maximumWeight = maximumWeight;
+        this.maximumWindowWeight = Math.max(1, maximumWeight/100);
+        this.maximumProtectedWeight = (long)(0.8*(maximumWeight-this.maximumWindowWeight));
+        this.weigher = weigher;
+        this.queues = new AccessOrder[]{new AccessOrder<R,S>(), new AccessOrder<R,S>(), new AccessOrder<R,S>()};
+        this.maximumSketchSize = (int)Math.min(maximumWeight, 1 << 22);
+        this.sketch = new FrequencySketch(Math.min(this.maximumSketchSize, 16));
+    }
+
+    /**
+     * Sets the time after which the entries expire after they were stored.
+     * @param milliseconds the time in milliseconds (non-positive values switch the expiration off)
+     */
+    public void setExpireAfterWrite(long milliseconds){
+        this.expireAfterWriteNanos = milliseconds > 0 ? milliseconds*1000000L : -1;
+    }
+
+    /**
+     * Sets the time after which the entries expire after they were last accessed.
+     * @param milliseconds the time in milliseconds (non-positive values switch the expiration off)
      */
-    public Cache(){}
-    
+    public void setExpireAfterAccess(long milliseconds){
+        this.expireAfterAccessNanos = milliseconds > 0 ? milliseconds*1000000L : -1;
+    }
+
     /**
      * Stores a new element to the cache.
      * @param key key of the element
      * @param value the lement to be stored
      */
     public void put(R key, S value){
-        ConcurrentHashMap<R,S> map = null;
-        if (softRef == null || (map = softRef.get()) == null){
-            map = new ConcurrentHashMap<R,S>();
-            softRef = new SoftReference<ConcurrentHashMap<R,S>>(map);
+        if (key == null || value == null){
+            throw new NullPointerException();
+        }
+        int weight = this.weigher == null ? 1 : this.weigher.weigh(key, value);
+        if (weight < 0){
+            throw new IllegalArgumentException("Weights of the entries must be non-negative.");
+        }
+        long now = expires() ? System.nanoTime() : 0;
+        lock.lock();
+        try {
+            drainReadBuffer();
+            Node<R,S> node = this.map.get(key);
+            if (node != null){
+                this.queues[node.queue].weight += weight-node.weight;
+                this.totalWeight += weight-node.weight;
+                node.weight = weight;
+                node.value = value;
+                node.writeTime = now;
+                node.accessTime = now;
+                onAccess(node);
+            } else {
+                node = new Node<R,S>(key, value, weight, now);
+                this.map.put(key, node);
+                ensureSketchCapacity();
+                this.queues[WINDOW].addLast(node);
+                this.totalWeight += weight;
+                this.sketch.increment(key.hashCode());
+            }
+            maintenance(now);
+        } finally {
+            lock.unlock();
         }
-        map.put(key, value);
     }
-    
+
     /**
      * Retrieves an element from this cache.
      * @param key key of the element
      * @return the element associated to the key or null
      */
     public S get(R key){
-        ConcurrentHashMap<R,S> map = null;
-        if (softRef == null || (map = softRef.get()) == null){
+        Node<R,S> node = this.map.get(key);
+        if (node == null){
+            misses.incrementAndGet();
             return null;
         }
-        return map.get(key);
+        if (expires()){
+            long now = System.nanoTime();
+            if (isExpired(node, now)){
+                misses.incrementAndGet();
+                lock.lock();
+                try {
+                    if (this.map.get(key) == node){
+                        remove(node, false);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+                return null;
+            }
+            node.accessTime = now;
+        }
+        //the number of hits is the number of recorded reads, the recording is lossy (the access is forgotten if the slot is
+        //overwritten before the buffer is drained)
+        long reads = this.readCounter.getAndIncrement();
+        this.readBuffer.lazySet((int)(reads & (READ_BUFFER_SIZE-1)), node);
+        if ((reads & (READ_BUFFER_SIZE/2-1)) == READ_BUFFER_SIZE/2-1 && lock.tryLock()){
+            try {
+                drainReadBuffer();
+            } finally {
+                lock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Removes the element with the given key from this cache.
+     * @param key key of the element
+     */
+    public void remove(R key){
+        lock.lock();
+        try {
+            Node<R,S> node = this.map.get(key);
+            if (node != null){
+                remove(node, false);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
-    
+
     /**
      * Clears this cache
      */
     public void clear(){
-        if (this.softRef != null){
-            this.softRef.clear();
+        lock.lock();
+        try {
+            for (int i = 0; i < READ_BUFFER_SIZE; i++){
+                this.readBuffer.set(i, null);
+            }
+            this.map.clear();
+            for (AccessOrder<R,S> queue : this.queues){
+                queue.clear();
+            }
+            this.totalWeight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @return number of entries in the cache (possibly including expired entries which were not removed yet)
+     */
+    public int size(){
+        return this.map.size();
+    }
+
+    /**
+     *
+     * @return total weight of the entries in the cache
+     */
+    public long weightedSize(){
+        lock.lock();
+        try {
+            return this.totalWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @return snapshot of the statistics of this cache
+     */
+    public Stats stats(){
+        return new Stats(readCounter.get(), misses.get(), evictions.get(), evictedWeight.get());
+    }
+
+    private boolean expires(){
+        return this.expireAfterWriteNanos > 0 || this.expireAfterAccessNanos > 0;
+    }
+
+    private boolean isExpired(Node<R,S> node, long now){
+        return (this.expireAfterWriteNanos > 0 && now - node.writeTime >= this.expireAfterWriteNanos) ||
+                (this.expireAfterAccessNanos > 0 && now - node.accessTime >= this.expireAfterAccessNanos);
+    }
+
+    private void drainReadBuffer(){
+        long reads = this.readCounter.get();
+        for (long i = Math.max(this.drainedReads, reads-READ_BUFFER_SIZE); i < reads; i++){
+            int slot = (int)(i & (READ_BUFFER_SIZE-1));
+            Node<R,S> node = this.readBuffer.get(slot);
+            if (node != null){
+                this.readBuffer.lazySet(slot, null);
+                onAccess(node);
+            }
+        }
+        this.drainedReads = reads;
+    }
+
+    //the sketch grows with the number of entries (which loses the recorded frequencies), so that small caches with large bounds do not
+    //pay for cache misses in a large table
+    private void ensureSketchCapacity(){
+        int size = this.map.size();
+        if (size > this.sketch.capacity() && this.sketch.capacity() < this.maximumSketchSize){
+            this.sketch = new FrequencySketch(Math.min(this.maximumSketchSize, 2*size));
+        }
+    }
+
+    private void onAccess(Node<R,S> node){
+        if (node.removed){
+            return;
+        }
+        this.sketch.increment(node.key.hashCode());
+        if (node.queue == PROBATION){
+            this.queues[PROBATION].remove(node);
+            node.queue = PROTECTED;
+            this.queues[PROTECTED].addLast(node);
+            while (this.queues[PROTECTED].weight > this.maximumProtectedWeight && this.queues[PROTECTED].head != node){
+                Node<R,S> demoted = this.queues[PROTECTED].head;
+                this.queues[PROTECTED].remove(demoted);
+                demoted.queue = PROBATION;
+                this.queues[PROBATION].addLast(demoted);
+            }
+        } else {
+            this.queues[node.queue].moveToLast(node);
+        }
+    }
+
+    private void remove(Node<R,S> node, boolean evicted){
+        this.map.remove(node.key, node);
+        this.queues[node.queue].remove(node);
+        this.totalWeight -= node.weight;
+        node.removed = true;
+        if (evicted){
+            evictions.incrementAndGet();
+            evictedWeight.addAndGet(node.weight);
+        }
+    }
+
+    private void maintenance(long now){
+        if (expires()){
+            for (AccessOrder<R,S> queue : this.queues){
+                //only the entries at the heads of the queues are removed here, the others are removed when they are looked up or evicted
+                while (queue.head != null && isExpired(queue.head, now)){
+                    remove(queue.head, false);
+                }
+            }
+        }
+        //entries leaving the window become candidates for admission to the main part
+        AccessOrder<R,S> window = this.queues[WINDOW], probation = this.queues[PROBATION], prot = this.queues[PROTECTED];
+        while (window.weight > this.maximumWindowWeight && window.head != null){
+            Node<R,S> candidate = window.head;
+            window.remove(candidate);
+            candidate.queue = PROBATION;
+            candidate.candidate = true;
+            probation.addLast(candidate);
+        }
+        while (this.totalWeight > this.maximumWeight){
+            Node<R,S> victim = probation.head;
+            if (victim == null){
+                victim = prot.head != null ? prot.head : window.head;
+                remove(victim, true);
+                continue;
+            }
+            Node<R,S> candidate = probation.tail;
+            if (!candidate.candidate || candidate == victim || victim.candidate){
+                //there is nothing to compare or all entries in probation are new candidates, so the oldest is evicted
+                remove(victim, true);
+            } else if (this.sketch.frequency(candidate.key.hashCode()) > this.sketch.frequency(victim.key.hashCode())){
+                remove(victim, true);
+            } else {
+                remove(candidate, true);
+            }
+        }
+        for (Node<R,S> node = probation.tail; node != null && node.candidate; node = node.previous){
+            node.candidate = false;
+        }
+    }
+
+    /**
+     * Computes weights of entries of a cache.
+     * @param <R> type of the keys
+     * @param <S> type of the values
+     */
+    public interface Weigher<R,S> {
+
+        /**
+         *
+         * @param key key of the entry
+         * @param value value of the entry
+         * @return non-negative weight of the entry
+         */
+        public int weigh(R key, S value);
+    }
+
+    /**
+     * Statistics of a cache.
+     */
+    public static class Stats {
+
+        private final long hits, misses, evictions, evictedWeight;
+
+        private Stats(long hits, long misses, long evictions, long evictedWeight){
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+            this.evictedWeight = evictedWeight;
+        }
+
+        public long hitCount(){
+            return this.hits;
+        }
+
+        public long missCount(){
+            return this.misses;
+        }
+
+        public long evictionCount(){
+            return this.evictions;
+        }
+
+        public long evictionWeight(){
+            return this.evictedWeight;
+        }
+
+        public double hitRate(){
+            long requests = this.hits + this.misses;
+            return requests == 0 ? 1.0 : (double)this.hits/requests;
+        }
+
+        @Override
+        public String toString(){
+            return "Stats{hits=" + this.hits + ", misses=" + this.misses + ", evictions=" + this.evictions + ", evictedWeight=" + this.evictedWeight + "}";
+        }
+    }
+
+    private static class Node<R,S> {
+
+        private final R key;
+
+        private volatile S value;
+
+        private int weight;
+
+        private volatile long writeTime, accessTime;
+
+        //guarded by the lock of the cache
+        private int queue = WINDOW;
+
+        private boolean removed, candidate;
+
+        private Node<R,S> previous, next;
+
+        private Node(R key, S value, int weight, long now){
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.writeTime = now;
+            this.accessTime = now;
+        }
+    }
+
+    //doubly linked list of nodes in the order of their last access (the head is the least recently used node)
+    private static class AccessOrder<R,S> {
+
+        private Node<R,S> head, tail;
+
+        private long weight;
+
+        private void addLast(Node<R,S> node){
+            node.previous = this.tail;
+            node.next = null;
+            if (this.tail == null){
+                this.head = node;
+            } else {
+                this.tail.next = node;
+            }
+            this.tail = node;
+            this.weight += node.weight;
+        }
+
+        private void remove(Node<R,S> node){
+            if (node.previous == null){
+                this.head = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null){
+                this.tail = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+            this.weight -= node.weight;
+        }
+
+        private void moveToLast(Node<R,S> node){
+            if (this.tail != node){
+                remove(node);
+                addLast(node);
+            }
+        }
+
+        private void clear(){
+            for (Node<R,S> node = this.head; node != null; node = node.next){
+                node.removed = true;
+            }
+            this.head = null;
+            this.tail = null;
+            this.weight = 0;
+        }
+    }
+
+    //count-min sketch with 4-bit counters which are halved periodically, so that it estimates recent frequencies
+    private static class FrequencySketch {
+
+        private final static long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+        private final long[] table;
+
+        private final int sampleSize;
+
+        private int additions;
+
+        private FrequencySketch(int expectedSize){
+            int length = Integer.highestOneBit(Math.max(expectedSize, 16)-1) << 1;
+            this.table = new long[length];
+            this.sampleSize = 10*length;
+        }
+
+        private int capacity(){
+            return this.table.length;
+        }
+
+        private int index(int hash, int i){
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int)h & (this.table.length-1);
+        }
+
+        //the i-th hash function uses the i-th group of four counters in the word
+        private int offset(int hash, int i){
+            return ((i << 2) + ((hash >>> (i << 3)) & 3)) << 2;
+        }
+
+        private void increment(int hash){
+            hash = spread(hash);
+            boolean added = false;
+            for (int i = 0; i < 4; i++){
+                int index = index(hash, i);
+                int offset = offset(hash, i);
+                if (((this.table[index] >>> offset) & 0xfL) != 0xfL){
+                    this.table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++this.additions == this.sampleSize){
+                for (int i = 0; i < this.table.length; i++){
+                    this.table[i] = (this.table[i] >>> 1) & 0x7777777777777777L;
+                }
+                this.additions /= 2;
+            }
+        }
+
+        private int frequency(int hash){
+            hash = spread(hash);
+            int retVal = Integer.MAX_VALUE;
+            for (int i = 0; i < 4; i++){
+                retVal = Math.min(retVal, (int)((this.table[index(hash, i)] >>> offset(hash, i)) & 0xfL));
+            }
+            return retVal;
+        }
+
+        private static int spread(int hash){
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+            return (hash >>> 16) ^ hash;
         }
     }
 }
@@ -15,131 +15,74 @@
 
 package ida.utils;
 
-import ida.utils.tuples.Pair;
-
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.List;
+import java.util.*;
 
 /**
  * Class for easy parallelization providing several useful methods for dividing work between
- * several threads and then waiting until they finish their jobs.
+ * several threads and then waiting until they finish their jobs. The tasks are executed in the shared WorkerPool,
+ * an instance of this class only bounds the number of its tasks running at the same time.
  * 
  * @author admin
  */
 public class Parallel {
 
-    private boolean stop = false;
+    private final int threadCount;
 
-    private final List<WorkerThread> workers = Collections.synchronizedList(new ArrayList<WorkerThread>());
+    private volatile boolean stop = false;
 
-    private final List<Pair<Runnable,Int>> tasks = Collections.synchronizedList(new ArrayList<Pair<Runnable,Int>>());
+    private final Set<WorkerPool.TaskGroup> running = Collections.synchronizedSet(new HashSet<WorkerPool.TaskGroup>());
 
     /**
      * Creates a new instance of class Parallel with specified number of threads.
      * @param threadCount the number of threads to be used
      */
     public Parallel(int threadCount){
-        for (int i = 0; i < threadCount; i++){
-            WorkerThread worker = new WorkerThread();
-            workers.add(worker);
-            worker.start();
-        }
+        this.threadCount = threadCount;
     }
 
     /**
-     * Stops the threads (can take a while because all threads must finish their
-     * "atomic" tasks, therefore it is a good idea to have short "atomic takss") 
+     * Stops the computation - the tasks which have not been started yet are skipped (the running "atomic" tasks
+     * are finished, therefore it is a good idea to have short "atomic tasks"). The method runTasks then does not run any tasks.
      */
     public void stop(){
         this.stop = true;
-        tasks.notifyAll();
+        synchronized (this.running){
+            for (WorkerPool.TaskGroup group : this.running){
+                group.cancel();
+            }
+        }
     }
 
     /**
      * Runs the tasks given as Runnables iterable parallel and waits until they are finished.
+     * If some of the tasks throws an exception, the remaining tasks are skipped and the exception is rethrown.
      * 
      * @param tasks the tasks which should be performed
      */
     public void runTasks(List<? extends Runnable> tasks){
-        Runnable[] ts = new Runnable[tasks.size()];
-        int i = 0;
-        for (Runnable task : tasks){
-            ts[i] = task;
-            i++;
+        if (this.stop){
+            return;
+        }
+        WorkerPool.TaskGroup group = new WorkerPool.TaskGroup();
+        this.running.add(group);
+        if (this.stop){
+            //stop() may have been called before the group was registered
+            group.cancel();
+        }
+        try {
+            WorkerPool.invokeAll(tasks, this.threadCount, group);
+        } finally {
+            this.running.remove(group);
         }
-        runTasks(ts);
     }
 
     /**
      * Runs the tasks given as Runnables iterable parallel and waits until they are finished.
+     * If some of the tasks throws an exception, the remaining tasks are skipped and the exception is rethrown.
      * 
      * @param tasks the tasks which should be performed
      */
     public void runTasks(Runnable ...tasks){
-        final Int counter = new Int(tasks.length);
-        for (Runnable r : tasks){
-            synchronized (this.tasks){
-                this.tasks.add(new Pair<Runnable,Int>(r,counter));
-                this.tasks.notify();
-            }
-        }
-        synchronized (counter){
-            while (counter.value > 0){
-                try {
-                    counter.wait();
-                } catch (InterruptedException ie){
-                    ie.printStackTrace();
-                }
-            }
-        }
-    }
-
-    private static class Int {
-        
-        int value;
-
-        public Int(){}
-
-        public Int(int value){
-            this.value = value;
-        }
-    }
-
-    private class WorkerThread extends Thread {
-
-        public WorkerThread(){
-            this.setDaemon(true);
-        }
-
-        @Override
-        public void run(){
-            while (!stop){
-                Pair<Runnable,Int> task = null;
-                synchronized (tasks){
-                    if (tasks.isEmpty()){
-                        try {
-                            tasks.wait();
-                        } catch (InterruptedException ie){
-                            ie.printStackTrace();
-                        }
-                    }
-                    if (tasks.size() > 0){
-                        task = tasks.remove(tasks.size()-1);
-                    }
-                }
-                if (task != null){
-                    task.r.run();
-                    synchronized (task.s){
-                        task.s.value--;
-                        task.s.notify();
-                    }
-                }
-            }
-        }
-    }
-
-    public void finalize(){
-        this.stop = true;
+        runTasks(Arrays.asList(tasks));
     }
 }
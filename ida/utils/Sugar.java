@@ -1360,15 +1360,9 @@ public class Sugar {
         public boolean isABetterThanB(T a, T b);
     }
 
-    private static class Int {
-        int value;
-    }
-
     /**
-     * Runs the specified tasks iterable parallel - creates as many threads as is the number
-     * of tasks iterable the array <em>tasks</em> therefore this method is not recommended
-     * when there are many tasks. In such cases, it is better to use other version of this method 
-     * which restricts the number of threads running at once.
+     * Runs the specified tasks in parallel in the shared WorkerPool and waits until they are finished.
+     * If some of the tasks throws an exception, the tasks which have not been started yet are skipped and the exception is rethrown.
      * @param tasks the tasks to be performed
      */
     public static void runInParallel(Runnable ...tasks){
@@ -1378,54 +1372,18 @@ public class Sugar {
     }
 
     /**
-       Runs the specified tasks iterable parallel - creates at most <em>processors</em> tasks.
+       Runs the specified tasks in parallel in the shared WorkerPool - at most <em>processors</em> tasks run at the same time.
+     * If some of the tasks throws an exception, the tasks which have not been started yet are skipped and the exception is rethrown.
      * @param tasks the tasks to be performed
-     * @param processors number of threads
+     * @param processors maximum number of tasks running at the same time
      */
     public static void runInParallel(final List<? extends Runnable> tasks, int processors){
-        final Int counter = new Int();
-        counter.value = tasks.size();
-        for (int i = 0; i < processors; i++){
-            new Thread(new Runnable(){
-                public void run() {
-                    while (true){
-                        Runnable action = null;
-                        synchronized (tasks){
-                            if (tasks.size() > 0){
-                                action = tasks.get(tasks.size()-1);
-                                tasks.remove(tasks.size()-1);
-                            }
-                        }
-                        if (action != null){
-                            action.run();
-                            synchronized (counter){
-                                counter.value--;
-                                counter.notify();
-                            }
-                        }
-                        if (action == null){
-                            break;
-                        }
-                    }
-                }
-            }).start();
-        }
-        synchronized (counter){
-            while (counter.value > 0){
-                try {
-                    counter.wait();
-                } catch (InterruptedException ie){
-                    System.out.println(ie.getMessage());
-                }
-            }
-        }
+        WorkerPool.invokeAll(tasks, processors);
     }
 
     /**
-     * Runs the specified tasks iterable parallel - creates as many threads as is the number
-     * of tasks iterable the list <em>tasks</em> therefore this method is not recommended
-     * when there are many tasks. In such cases, it is better to use other version of this method 
-     * which restricts the number of threads running at once.
+     * Runs the specified tasks in parallel in the shared WorkerPool and waits until they are finished.
+     * The number of tasks running at the same time is bounded by the parallelism of the pool.
      * @param tasks the tasks to be performed
      */
     public static void runInParallel(List<? extends Runnable> tasks){
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ida.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared work-stealing pool used for all parallel computations in the library (Parallel, Sugar.runInParallel etc.).
+ * The worker threads are created once and reused. Tasks are submitted through task groups: a task group waits
+ * for all its tasks, propagates the first exception thrown by any of them and can be cancelled.
+ *
+ * When a task group is created and joined inside a task which is already running in the pool (nested parallelism),
+ * the waiting worker executes the pending tasks itself instead of blocking, so the number of busy threads
+ * stays bounded by the parallelism of the pool.
+ *
+ * @author Ondra
+ */
+public class WorkerPool {
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+
+    private static ForkJoinPool pool;
+
+    private WorkerPool(){}
+
+    /**
+     *
+     * @return the shared pool (it is created when this method is called for the first time)
+     */
+    public static synchronized ForkJoinPool pool(){
+        if (pool == null){
+            pool = new ForkJoinPool(parallelism);
+        }
+        return pool;
+    }
+
+    /**
+     * Sets the number of worker threads. If the pool already exists, it is shut down (the tasks which have already been
+     * submitted are still completed) and a new pool is created when it is needed next time. Task groups which
+     * already exist submit their subsequent tasks to the new pool.
+     * @param parallelism number of worker threads
+     */
+    public static synchronized void setParallelism(int parallelism){
+        if (parallelism < 1){
+            throw new IllegalArgumentException("Parallelism must be positive: "+parallelism);
+        }
+        WorkerPool.parallelism = parallelism;
+        if (pool != null){
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    public static synchronized int parallelism(){
+        return parallelism;
+    }
+
+    /**
+     * Runs the given tasks and waits until all of them are finished. At most <em>maxConcurrency</em> of them
+     * are executed at the same time.
+     * @param tasks the tasks to be performed
+     * @param maxConcurrency maximum number of tasks running at the same time
+     */
+    public static void invokeAll(final List<? extends Runnable> tasks, int maxConcurrency){
+        TaskGroup group = new TaskGroup();
+        invokeAll(tasks, maxConcurrency, group);
+    }
+
+    /**
+     * Runs the given tasks in the given task group and waits until all of them are finished. At most <em>maxConcurrency</em> of them
+     * are executed at the same time. When the group is cancelled, the tasks which have not been started yet are skipped.
+     * @param tasks the tasks to be performed
+     * @param maxConcurrency maximum number of tasks running at the same time
+     * @param group the task group
+     */
+    public static void invokeAll(final List<? extends Runnable> tasks, int maxConcurrency, final TaskGroup group){
+        if (tasks.isEmpty()){
+            return;
+        }
+        if (tasks.size() == 1 || maxConcurrency <= 1){
+            group.fork(new Runnable() {
+                @Override
+                public void run() {
+                    for (Runnable task : tasks){
+                        if (group.isCancelled()){
+                            return;
+                        }
+                        task.run();
+                    }
+                }
+            });
+            group.join();
+            return;
+        }
+        final AtomicInteger next = new AtomicInteger(0);
+        int workers = Math.min(maxConcurrency, tasks.size());
+        for (int i = 0; i < workers; i++){
+            group.fork(new Runnable() {
+                @Override
+                public void run() {
+                    int index;
+                    while (!group.isCancelled() && (index = next.getAndIncrement()) < tasks.size()){
+                        tasks.get(index).run();
+                    }
+                }
+            });
+        }
+        group.join();
+    }
+
+    /**
+     * Group of tasks executed in the shared pool.
+     */
+    public static class TaskGroup {
+
+        private final List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+
+        private volatile boolean cancelled = false;
+
+        private volatile Throwable failure;
+
+        /**
+         * Submits a task to the pool.
+         * @param task the task
+         * @return future representing the pending completion of the task
+         */
+        public Future<?> fork(final Runnable task){
+            return fork(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    task.run();
+                    return null;
+                }
+            });
+        }
+
+        /**
+         * Submits a task to the pool.
+         * @param task the task
+         * @param <T> type of the result
+         * @return future representing the pending completion of the task, the result is null if the task failed or was cancelled
+         */
+        public <T> Future<T> fork(Callable<T> task){
+            GroupTask<T> groupTask = new GroupTask<T>(this, task);
+            synchronized (this.tasks){
+                this.tasks.add(groupTask);
+            }
+            while (true){
+                //the current pool, it may have been replaced by setParallelism(...) since the group was created
+                ForkJoinPool pool = WorkerPool.pool();
+                if (ForkJoinTask.getPool() == pool){
+                    groupTask.fork();
+                    return groupTask;
+                }
+                try {
+                    pool.execute(groupTask);
+                    return groupTask;
+                } catch (RejectedExecutionException ree){
+                    if (!pool.isShutdown()){
+                        throw ree;
+                    }
+                    //the pool has just been shut down by setParallelism(...), try again with the new one
+                }
+            }
+        }
+
+        /**
+         * Waits until all tasks of the group are finished (or cancelled). If some of the tasks failed, the first
+         * exception is rethrown (checked exceptions are wrapped in RuntimeException).
+         */
+        public void join(){
+            int i = 0;
+            while (true){
+                ForkJoinTask<?> task;
+                synchronized (this.tasks){
+                    if (i >= this.tasks.size()){
+                        break;
+                    }
+                    task = this.tasks.get(i++);
+                }
+                try {
+                    task.join();
+                } catch (CancellationException ce){
+                    //the task was cancelled before it started
+                }
+            }
+            Throwable t = this.failure;
+            if (t instanceof RuntimeException){
+                throw (RuntimeException)t;
+            } else if (t instanceof Error){
+                throw (Error)t;
+            } else if (t != null){
+                throw new RuntimeException(t);
+            }
+        }
+
+        /**
+         * Cancels the tasks of the group which have not been started yet. Running tasks can check isCancelled()
+         * to stop early.
+         */
+        public void cancel(){
+            this.cancelled = true;
+            synchronized (this.tasks){
+                for (ForkJoinTask<?> task : this.tasks){
+                    task.cancel(false);
+                }
+            }
+        }
+
+        public boolean isCancelled(){
+            return this.cancelled;
+        }
+
+        private void fail(Throwable t){
+            synchronized (this){
+                if (this.failure == null){
+                    this.failure = t;
+                }
+            }
+            this.cancel();
+        }
+    }
+
+    private static class GroupTask<T> extends RecursiveTask<T> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TaskGroup group;
+
+        private final Callable<T> callable;
+
+        private GroupTask(TaskGroup group, Callable<T> callable){
+            this.group = group;
+            this.callable = callable;
+        }
+
+        @Override
+        protected T compute() {
+            if (this.group.isCancelled()){
+                return null;
+            }
+            try {
+                return this.callable.call();
+            } catch (Throwable t){
+                this.group.fail(t);
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ida.utils.collections;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe variant of ValueToIndex. Lookups of already known values and indices
+ * do not block, only assigning a new identifier is synchronized.
+ *
+ * @param <T> type of the objects
+ * @author Ondra
+ */
+public class ConcurrentValueToIndex<T> {
+
+    private int lastIndex = 0;
+
+    private volatile int max = 0;
+
+    private final ConcurrentHashMap<T,Integer> valueToIndex = new ConcurrentHashMap<T,Integer>();
+
+    private final ConcurrentHashMap<Integer,T> indexToValue = new ConcurrentHashMap<Integer,T>();
+
+    public ConcurrentValueToIndex(){}
+
+    public ConcurrentValueToIndex(int startIndex){
+        this.lastIndex = startIndex;
+    }
+
+    /**
+     * Converts the given object <em>t</em> to a unique integer.
+     * @param t the object
+     * @return the unique integer representing the object
+     */
+    public int valueToIndex(T t){
+        Integer index = valueToIndex.get(t);
+        if (index != null){
+            return index;
+        }
+        synchronized (this){
+            if ((index = valueToIndex.get(t)) == null){
+                index = lastIndex;
+                //indexToValue must be filled first so that any thread which sees the index can also translate it back
+                indexToValue.put(index, t);
+                valueToIndex.put(t, index);
+                max = lastIndex;
+                lastIndex++;
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Converts the given unique identifier back to the original object (the method
+     * valueToIndex with this object must have had been called prior to calling this method,
+     * otherwise the method would return null).
+     * @param index the unique identifier of the object
+     * @return the object corresponding to the given unique identifier or null if there is no such object
+     */
+    public T indexToValue(int index){
+        return indexToValue.get(index);
+    }
+
+    public boolean containsValue(T value){
+        return this.valueToIndex.containsKey(value);
+    }
+
+    public boolean containsIndex(int index){
+        return this.indexToValue.containsKey(index);
+    }
+
+    /**
+     * Adds the given pair unique identifier - object
+     * @param key the unique identifier
+     * @param value the object
+     */
+    public synchronized void put(int key, T value){
+        this.indexToValue.put(key, value);
+        this.valueToIndex.put(value, key);
+        this.lastIndex = Math.max(this.lastIndex, key+1);
+        max = Math.max(lastIndex, key);
+    }
+
+    /**
+     *
+     * @return number of elements for which there are the unique IDs
+     */
+    public int size(){
+        return this.valueToIndex.size();
+    }
+
+    /**
+     *
+     * @return the objects for which there are the unique IDs
+     */
+    public Set<T> values(){
+        return Collections.unmodifiableSet(valueToIndex.keySet());
+    }
+
+    @Override
+    public String toString(){
+        return this.valueToIndex.toString();
+    }
+
+    public int max(){
+        return this.max;
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ida.utils.collections;
+
+import java.util.*;
+
+/**
+ * Immutable index of a set of int[] tuples of the same arity which answers the queries "is there a tuple
+ * with the given values at the given positions?". The tuples are stored column-wise, sorted lexicographically
+ * w.r.t. every cyclic rotation of the positions (i.e. one sorted columnar trie per rotation), so the index takes
+ * arity*arity ints per tuple. A query is answered by narrowing the range of the rotation whose longest prefix
+ * consists of bound positions using binary search, the remaining bound positions (if any, this happens only
+ * for arity > 3) are checked by a scan of the range.
+ */
+public class ProjectionIndex {
+
+    private final int arity;
+
+    private final int size;
+
+    //columns[r][l][i] = value at position (r+l) % arity of the i-th tuple in the order sorted w.r.t. rotation r
+    private final int[][][] columns;
+
+    //for every mask of bound positions: the rotation with the longest prefix of bound positions and the length of the prefix
+    private final int[] rotations;
+
+    private final int[] prefixLengths;
+
+    /**
+     * Creates a new instance of class ProjectionIndex
+     * @param arity arity of the tuples
+     * @param tuples the tuples (duplicates are removed), only the first <em>arity</em> elements of the arrays are used
+     */
+    public ProjectionIndex(int arity, Collection<int[]> tuples){
+        if (arity > 30){
+            throw new IllegalArgumentException("Arity of the tuples must be at most 30.");
+        }
+        this.arity = arity;
+        int[][] sorted = tuples.toArray(new int[tuples.size()][]);
+        Arrays.sort(sorted, new RotationComparator(0));
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++){
+            if (i == 0 || new RotationComparator(0).compare(sorted[i-1], sorted[i]) != 0){
+                sorted[unique++] = sorted[i];
+            }
+        }
+        this.size = unique;
+        sorted = Arrays.copyOf(sorted, unique);
+        this.columns = new int[arity][arity][];
+        for (int r = 0; r < arity; r++){
+            if (r > 0){
+                Arrays.sort(sorted, new RotationComparator(r));
+            }
+            for (int l = 0; l < arity; l++){
+                int[] column = new int[this.size];
+                for (int i = 0; i < this.size; i++){
+                    column[i] = sorted[i][(r+l) % arity];
+                }
+                this.columns[r][l] = column;
+            }
+        }
+        this.rotations = new int[1 << arity];
+        this.prefixLengths = new int[1 << arity];
+        for (int mask = 0; mask < (1 << arity); mask++){
+            for (int r = 0; r < arity; r++){
+                int k = 0;
+                while (k < arity && (mask & (1 << ((r+k) % arity))) != 0){
+                    k++;
+                }
+                if (k > this.prefixLengths[mask]){
+                    this.prefixLengths[mask] = k;
+                    this.rotations[mask] = r;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether there is a tuple which has the values values[j] at all positions j such that (mask & (1 << j)) != 0.
+     * @param values the values, only the bound positions are read
+     * @param mask bit-mask of the bound positions
+     * @return true if there is such a tuple
+     */
+    public boolean contains(int[] values, int mask){
+        if (this.size == 0 || mask == 0){
+            return this.size > 0;
+        }
+        int r = this.rotations[mask];
+        int prefix = this.prefixLengths[mask];
+        int[][] rotation = this.columns[r];
+        int from = 0, to = this.size;
+        for (int l = 0; l < prefix; l++){
+            int[] column = rotation[l];
+            int value = values[(r+l) % this.arity];
+            from = lowerBound(column, from, to, value);
+            if (from == to || column[from] != value){
+                return false;
+            }
+            to = upperBound(column, from+1, to, value);
+        }
+        if (prefix == Integer.bitCount(mask)){
+            return true;
+        }
+        for (int i = from; i < to; i++){
+            boolean matches = true;
+            for (int l = prefix; l < this.arity; l++){
+                int position = (r+l) % this.arity;
+                if ((mask & (1 << position)) != 0 && rotation[l][i] != values[position]){
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //first index in [from, to) with column[index] >= value (or to)
+    private static int lowerBound(int[] column, int from, int to, int value){
+        while (from < to){
+            int mid = (from + to) >>> 1;
+            if (column[mid] < value){
+                from = mid+1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    //first index in [from, to) with column[index] > value (or to)
+    private static int upperBound(int[] column, int from, int to, int value){
+        while (from < to){
+            int mid = (from + to) >>> 1;
+            if (column[mid] <= value){
+                from = mid+1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+
+    /**
+     *
+     * @return number of (distinct) tuples in the index
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     *
+     * @return arity of the tuples
+     */
+    public int arity(){
+        return this.arity;
+    }
+
+    private class RotationComparator implements Comparator<int[]> {
+
+        private int rotation;
+
+        private RotationComparator(int rotation){
+            this.rotation = rotation;
+        }
+
+        @Override
+        public int compare(int[] o1, int[] o2) {
+            for (int l = 0; l < arity; l++){
+                int position = (this.rotation+l) % arity;
+                if (o1[position] != o2[position]){
+                    return o1[position] < o2[position] ? -1 : 1;
+                }
+            }
+            return 0;
+        }
+    }
+}
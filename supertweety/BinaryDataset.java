@@ -28,6 +28,10 @@ import java.util.*;
 
 /**
  * Created by kuzelkao_cardiff on 20/01/16.
+ *
+ * Besides the rows, the dataset keeps a column-oriented copy of the data (one long[] bitset per attribute)
+ * which is used for counting and for selecting examples. Datasets returned by select(...) and splitOnAttribute(...)
+ * are views sharing this column storage, the rows of a view are only copied when they are asked for.
  */
 public class BinaryDataset {
 
@@ -39,10 +43,25 @@ public class BinaryDataset {
 
     private HashMap<String,Integer> attributesToIndices = new HashMap<String,Integer>();
 
+    //row-oriented data, for views this is filled only when needed
     private boolean[][] dataset;
 
     private double[] weights;
 
+    //column-oriented data, possibly shared with other datasets (views)
+    private Columns columns;
+
+    //weights of the rows of the column storage
+    private double[] columnWeights;
+
+    //rows of the column storage selected by this dataset (sorted), null if this dataset is not a view
+    private int[] selection;
+
+    //selection as a bitset, computed lazily
+    private long[] selectionMask;
+
+    private double sumOfWeights = Double.NaN;
+
     public BinaryDataset(){}
 
     public BinaryDataset(boolean[][] dataset){
@@ -62,6 +81,12 @@ public class BinaryDataset {
     public void set(boolean[][] dataset, String[] attributeNames, double[] weights) {
         this.dataset = dataset;
         this.weights = weights;
+        this.columns = null;
+        this.columnWeights = null;
+        this.selection = null;
+        this.selectionMask = null;
+        this.sumOfWeights = Double.NaN;
+        this.attributesToIndices = new HashMap<String,Integer>();
         this.attributeNames = attributeNames;
         if (this.attributeNames != null) {
             for (int i = 0; i < attributeNames.length; i++) {
@@ -77,6 +102,15 @@ public class BinaryDataset {
         }
     }
 
+    private BinaryDataset(BinaryDataset parent, Columns columns, double[] columnWeights, int[] selection, long[] selectionMask){
+        this.attributeNames = parent.attributeNames;
+        this.attributesToIndices = parent.attributesToIndices;
+        this.columns = columns;
+        this.columnWeights = columnWeights;
+        this.selection = selection;
+        this.selectionMask = selectionMask;
+    }
+
     public static BinaryDataset fromFeatures(MultiMap<String,String> features){
         ValueToIndex<String> vti = new ValueToIndex<String>(0);
         for (String feature : Sugar.flatten(features.values())){
@@ -115,14 +149,31 @@ public class BinaryDataset {
     }
 
     public int numExamples(){
+        if (this.selection != null){
+            return this.selection.length;
+        }
         return this.dataset.length;
     }
 
-    public double sumOfWeights(){
-        return VectorUtils.sum(this.weights);
+    public synchronized double sumOfWeights(){
+        if (this.selection == null){
+            return VectorUtils.sum(this.weights);
+        }
+        if (Double.isNaN(this.sumOfWeights)){
+            double sum = 0;
+            for (int row : this.selection){
+                sum += this.columnWeights[row];
+            }
+            this.sumOfWeights = sum;
+        }
+        return this.sumOfWeights;
     }
 
     public void shuffle(Random random){
+        //copies, the original arrays may be referenced by views created by select(...) or split(...)
+        boolean[][] rows = this.examples().clone();
+        double[] ws = this.weights().clone();
+        this.set(rows, this.attributeNames, ws);
         VectorUtils.shuffle(this.dataset, random);
     }
 
@@ -131,8 +182,8 @@ public class BinaryDataset {
         double[] ws = new double[to-from];
         int j = 0;
         for (int i = from; i < to; i++){
-            d[j] = this.dataset[i];
-            ws[j] = this.weights[i];
+            d[j] = this.example(i);
+            ws[j] = this.weight(i);
             j++;
         }
         return new BinaryDataset(d, this.attributeNames, ws);
@@ -151,10 +202,10 @@ public class BinaryDataset {
                 index++;
             }
         }
-        boolean[][] newData = new boolean[this.dataset.length][];
+        boolean[][] newData = new boolean[this.numExamples()][];
         for (int i = 0; i < newData.length; i++){
             boolean[] newRow = new boolean[indices.length];
-            boolean[] oldRow = this.dataset[i];
+            boolean[] oldRow = this.example(i);
             for (int j = 0; j < newRow.length; j++){
                 newRow[j] = oldRow[indices[j]];
             }
@@ -164,73 +215,86 @@ public class BinaryDataset {
         for (int i = 0; i < indices.length; i++){
             newAttributesNames[i] = this.attributeNames[indices[i]];
         }
-        return new BinaryDataset(newData, newAttributesNames, this.weights);
+        return new BinaryDataset(newData, newAttributesNames, this.weights());
     }
 
     public double enclosingHyperCubeVolume(){
-        if (this.dataset.length == 0){
+        int numExamples = this.numExamples();
+        if (numExamples == 0){
             return 0;
         }
         double volume = 1;
-        int[] min = new int[this.attributeNames.length];
-        Arrays.fill(min, 1);
-        int[] max = new int[this.attributeNames.length];
-        Arrays.fill(max, 0);
-        for (boolean[] row : this.dataset){
-            for (int i = 0; i < row.length; i++){
-                if (row[i]){
-                    max[i] = 1;
-                } else {
-                    min[i] = 0;
-                }
+        for (String attribute : this.attributeNames){
+            double positive = count(new String[]{attribute}, new boolean[]{true});
+            if (positive > 0 && positive < numExamples){
+                volume *= 2;
             }
         }
-        for (int i = 0; i < min.length; i++){
-            volume *= (1+max[i]-min[i]);
-        }
         return volume;
     }
 
     //[yes,no]
     public Pair<BinaryDataset,BinaryDataset> splitOnAttribute(String attribute){
         int attributeIndex = this.attributesToIndices.get(attribute);
-        int yesCount = 0;
-        for (boolean[] row : this.dataset){
-            if (row[attributeIndex]){
-                yesCount++;
-            }
-        }
-        double[] yesWeights = new double[yesCount];
-        double[] noWeights = new double[dataset.length-yesCount];
-        boolean[][] yesData = new boolean[yesCount][];
-        boolean[][] noData =  new boolean[dataset.length-yesCount][];
-        int yesIndex = 0, noIndex = 0, index = 0;
-        for (boolean[] row : this.dataset){
-            if (row[attributeIndex]){
-                yesData[yesIndex] = row;
-                yesWeights[yesIndex] = this.weights[index];
-                yesIndex++;
-            } else {
-                noData[noIndex] = row;
-                noWeights[noIndex] = this.weights[index];
-                noIndex++;
+        Columns columns = this.columns();
+        int[] yesRows, noRows;
+        long[] yesMask = null, noMask = null;
+        if (this.isSparse()){
+            int yesCount = 0;
+            for (int row : this.selection){
+                if (columns.rows[row][attributeIndex]){
+                    yesCount++;
+                }
+            }
+            yesRows = new int[yesCount];
+            noRows = new int[this.selection.length-yesCount];
+            int yesIndex = 0, noIndex = 0;
+            for (int row : this.selection){
+                if (columns.rows[row][attributeIndex]){
+                    yesRows[yesIndex++] = row;
+                } else {
+                    noRows[noIndex++] = row;
+                }
+            }
+        } else {
+            long[] mask = this.selectionMask();
+            long[] column = columns.bits[attributeIndex];
+            yesMask = new long[mask.length];
+            noMask = new long[mask.length];
+            int yesCount = 0, noCount = 0;
+            for (int w = 0; w < mask.length; w++){
+                yesMask[w] = mask[w] & column[w];
+                noMask[w] = mask[w] & ~column[w];
+                yesCount += Long.bitCount(yesMask[w]);
+                noCount += Long.bitCount(noMask[w]);
             }
-            index++;
+            yesRows = Columns.toRows(yesMask, yesCount);
+            noRows = Columns.toRows(noMask, noCount);
         }
-        return new Pair<BinaryDataset,BinaryDataset>(new BinaryDataset(yesData, this.attributeNames, yesWeights), new BinaryDataset(noData, this.attributeNames, noWeights));
+        return new Pair<BinaryDataset,BinaryDataset>(
+                new BinaryDataset(this, columns, this.columnWeights, yesRows, yesMask),
+                new BinaryDataset(this, columns, this.columnWeights, noRows, noMask));
+    }
+
+    private int[] attributeIndices(String[] attributes){
+        int[] retVal = new int[attributes.length];
+        for (int i = 0; i < attributes.length; i++){
+            retVal[i] = this.attributesToIndices.get(attributes[i]);
+        }
+        return retVal;
     }
 
-    private boolean check(boolean[] row, String[] attributes, boolean[] positive, FormulaType formulaType){
+    private static boolean check(boolean[] row, int[] attributeIndices, boolean[] positive, FormulaType formulaType){
         if (formulaType == FormulaType.CONJUNCTION) {
-            for (int i = 0; i < attributes.length; i++) {
-                if (row[this.attributesToIndices.get(attributes[i])] != positive[i]) {
+            for (int i = 0; i < attributeIndices.length; i++) {
+                if (row[attributeIndices[i]] != positive[i]) {
                     return false;
                 }
             }
             return true;
         } else if (formulaType == FormulaType.DISJUNCTION){
-            for (int i = 0; i < attributes.length; i++) {
-                if (row[this.attributesToIndices.get(attributes[i])] == positive[i]) {
+            for (int i = 0; i < attributeIndices.length; i++) {
+                if (row[attributeIndices[i]] == positive[i]) {
                     return true;
                 }
             }
@@ -239,6 +303,25 @@ public class BinaryDataset {
         throw new UnsupportedOperationException("");
     }
 
+    //the rows among the given rows (a bitset word) in which the formula is true
+    private static long check(Columns columns, int word, long rows, int[] attributeIndices, boolean[] positive, FormulaType formulaType){
+        if (formulaType == FormulaType.CONJUNCTION) {
+            for (int i = 0; i < attributeIndices.length && rows != 0; i++) {
+                long column = columns.bits[attributeIndices[i]][word];
+                rows &= positive[i] ? column : ~column;
+            }
+            return rows;
+        } else if (formulaType == FormulaType.DISJUNCTION){
+            long satisfied = 0;
+            for (int i = 0; i < attributeIndices.length; i++) {
+                long column = columns.bits[attributeIndices[i]][word];
+                satisfied |= positive[i] ? column : ~column;
+            }
+            return rows & satisfied;
+        }
+        throw new UnsupportedOperationException("");
+    }
+
     public double count(Clause clause){
         String[] attributes = new String[clause.countLiterals()];
         boolean[] positive = new boolean[attributes.length];
@@ -253,7 +336,6 @@ public class BinaryDataset {
 
 
     public BinaryDataset select(Clause clause){
-        List<boolean[]> selectedRows = new ArrayList<boolean[]>();
         String[] attributes = new String[clause.countLiterals()];
         boolean[] positive = new boolean[attributes.length];
         int i = 0;
@@ -266,18 +348,31 @@ public class BinaryDataset {
     }
 
     public BinaryDataset select(String[] attributes, boolean[] positive, FormulaType formulaType){
-        List<boolean[]> rows = new ArrayList<boolean[]>();
-        for (boolean[] row : this.dataset){
-            if (check(row, attributes, positive, formulaType)){
-                rows.add(row);
+        int[] attributeIndices = this.attributeIndices(attributes);
+        Columns columns = this.columns();
+        int[] rows;
+        long[] selected = null;
+        if (this.isSparse()){
+            int[] buffer = new int[this.selection.length];
+            int count = 0;
+            for (int row : this.selection){
+                if (check(columns.rows[row], attributeIndices, positive, formulaType)){
+                    buffer[count++] = row;
+                }
             }
+            rows = Arrays.copyOf(buffer, count);
+        } else {
+            long[] mask = this.selectionMask();
+            selected = new long[mask.length];
+            int count = 0;
+            for (int w = 0; w < mask.length; w++){
+                selected[w] = check(columns, w, mask[w], attributeIndices, positive, formulaType);
+                count += Long.bitCount(selected[w]);
+            }
+            rows = Columns.toRows(selected, count);
         }
-        boolean[][] newData = new boolean[rows.size()][];
-        int i = 0;
-        for (boolean[] row : rows){
-            newData[i++] = row;
-        }
-        return new BinaryDataset(newData, this.attributeNames);
+        //selected examples have unit weights
+        return new BinaryDataset(this, columns, columns.unitWeights(), rows, selected);
     }
 
     public double sum(Clause clause){
@@ -329,36 +424,57 @@ public class BinaryDataset {
     }
 
     public double count(String[] attributes, boolean[] positive){
+        int[] attributeIndices = this.attributeIndices(attributes);
+        Columns columns = this.columns();
         double retVal = 0;
-        for (boolean[] row : this.dataset){
-            if (check(row, attributes, positive, FormulaType.CONJUNCTION)){
-                retVal++;
+        if (this.isSparse()){
+            for (int row : this.selection){
+                if (check(columns.rows[row], attributeIndices, positive, FormulaType.CONJUNCTION)){
+                    retVal++;
+                }
+            }
+        } else {
+            long[] mask = this.selectionMask();
+            for (int w = 0; w < mask.length; w++){
+                retVal += Long.bitCount(check(columns, w, mask[w], attributeIndices, positive, FormulaType.CONJUNCTION));
             }
         }
         return retVal;
     }
 
     public double sum(String[] attributes, boolean[] positive){
+        int[] attributeIndices = this.attributeIndices(attributes);
+        Columns columns = this.columns();
         double retVal = 0;
-        int i = 0;
-        for (boolean[] row : this.dataset){
-            if (check(row, attributes, positive, FormulaType.CONJUNCTION)){
-                retVal += this.weight(i);
+        if (this.isSparse()){
+            for (int row : this.selection){
+                if (check(columns.rows[row], attributeIndices, positive, FormulaType.CONJUNCTION)){
+                    retVal += this.columnWeights[row];
+                }
+            }
+        } else {
+            long[] mask = this.selectionMask();
+            for (int w = 0; w < mask.length; w++){
+                long word = check(columns, w, mask[w], attributeIndices, positive, FormulaType.CONJUNCTION);
+                while (word != 0){
+                    retVal += this.columnWeights[(w << 6) + Long.numberOfTrailingZeros(word)];
+                    word &= word-1;
+                }
             }
-            i++;
         }
         return retVal;
     }
 
     public double approximateSum(String[] attributes, boolean[] positive, int numSamples, Random random){
         double retVal = 0;
-        if (this.dataset.length == 0){
+        if (this.numExamples() == 0){
             return 0;
         }
+        int[] attributeIndices = this.attributeIndices(attributes);
         for (int i = 0; i < numSamples; i++){
-            int index = random.nextInt(this.dataset.length);
-            boolean[] row = this.dataset[index];
-            if (check(row, attributes, positive, FormulaType.CONJUNCTION)){
+            int index = random.nextInt(this.numExamples());
+            boolean[] row = this.example(index);
+            if (check(row, attributeIndices, positive, FormulaType.CONJUNCTION)){
                 retVal += this.weight(index);
             }
             i++;
@@ -499,19 +615,21 @@ public class BinaryDataset {
     }
 
     public Pair<BinaryDataset,BinaryDataset> randomSplit(double fraction, Random random){
-        int[] indexes = VectorUtils.sequence(0, this.dataset.length-1);
+        boolean[][] dataset = this.examples();
+        double[] weights = this.weights();
+        int[] indexes = VectorUtils.sequence(0, dataset.length-1);
         VectorUtils.shuffle(indexes, random);
         boolean[][] datasetA = new boolean[(int)Math.ceil(dataset.length*fraction)][];
         double[] weightsA = new double[datasetA.length];
-        boolean[][] datasetB = new boolean[this.dataset.length-datasetA.length][];
+        boolean[][] datasetB = new boolean[dataset.length-datasetA.length][];
         double[] weightsB = new double[datasetB.length];
         for (int i = 0; i < datasetA.length; i++){
-            datasetA[i] = this.dataset[indexes[i]];
-            weightsA[i] = this.weights[indexes[i]];
+            datasetA[i] = dataset[indexes[i]];
+            weightsA[i] = weights[indexes[i]];
         }
         for (int i = 0; i < datasetB.length; i++){
-            datasetB[i] = this.dataset[indexes[datasetA.length+i]];
-            weightsB[i] = this.weights[indexes[datasetA.length+i]];
+            datasetB[i] = dataset[indexes[datasetA.length+i]];
+            weightsB[i] = weights[indexes[datasetA.length+i]];
         }
         return new Pair<BinaryDataset,BinaryDataset>(
                 new BinaryDataset(datasetA, this.attributeNames, weightsA),
@@ -519,6 +637,9 @@ public class BinaryDataset {
     }
 
     public boolean[] example(int index){
+        if (this.selection != null){
+            return this.columns.rows[this.selection[index]];
+        }
         return this.dataset[index];
     }
 
@@ -554,19 +675,24 @@ public class BinaryDataset {
     }
 
     public double weight(int index){
+        if (this.selection != null){
+            return this.columnWeights[this.selection[index]];
+        }
         return this.weights[index];
     }
 
     public double[] weights(){
+        this.materialize();
         return this.weights;
     }
 
     public boolean[][] examples(){
+        this.materialize();
         return this.dataset;
     }
 
     public BinaryDataset copy(){
-        return new BinaryDataset(this.dataset, this.attributeNames, this.weights);
+        return new BinaryDataset(this.examples(), this.attributeNames, this.weights());
     }
 
     public Set<Literal> toLiteralSet(boolean[] possibleWorld){
@@ -580,7 +706,7 @@ public class BinaryDataset {
 
     public double logLikelihood(DiscreteProbabilityDistribution dpd){
         double retVal = 0;
-        for (boolean[] example : this.dataset){
+        for (boolean[] example : this.examples()){
             retVal += Math.log(dpd.density(toLiteralSet(example)));
         }
         return retVal;
@@ -588,10 +714,10 @@ public class BinaryDataset {
 
     public double logLikelihoodWithLaplaceCorrection(DiscreteProbabilityDistribution dpd){
         double retVal = 0;
-        for (boolean[] example : this.dataset){
+        for (boolean[] example : this.examples()){
             double logP = Math.log(dpd.density(toLiteralSet(example)));
             if (Double.isInfinite(logP)){
-                retVal += Math.log(1.0/this.dataset.length) - this.attributes().length;
+                retVal += Math.log(1.0/this.numExamples()) - this.attributes().length;
             } else {
                 retVal += logP;
             }
@@ -602,7 +728,7 @@ public class BinaryDataset {
     public Table<String,String> toTable(){
         Table<String,String> retVal = new Table<String,String>();
         int exampleIndex = 0;
-        for (boolean[] example : this.dataset){
+        for (boolean[] example : this.examples()){
             for (int i = 0; i < example.length; i++){
                 retVal.add(String.valueOf(exampleIndex), this.attributeNames[i], example[i] ? "+" : "-");
             }
@@ -618,7 +744,7 @@ public class BinaryDataset {
     public boolean[] attributeValues(int attributeIndex){
         boolean[] retVal = new boolean[(int)this.numExamples()];
         int i = 0;
-        for (boolean[] row : this.dataset){
+        for (boolean[] row : this.examples()){
             retVal[i] = row[attributeIndex];
             i++;
         }
@@ -628,10 +754,10 @@ public class BinaryDataset {
     public BinaryDataset neighbourhood(boolean[] center, int radius){
         List<boolean[]> list = new ArrayList<boolean[]>();
         List<Double> weights = new ArrayList<Double>();
-        for (int i = 0; i < this.dataset.length; i++){
-            if (VectorUtils.hammingDistance(center, this.dataset[i]) <= radius){
-                list.add(this.dataset[i]);
-                weights.add(this.weights[i]);
+        for (int i = 0; i < this.numExamples(); i++){
+            if (VectorUtils.hammingDistance(center, this.example(i)) <= radius){
+                list.add(this.example(i));
+                weights.add(this.weight(i));
             }
         }
         boolean[][] data = new boolean[list.size()][];
@@ -643,4 +769,98 @@ public class BinaryDataset {
         return new BinaryDataset(data, this.attributes(), w);
     }
 
+    //the lazily filled caches (columns, selection mask, materialized rows) are guarded by this dataset's monitor,
+    //so views can be queried from several threads; set(...) and shuffle(...) must not run concurrently with queries
+    private synchronized Columns columns(){
+        if (this.columns == null){
+            //copies, so that views do not depend on later modifications of this dataset's arrays
+            this.columns = new Columns(this.dataset.clone(), this.attributeNames == null ? 0 : this.attributeNames.length);
+            this.columnWeights = this.weights.clone();
+        }
+        return this.columns;
+    }
+
+    //few selected rows - it is cheaper to go through them one by one than through the whole bitsets
+    private boolean isSparse(){
+        return this.selection != null && this.selection.length < this.columns.all.length;
+    }
+
+    private synchronized long[] selectionMask(){
+        if (this.selection == null){
+            return this.columns.all;
+        }
+        if (this.selectionMask == null){
+            long[] mask = new long[this.columns.all.length];
+            for (int row : this.selection){
+                mask[row >>> 6] |= 1L << row;
+            }
+            this.selectionMask = mask;
+        }
+        return this.selectionMask;
+    }
+
+    private synchronized void materialize(){
+        if (this.dataset == null){
+            boolean[][] rows = new boolean[this.selection.length][];
+            double[] ws = new double[this.selection.length];
+            for (int i = 0; i < rows.length; i++){
+                rows[i] = this.columns.rows[this.selection[i]];
+                ws[i] = this.columnWeights[this.selection[i]];
+            }
+            this.dataset = rows;
+            this.weights = ws;
+        }
+    }
+
+    private static class Columns {
+
+        private final boolean[][] rows;
+
+        //bits[attribute][word]
+        private final long[][] bits;
+
+        //all rows
+        private final long[] all;
+
+        private double[] unitWeights;
+
+        private Columns(boolean[][] rows, int numAttributes){
+            this.rows = rows;
+            int numWords = (rows.length+63) >>> 6;
+            this.bits = new long[numAttributes][numWords];
+            this.all = new long[numWords];
+            for (int i = 0; i < rows.length; i++){
+                boolean[] row = rows[i];
+                long bit = 1L << i;
+                this.all[i >>> 6] |= bit;
+                for (int j = 0; j < numAttributes; j++){
+                    if (row[j]){
+                        this.bits[j][i >>> 6] |= bit;
+                    }
+                }
+            }
+        }
+
+        private synchronized double[] unitWeights(){
+            if (this.unitWeights == null){
+                this.unitWeights = new double[this.rows.length];
+                Arrays.fill(this.unitWeights, 1.0);
+            }
+            return this.unitWeights;
+        }
+
+        private static int[] toRows(long[] mask, int count){
+            int[] retVal = new int[count];
+            int index = 0;
+            for (int w = 0; w < mask.length; w++){
+                long word = mask[w];
+                while (word != 0){
+                    retVal[index++] = (w << 6) + Long.numberOfTrailingZeros(word);
+                    word &= word-1;
+                }
+            }
+            return retVal;
+        }
+    }
+
 }
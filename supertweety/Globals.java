@@ -11,7 +11,7 @@
 package supertweety;
 
 import supertweety.logic.utils.ModelCounterFactory;
-import supertweety.logic.utils.NaiveModelCounterFactory;
+import supertweety.logic.utils.ComponentCachingModelCounterFactory;
 import supertweety.logic.utils.RelsatModelCounterFactory;
 
 import java.io.File;
@@ -30,8 +30,8 @@ public class Globals {
         if (new File(relsatPath).exists()) {
             modelCounterFactory = new RelsatModelCounterFactory(relsatPath);
         } else {
-            modelCounterFactory = new NaiveModelCounterFactory();
-            System.err.println("Warning: Using NaiveModelCounterFactory because relsat couldn't be found.");
+            modelCounterFactory = new ComponentCachingModelCounterFactory();
+            System.err.println("Warning: Using ComponentCachingModelCounterFactory because relsat couldn't be found.");
         }
 
     }
@@ -9,6 +9,7 @@ package supertweety;/*
  */
 
 import ida.ilp.logic.*;
+import ida.ilp.logic.special.IsoClauseWrapper;
 import ida.ilp.logic.subsumption.ApproximateSubsetCounter;
 import ida.ilp.logic.subsumption.Matching;
 import ida.ilp.logic.subsumption.SpecialVarargPredicates;
@@ -60,6 +61,9 @@ public class RelationalDataset {
 
     private Cache<Clause,Boolean> matchingCache = new Cache<Clause, Boolean>();
 
+    //rule (up to renaming of variables) -> queries covered by the rule
+    private Cache<IsoClauseWrapper,BitSet> coverageCache = new Cache<IsoClauseWrapper, BitSet>();
+
     public RelationalDataset(Clause example){
         set(example, null, null, SUBSAMPLING_MODE);
     }
@@ -131,6 +135,19 @@ public class RelationalDataset {
     }
 
     public double accuracy(List<HornClause> rules, int k){
+        return accuracy(rules, k, Double.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Computes accuracy of the given rules. If it is already clear after processing some of the subsamples that
+     * the accuracy is smaller than <em>threshold</em>, the computation is stopped early and an upper bound on the accuracy
+     * (which is smaller than <em>threshold</em>) is returned instead.
+     * @param rules the rules
+     * @param k maximum number of constants considered
+     * @param threshold accuracy below which the exact value is not needed
+     * @return the accuracy of the rules or an upper bound on it which is smaller than <em>threshold</em>
+     */
+    public double accuracy(List<HornClause> rules, int k, double threshold){
         /*if (this.mode == SUBSET_MODE){
             double avgPosCovered = 0;
             double avgNegCovered = 0;
@@ -157,36 +174,26 @@ public class RelationalDataset {
         } else*/ if (mode == SUBSAMPLING_MODE){
             double avgPosCovered = 0;
             double avgNegCovered = 0;
+            int processed = 0;
             for (RelationalDataset subsample : subsamples) {
-                for (int i = 0; i < queries.size(); i++) {
-                    Literal query = queries.get(i);
-                    Boolean target = targets.get(i);
-                    List<Clause> unifiedClauses = new ArrayList<Clause>();
-                    for (HornClause rule : rules) {
-                        rule = addAlldiffConstraint(rule, k);
-                        Clause c = rule.unify(query);
-                        //System.out.println("unified: "+c);
-                        if (c != null) {
-                            unifiedClauses.add(LogicUtils.flipSigns(c));
-                        }
-                    }
-                    boolean covers = false;
-                    for (Clause unified : unifiedClauses){
-//                        if (subsample.matching.subsumption(unified, 0)){
-//                            covers = true;
-//                            break;
-//                        }
-                        if (subsample.subsumption(unified)){
-                            covers = true;
-                            break;
-                        }
+                //a query is covered by the rules iff it is covered by at least one of them
+                BitSet covered = new BitSet(queries.size());
+                for (HornClause rule : rules) {
+                    covered.or(subsample.coverage(rule, k));
+                }
+                for (int i = covered.nextSetBit(0); i >= 0; i = covered.nextSetBit(i+1)) {
+                    if (targets.get(i)) {
+                        avgPosCovered += 1.0/subsamples.length;
+                    } else {
+                        avgNegCovered += 1.0/subsamples.length;
                     }
-                    if (covers) {
-                        if (target) {
-                            avgPosCovered += 1.0/subsamples.length;
-                        } else {
-                            avgNegCovered += 1.0/subsamples.length;
-                        }
+                }
+                processed++;
+                if (threshold > Double.NEGATIVE_INFINITY && processed < subsamples.length){
+                    //covered negative examples can only decrease the accuracy, in the best case, all positive examples are covered in the remaining subsamples
+                    double upperBound = (positiveWeight*(avgPosCovered+numPositive*(subsamples.length-processed)/(double)subsamples.length)+negativeWeight*(numNegative-avgNegCovered))/(positiveWeight*numPositive+negativeWeight*numNegative);
+                    if (upperBound < threshold){
+                        return upperBound;
                     }
                 }
             }
@@ -198,6 +205,30 @@ public class RelationalDataset {
         }
     }
 
+    /**
+     * Computes the set of queries covered by the given rule. The results are cached, so the subsumption tests are
+     * performed only once for every rule (up to renaming of variables).
+     * @param rule the rule
+     * @param k maximum number of constants considered
+     * @return bitset: the i-th bit is set iff the i-th query is covered by the rule (must not be modified)
+     */
+    private BitSet coverage(HornClause rule, int k){
+        HornClause constrained = addAlldiffConstraint(rule, k);
+        IsoClauseWrapper key = new IsoClauseWrapper(constrained.toClause());
+        BitSet retVal = this.coverageCache.get(key);
+        if (retVal == null){
+            retVal = new BitSet(queries.size());
+            for (int i = 0; i < queries.size(); i++) {
+                Clause c = constrained.unify(queries.get(i));
+                if (c != null && this.subsumption(LogicUtils.flipSigns(c))) {
+                    retVal.set(i);
+                }
+            }
+            this.coverageCache.put(key, retVal);
+        }
+        return retVal;
+    }
+
     private boolean subsumption(Clause unified){
         if (unified == null) {
             return false;
@@ -21,9 +21,10 @@ import ida.ilp.logic.subsumption.SpecialVarargPredicates;
 import ida.utils.Cache;
 import ida.utils.Sugar;
 import ida.utils.VectorUtils;
+import ida.utils.WorkerPool;
 import ida.utils.tuples.Pair;
 import ida.utils.tuples.Triple;
-import supertweety.logic.utils.CryptoMiniSatExecutor;
+import supertweety.logic.utils.XorSatSolver;
 
 import java.util.*;
 
@@ -51,6 +52,9 @@ public class ApproximateModelCounter {
 
     private Random random = new Random(getClass().getName().hashCode());
 
+    //maximum number of trials of approxMC2 running in parallel
+    private int parallelism = WorkerPool.parallelism();
+
     private final static Object cacheLock = new Object();
 
     private static Cache<Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>>,Double> cache = new Cache<Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>>,Double>();
@@ -78,14 +82,8 @@ public class ApproximateModelCounter {
 
 
     public double logApproxCount(){
-        Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>> representative = new Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>>();
+        Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>> representative = representative();
         synchronized (cacheLock){
-            representative.r = new HashSet<IsoClauseWrapper>();
-            for (Clause c : this.theory){
-                representative.r.add(new IsoClauseWrapper(c));
-            }
-            representative.s = this.universe;
-            representative.t = Sugar.setFromCollections(this.allGroundAtoms);
             Double value;
             if ((value = cache.get(representative)) != null){
                 return value;
@@ -105,6 +103,19 @@ public class ApproximateModelCounter {
         return retVal;
     }
 
+    /**
+     *
+     * @return representation of the counting problem which does not depend on the order of the clauses and on renaming
+     * of their variables (two counting problems with equal representatives have the same number of models)
+     */
+    public Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>> representative(){
+        Set<IsoClauseWrapper> clauses = new HashSet<IsoClauseWrapper>();
+        for (Clause c : this.theory){
+            clauses.add(new IsoClauseWrapper(c));
+        }
+        return new Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>>(clauses, this.universe, Sugar.setFromCollections(this.allGroundAtoms));
+    }
+
     public int count(int maxCount){
         TheorySolver ts = constructTheorySolver();
         return ts.solveAll(theory, Sugar.<Literal>set(), Sugar.<Literal>set(constantIntroduction), Sugar.setFromCollections(allGroundAtoms), maxCount).size();
@@ -143,32 +154,81 @@ public class ApproximateModelCounter {
         } else {
             t = numTries;
         }
-        int logNCells = 1;
-        List<Double> logCounts = new ArrayList<Double>();
-        for (int i = 0; i < t; i++){
-            Pair<Double,Double> p = approxMC2Core((int)threshold, logNCells);
-            if (p != null) {
-                logCounts.add(p.r + Math.log(p.s) / log2);
-                logNCells = p.r.intValue();
-            }
+        //the trials are independent, every trial gets its own random number generator, so the result does not depend on
+        //the order in which they finish
+        final int numTrials = (int)t;
+        final int thresholdInt = (int)threshold;
+        final long seed = this.random.nextLong();
+        final List<Double> logCounts = new ArrayList<Double>();
+        final int[] finished = new int[1];
+        final WorkerPool.TaskGroup group = new WorkerPool.TaskGroup();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < numTrials; i++){
+            final Random trialRandom = new Random(seed + i);
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    Pair<Double,Double> p = approxMC2Core(thresholdInt, 1, trialRandom);
+                    synchronized (logCounts) {
+                        finished[0]++;
+                        if (p != null) {
+                            logCounts.add(p.r + Math.log(p.s) / log2);
+                        }
+                        //the trials which have not started yet are skipped once their results cannot change the median
+                        if (finished[0] < numTrials && isMedianFixed(logCounts, numTrials - finished[0])){
+                            group.cancel();
+                        }
+                    }
+                }
+            });
         }
-        System.out.println("logCounts: "+logCounts);
-        if (logCounts.isEmpty()){
+        WorkerPool.invokeAll(tasks, this.parallelism, group);
+        List<Double> logCountsCopy;
+        synchronized (logCounts){
+            logCountsCopy = new ArrayList<Double>(logCounts);
+        }
+        System.out.println("logCounts: "+logCountsCopy);
+        if (logCountsCopy.isEmpty()){
             return Double.NaN;
         }
-        double[] logCountsArray = VectorUtils.toDoubleArray(logCounts);
+        double[] logCountsArray = VectorUtils.toDoubleArray(logCountsCopy);
         Arrays.sort(logCountsArray);
         System.out.println("retVal: "+logCountsArray[logCountsArray.length/2]);
         return logCountsArray[logCountsArray.length/2];
     }
 
-    private Pair<Double,Double> approxMC2Core(int threshold, int logPrevNCells){
+    /**
+     * Checks whether the median of the values (element at position size/2 after sorting) stays the same whatever the results of the
+     * remaining trials are (each of them can either add an arbitrary value or nothing).
+     * @param values results of the finished trials
+     * @param remaining number of the remaining trials
+     * @return true if the median is already determined
+     */
+    private static boolean isMedianFixed(List<Double> values, int remaining){
+        if (values.isEmpty()){
+            return false;
+        }
+        double[] sorted = VectorUtils.toDoubleArray(values);
+        Arrays.sort(sorted);
+        int k = sorted.length;
+        for (int j = 0; j <= remaining; j++){
+            //with j more values, the median is between these two positions of the current values
+            int hi = (k+j)/2;
+            int lo = hi-j;
+            if (lo < 0 || hi >= k || sorted[lo] != sorted[hi]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Pair<Double,Double> approxMC2Core(int threshold, int logPrevNCells, Random random){
         int numRows = this.allGroundAtoms.size();
         boolean[][] left = new boolean[numRows][];
         boolean[] right = new boolean[numRows];
         for (int i = 0; i < left.length; i++){
-            left[i] = VectorUtils.randomBooleanVector(this.allGroundAtoms.size(), this.random);
-            right[i] = this.random.nextBoolean();
+            left[i] = VectorUtils.randomBooleanVector(this.allGroundAtoms.size(), random);
+            right[i] = random.nextBoolean();
         }
 
         //MatrixUtils.gaussianElimination(left, right);
@@ -190,6 +250,14 @@ public class ApproximateModelCounter {
         this.numTries = tries;
     }
 
+    /**
+     *
+     * @param parallelism maximum number of trials of the approximate counting running in parallel
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
     public void setSubsumptionMode(int mode){
         this.matchingMode = mode;
     }
@@ -197,7 +265,7 @@ public class ApproximateModelCounter {
     private TheorySolver constructTheorySolver(){
         TheorySolver ts = new TheorySolver();
         ts.setSubsumptionMode(this.matchingMode);
-        ts.setSatSolver(new CryptoMiniSatExecutor());
+        ts.setSatSolver(new XorSatSolver());
         ts.setMode(TheorySolver.GROUND_ALL);
         return ts;
     }
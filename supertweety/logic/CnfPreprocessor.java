@@ -0,0 +1,626 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic;
+
+import java.util.*;
+
+/**
+ * Simplifies the clauses from a GroundCnf before they are given to a SAT solver. The following steps are used:
+ * unit propagation (the fixed atoms are then represented by unit clauses), removal of tautologies, subsumption and
+ * self-subsuming resolution (strengthening) and, optionally, elimination of pure literals and bounded variable elimination
+ * (a variable is eliminated by resolution only if this does not increase the number of clauses and the resolvents are short).
+ * The first group of steps does not change the set of models, the elimination steps only preserve satisfiability, so the
+ * variables which are constrained by something else than the clauses (soft clauses, cardinality constraints...) must be
+ * frozen. The clauses of the eliminated variables are kept on a reconstruction stack and extendModel(...) turns a model of
+ * the simplified clauses into a model of the original ones. An eliminated variable can be restored later by melt(...)
+ * (e.g. when it appears in an assumption or in a clause added later), its clauses are then returned so that they can be
+ * added back to the solver.
+ */
+public class CnfPreprocessor {
+
+    //variables with more occurrences are not eliminated (unless they are pure)
+    private final static int MAX_OCCURRENCES = 16;
+
+    private final static int MAX_RESOLVENT_LENGTH = 20;
+
+    //candidate lists longer than this are not scanned by subsumption
+    private final static int MAX_SCANNED_OCCURRENCES = 10000;
+
+    private int numVariables;
+
+    //the clause database used during preprocessing (null = removed clause)
+    private List<int[]> database = new ArrayList<int[]>();
+
+    private long[] signatures = new long[16];
+
+    //occurrence lists of literals (indexed by code(literal)), they may contain removed clauses and clauses which do not contain the literal any more
+    private int[][] occurrences;
+
+    private int[] occurrenceCounts;
+
+    //0 = unassigned, 1 = true, -1 = false
+    private byte[] values;
+
+    private int[] propagationQueue;
+
+    private int propagationHead = 0, propagationTail = 0;
+
+    private boolean[] frozen;
+
+    private boolean contradiction = false;
+
+    //the simplified clauses (including the clauses added or restored later)
+    private List<int[]> clauses = new ArrayList<int[]>();
+
+    private Elimination[] eliminations;
+
+    private List<Elimination> eliminationStack = new ArrayList<Elimination>();
+
+    private int numEliminated = 0;
+
+    /**
+     * Simplifies the clauses.
+     * @param cnf the clauses
+     * @param frozen variables which must not be eliminated (may be null)
+     * @param simplify if false, the clauses are just copied (and eliminate is ignored)
+     * @param eliminate if true, pure literals and variables are eliminated (otherwise the set of models is not changed)
+     */
+    public CnfPreprocessor(GroundCnf cnf, Collection<Integer> frozen, boolean simplify, boolean eliminate){
+        this.numVariables = cnf.numAtoms();
+        this.values = new byte[this.numVariables+1];
+        this.frozen = new boolean[this.numVariables+1];
+        this.eliminations = new Elimination[this.numVariables+1];
+        if (frozen != null){
+            for (int var : frozen){
+                this.frozen[var] = true;
+            }
+        }
+        if (!simplify){
+            for (int i = 0; i < cnf.size(); i++){
+                this.clauses.add(cnf.clause(i));
+            }
+            return;
+        }
+        this.occurrences = new int[2*this.numVariables+2][];
+        this.occurrenceCounts = new int[2*this.numVariables+2];
+        this.propagationQueue = new int[this.numVariables+1];
+        for (int i = 0; i < cnf.size() && !this.contradiction; i++){
+            addToDatabase(cnf.clause(i), null);
+        }
+        if (!this.contradiction){
+            propagate();
+        }
+        if (!this.contradiction){
+            subsume(liveClauses());
+        }
+        if (eliminate && !this.contradiction){
+            eliminateVariables();
+        }
+        if (!this.contradiction){
+            for (int var = 1; var <= this.numVariables; var++){
+                if (this.values[var] != 0){
+                    this.clauses.add(new int[]{this.values[var] > 0 ? var : -var});
+                }
+            }
+            for (int[] clause : this.database){
+                if (clause != null){
+                    this.clauses.add(clause);
+                }
+            }
+        }
+        this.database = null;
+        this.signatures = null;
+        this.occurrences = null;
+        this.occurrenceCounts = null;
+        this.propagationQueue = null;
+    }
+
+    /**
+     *
+     * @return true if the clauses were found to be unsatisfiable
+     */
+    public boolean isContradiction(){
+        return this.contradiction;
+    }
+
+    /**
+     *
+     * @return the simplified clauses, the clauses added by addClause(...) and restored by melt(...) are included too
+     */
+    public List<int[]> clauses(){
+        return this.clauses;
+    }
+
+    /**
+     *
+     * @return number of variables which are currently eliminated
+     */
+    public int numEliminated(){
+        return this.numEliminated;
+    }
+
+    /**
+     *
+     * @param var a variable
+     * @return true if the variable is currently eliminated
+     */
+    public boolean isEliminated(int var){
+        return var < this.eliminations.length && this.eliminations[var] != null;
+    }
+
+    /**
+     * Restores an eliminated variable (and recursively the variables eliminated after it which appear in its clauses).
+     * The variable is frozen afterwards.
+     * @param var the variable
+     * @return the clauses which have to be added to the solver (they are added to clauses() too)
+     */
+    public List<int[]> melt(int var){
+        List<int[]> restored = new ArrayList<int[]>();
+        melt(var, restored);
+        return restored;
+    }
+
+    private void melt(int var, List<int[]> restored){
+        ensureCapacity(var);
+        this.frozen[var] = true;
+        Elimination elimination = this.eliminations[var];
+        if (elimination == null){
+            return;
+        }
+        this.eliminations[var] = null;
+        elimination.melted = true;
+        this.numEliminated--;
+        for (int[] clause : elimination.clauses){
+            for (int l : clause){
+                if (isEliminated(Math.abs(l))){
+                    melt(Math.abs(l), restored);
+                }
+            }
+            restored.add(clause);
+            this.clauses.add(clause);
+        }
+    }
+
+    /**
+     * Restores all eliminated variables.
+     * @return the clauses which have to be added to the solver (they are added to clauses() too)
+     */
+    public List<int[]> meltAll(){
+        List<int[]> restored = new ArrayList<int[]>();
+        for (int i = this.eliminationStack.size()-1; i >= 0; i--){
+            Elimination elimination = this.eliminationStack.get(i);
+            if (!elimination.melted){
+                melt(elimination.variable, restored);
+            }
+        }
+        this.eliminationStack.clear();
+        return restored;
+    }
+
+    /**
+     * Adds a clause, the eliminated variables appearing in it are restored first.
+     * @param clause the clause (DIMACS literals)
+     * @return the clauses which have to be added to the solver (the restored ones and the clause itself)
+     */
+    public List<int[]> addClause(int[] clause){
+        List<int[]> retVal = new ArrayList<int[]>();
+        for (int l : clause){
+            melt(Math.abs(l), retVal);
+        }
+        retVal.add(clause);
+        this.clauses.add(clause);
+        return retVal;
+    }
+
+    /**
+     * Extends a model of clauses() to a model of the original clauses (and the clauses added later).
+     * @param model the model, model[var] is the value of the variable var (it is modified in place)
+     */
+    public void extendModel(boolean[] model){
+        for (int i = this.eliminationStack.size()-1; i >= 0; i--){
+            Elimination elimination = this.eliminationStack.get(i);
+            if (elimination.melted){
+                continue;
+            }
+            int var = elimination.variable;
+            boolean value = false;
+            for (int[] clause : elimination.clauses){
+                if (contains(clause, var)){
+                    boolean satisfiedByOthers = false;
+                    for (int l : clause){
+                        if (l != var && (l > 0 ? model[l] : !model[-l])){
+                            satisfiedByOthers = true;
+                            break;
+                        }
+                    }
+                    if (!satisfiedByOthers){
+                        value = true;
+                        break;
+                    }
+                }
+            }
+            model[var] = value;
+        }
+    }
+
+    private void ensureCapacity(int var){
+        if (var >= this.eliminations.length){
+            int length = Math.max(var+1, 2*this.eliminations.length);
+            this.eliminations = Arrays.copyOf(this.eliminations, length);
+            this.frozen = Arrays.copyOf(this.frozen, length);
+        }
+    }
+
+    private static int code(int literal){
+        return literal > 0 ? 2*literal : -2*literal+1;
+    }
+
+    private static long signature(int[] clause){
+        long signature = 0;
+        for (int l : clause){
+            signature |= 1L << (Math.abs(l) & 63);
+        }
+        return signature;
+    }
+
+    private static boolean contains(int[] clause, int literal){
+        for (int l : clause){
+            if (l == literal){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //true if every literal of a is in b (both are sorted by the variables and contain no complementary literals)
+    private static boolean subset(int[] a, int[] b){
+        int j = 0;
+        for (int l : a){
+            while (j < b.length && Math.abs(b[j]) < Math.abs(l)){
+                j++;
+            }
+            if (j == b.length || b[j] != l){
+                return false;
+            }
+            j++;
+        }
+        return true;
+    }
+
+    private List<Integer> liveClauses(){
+        List<Integer> retVal = new ArrayList<Integer>();
+        for (int i = 0; i < this.database.size(); i++){
+            if (this.database.get(i) != null){
+                retVal.add(i);
+            }
+        }
+        return retVal;
+    }
+
+    //adds a (sorted) clause to the database, units are assigned; returns the index of the clause or -1
+    private int addToDatabase(int[] clause, Collection<Integer> newClauses){
+        for (int i = 0; i+1 < clause.length; i++){
+            if (Math.abs(clause[i]) == Math.abs(clause[i+1]) && clause[i] != clause[i+1]){
+                //tautology
+                return -1;
+            }
+        }
+        if (clause.length == 0){
+            this.contradiction = true;
+            return -1;
+        }
+        if (clause.length == 1){
+            assign(clause[0]);
+            return -1;
+        }
+        int index = this.database.size();
+        this.database.add(clause);
+        if (index == this.signatures.length){
+            this.signatures = Arrays.copyOf(this.signatures, 2*index);
+        }
+        this.signatures[index] = signature(clause);
+        for (int l : clause){
+            addOccurrence(code(l), index);
+        }
+        if (newClauses != null){
+            newClauses.add(index);
+        }
+        return index;
+    }
+
+    private void addOccurrence(int code, int clauseIndex){
+        int[] list = this.occurrences[code];
+        if (list == null){
+            this.occurrences[code] = list = new int[4];
+        } else if (this.occurrenceCounts[code] == list.length){
+            this.occurrences[code] = list = Arrays.copyOf(list, 2*list.length);
+        }
+        list[this.occurrenceCounts[code]++] = clauseIndex;
+    }
+
+    private void assign(int literal){
+        int var = Math.abs(literal);
+        byte value = literal > 0 ? (byte)1 : (byte)-1;
+        if (this.values[var] == -value){
+            this.contradiction = true;
+        } else if (this.values[var] == 0){
+            this.values[var] = value;
+            this.propagationQueue[this.propagationTail++] = literal;
+        }
+    }
+
+    private void propagate(){
+        while (this.propagationHead < this.propagationTail && !this.contradiction){
+            int literal = this.propagationQueue[this.propagationHead++];
+            int code = code(literal);
+            for (int i = 0; i < this.occurrenceCounts[code]; i++){
+                int clauseIndex = this.occurrences[code][i];
+                int[] clause = this.database.get(clauseIndex);
+                if (clause != null && contains(clause, literal)){
+                    this.database.set(clauseIndex, null);
+                }
+            }
+            int negCode = code(-literal);
+            for (int i = 0; i < this.occurrenceCounts[negCode] && !this.contradiction; i++){
+                int clauseIndex = this.occurrences[negCode][i];
+                int[] clause = this.database.get(clauseIndex);
+                if (clause != null && contains(clause, -literal)){
+                    strengthen(clauseIndex, -literal);
+                }
+            }
+        }
+    }
+
+    //removes the literal from the clause, the clause is removed from the database if it becomes a unit
+    private void strengthen(int clauseIndex, int literal){
+        int[] clause = this.database.get(clauseIndex);
+        int[] strengthened = new int[clause.length-1];
+        int j = 0;
+        for (int l : clause){
+            if (l != literal){
+                strengthened[j++] = l;
+            }
+        }
+        if (strengthened.length == 1){
+            this.database.set(clauseIndex, null);
+            assign(strengthened[0]);
+        } else {
+            this.database.set(clauseIndex, strengthened);
+            this.signatures[clauseIndex] = signature(strengthened);
+        }
+    }
+
+    //the occurrence list (of some literal of the given clause other than skipped) with the fewest entries
+    private int shortestOccurrenceList(int[] clause, int skipped){
+        int best = -1;
+        for (int l : clause){
+            if (l != skipped && (best == -1 || this.occurrenceCounts[code(l)] < this.occurrenceCounts[best])){
+                best = code(l);
+            }
+        }
+        return best;
+    }
+
+    private void subsume(Collection<Integer> initial){
+        List<Integer> sorted = new ArrayList<Integer>(initial);
+        Collections.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return database.get(o1).length - database.get(o2).length;
+            }
+        });
+        ArrayDeque<Integer> queue = new ArrayDeque<Integer>(sorted);
+        Set<Integer> queued = new HashSet<Integer>(sorted);
+        while (!queue.isEmpty() && !this.contradiction){
+            int c = queue.poll();
+            queued.remove(c);
+            int[] clause = this.database.get(c);
+            if (clause == null){
+                continue;
+            }
+            //backward subsumption
+            int code = shortestOccurrenceList(clause, 0);
+            if (this.occurrenceCounts[code] <= MAX_SCANNED_OCCURRENCES){
+                for (int i = 0; i < this.occurrenceCounts[code]; i++){
+                    int d = this.occurrences[code][i];
+                    int[] other = this.database.get(d);
+                    if (d != c && other != null && other.length >= clause.length && (this.signatures[c] & ~this.signatures[d]) == 0 && subset(clause, other)){
+                        this.database.set(d, null);
+                    }
+                }
+            }
+            //self-subsuming resolution: clause = C + l strengthens D = C' + !l (C subset of C') to C'
+            for (int l : clause){
+                if (this.database.get(c) != clause || this.contradiction){
+                    break;
+                }
+                int negCode = code(-l);
+                int otherCode = clause.length > 1 ? shortestOccurrenceList(clause, l) : negCode;
+                int scanned = this.occurrenceCounts[otherCode] < this.occurrenceCounts[negCode] ? otherCode : negCode;
+                if (this.occurrenceCounts[scanned] > MAX_SCANNED_OCCURRENCES){
+                    continue;
+                }
+                int[] flipped = flip(clause, l);
+                for (int i = 0; i < this.occurrenceCounts[scanned] && !this.contradiction; i++){
+                    int d = this.occurrences[scanned][i];
+                    int[] other = this.database.get(d);
+                    if (d != c && other != null && other.length >= clause.length && (this.signatures[c] & ~this.signatures[d]) == 0 && subset(flipped, other)){
+                        strengthen(d, -l);
+                        if (this.database.get(d) != null && queued.add(d)){
+                            queue.add(d);
+                        }
+                    }
+                }
+                propagate();
+            }
+        }
+    }
+
+    //the clause with the literal negated (the order by variables is kept)
+    private static int[] flip(int[] clause, int literal){
+        int[] retVal = clause.clone();
+        for (int i = 0; i < retVal.length; i++){
+            if (retVal[i] == literal){
+                retVal[i] = -literal;
+            }
+        }
+        return retVal;
+    }
+
+    private List<Integer> liveOccurrences(int literal){
+        List<Integer> retVal = new ArrayList<Integer>();
+        int code = code(literal);
+        for (int i = 0; i < this.occurrenceCounts[code]; i++){
+            int clauseIndex = this.occurrences[code][i];
+            int[] clause = this.database.get(clauseIndex);
+            if (clause != null && contains(clause, literal)){
+                retVal.add(clauseIndex);
+            }
+        }
+        return retVal;
+    }
+
+    private void eliminateVariables(){
+        final int[] costs = new int[this.numVariables+1];
+        List<Integer> candidates = new ArrayList<Integer>();
+        for (int var = 1; var <= this.numVariables; var++){
+            if (!this.frozen[var] && this.values[var] == 0){
+                int positive = this.occurrenceCounts[code(var)], negative = this.occurrenceCounts[code(-var)];
+                if (positive + negative > 0){
+                    costs[var] = positive*negative;
+                    candidates.add(var);
+                }
+            }
+        }
+        Collections.sort(candidates, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return costs[o1] - costs[o2];
+            }
+        });
+        Set<Integer> resolventIndices = new LinkedHashSet<Integer>();
+        for (int var : candidates){
+            if (this.contradiction){
+                return;
+            }
+            if (this.values[var] != 0){
+                continue;
+            }
+            List<Integer> positive = liveOccurrences(var), negative = liveOccurrences(-var);
+            if (positive.isEmpty() && negative.isEmpty()){
+                continue;
+            }
+            List<int[]> resolvents = new ArrayList<int[]>();
+            if (!positive.isEmpty() && !negative.isEmpty()){
+                if (positive.size() + negative.size() > MAX_OCCURRENCES){
+                    continue;
+                }
+                boolean bounded = true;
+                for (int p : positive){
+                    for (int n : negative){
+                        int[] resolvent = resolve(this.database.get(p), this.database.get(n), var);
+                        if (resolvent != null){
+                            resolvents.add(resolvent);
+                            if (resolvent.length > MAX_RESOLVENT_LENGTH || resolvents.size() > positive.size() + negative.size()){
+                                bounded = false;
+                                break;
+                            }
+                        }
+                    }
+                    if (!bounded){
+                        break;
+                    }
+                }
+                if (!bounded){
+                    continue;
+                }
+            }
+            //positive.isEmpty() or negative.isEmpty() means that var is a pure literal, there are no resolvents then
+            List<int[]> removed = new ArrayList<int[]>();
+            for (int c : positive){
+                removed.add(this.database.get(c));
+                this.database.set(c, null);
+            }
+            for (int c : negative){
+                removed.add(this.database.get(c));
+                this.database.set(c, null);
+            }
+            Elimination elimination = new Elimination(var, removed);
+            this.eliminations[var] = elimination;
+            this.eliminationStack.add(elimination);
+            this.numEliminated++;
+            for (int[] resolvent : resolvents){
+                addToDatabase(resolvent, resolventIndices);
+                if (this.contradiction){
+                    return;
+                }
+            }
+            propagate();
+        }
+        if (!this.contradiction){
+            List<Integer> live = new ArrayList<Integer>();
+            for (int c : resolventIndices){
+                if (this.database.get(c) != null){
+                    live.add(c);
+                }
+            }
+            subsume(live);
+        }
+    }
+
+    //resolvent of the clauses on the variable (sorted by variables) or null if it is a tautology
+    private static int[] resolve(int[] positive, int[] negative, int var){
+        int[] merged = new int[positive.length + negative.length - 2];
+        int i = 0, j = 0, k = 0;
+        while (i < positive.length || j < negative.length){
+            int a = i < positive.length ? positive[i] : 0, b = j < negative.length ? negative[j] : 0;
+            if (a == var){
+                i++;
+                continue;
+            }
+            if (b == -var){
+                j++;
+                continue;
+            }
+            int next;
+            if (b == 0 || (a != 0 && (Math.abs(a) < Math.abs(b) || (Math.abs(a) == Math.abs(b) && a <= b)))){
+                next = a;
+                i++;
+            } else {
+                next = b;
+                j++;
+            }
+            if (k > 0 && Math.abs(merged[k-1]) == Math.abs(next)){
+                if (merged[k-1] != next){
+                    return null;
+                }
+            } else {
+                merged[k++] = next;
+            }
+        }
+        return k == merged.length ? merged : Arrays.copyOf(merged, k);
+    }
+
+    private static class Elimination {
+
+        private final int variable;
+
+        //all clauses which contained the variable when it was eliminated
+        private final List<int[]> clauses;
+
+        private boolean melted = false;
+
+        private Elimination(int variable, List<int[]> clauses){
+            this.variable = variable;
+            this.clauses = clauses;
+        }
+    }
+}
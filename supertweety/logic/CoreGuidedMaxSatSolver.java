@@ -0,0 +1,418 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic;
+
+import ida.utils.tuples.Pair;
+import org.sat4j.core.VecInt;
+import org.sat4j.minisat.SolverFactory;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.ISolver;
+import org.sat4j.specs.IVecInt;
+import org.sat4j.specs.TimeoutException;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Weighted MaxSAT solver over DIMACS clauses which uses unsatisfiable-core guided search (the OLL algorithm)
+ * with weight stratification on top of the assumption interface of Sat4j.
+ *
+ * Every soft clause is represented by a soft literal which should be true (a relaxation variable
+ * is introduced for non-unit clauses). The soft literals are passed to the solver as assumptions. When the
+ * solver finds an unsatisfiable core, the lower bound is increased by the minimum weight w of the core,
+ * the weights of the literals in the core are decreased by w and a new soft literal with weight w, which is true iff
+ * at most one of the literals in the core is violated, is added (it is defined by a totalizer over the violations of the
+ * literals in the core; when it appears in a core itself, the bound is relaxed to two violated literals and so on). The assumptions contain
+ * only the soft literals with weight at least a given level (stratification), the level is decreased whenever the
+ * assumptions are satisfiable, so the heavy soft clauses are handled first and good models are found early.
+ *
+ * Every model found during the search is evaluated on the original soft clauses and the best one is kept, so when
+ * the timeout is reached, the best model found so far is available (anytime behaviour).
+ *
+ * Soft clauses with negative weights are penalized when they are true.
+ */
+public class CoreGuidedMaxSatSolver {
+
+    private ISolver solver = SolverFactory.newDefault();
+
+    private int numVariables;
+
+    private final int numProblemVariables;
+
+    private List<Pair<int[],BigInteger>> softDimacsClauses = new ArrayList<Pair<int[],BigInteger>>();
+
+    //current weights of the soft literals
+    private Map<Integer,BigInteger> softLiterals = new HashMap<Integer,BigInteger>();
+
+    //soft literals which stand for "less than bound of the inputs of a totalizer are true"
+    private Map<Integer,Pair<int[],Integer>> outputs = new HashMap<Integer,Pair<int[],Integer>>();
+
+    private BigInteger lowerBound = BigInteger.ZERO;
+
+    private BigInteger bestCost;
+
+    private int[] bestModel;
+
+    private boolean contradiction = false;
+
+    private boolean optimal = false;
+
+    private int timeout = Integer.MAX_VALUE;
+
+    /**
+     * Creates a new instance of class CoreGuidedMaxSatSolver
+     * @param numVariables number of variables of the problem (variables 1..numVariables)
+     */
+    public CoreGuidedMaxSatSolver(int numVariables){
+        this.numVariables = numVariables;
+        this.numProblemVariables = numVariables;
+        this.solver.newVar(numVariables);
+    }
+
+    public void addHardClause(int[] clause){
+        addClause(clause);
+    }
+
+    public void addAtLeast(int[] literals, int degree){
+        if (this.contradiction){
+            return;
+        }
+        try {
+            this.solver.addAtLeast(new VecInt(literals), degree);
+        } catch (ContradictionException e){
+            this.contradiction = true;
+        }
+    }
+
+    public void addAtMost(int[] literals, int degree){
+        if (this.contradiction){
+            return;
+        }
+        try {
+            this.solver.addAtMost(new VecInt(literals), degree);
+        } catch (ContradictionException e){
+            this.contradiction = true;
+        }
+    }
+
+    /**
+     * Adds a soft clause.
+     * @param clause the clause
+     * @param weight weight of the clause (the cost of violating it), if it is negative, -weight is the cost of satisfying the clause
+     */
+    public void addSoftClause(int[] clause, BigInteger weight){
+        if (weight.signum() == 0){
+            return;
+        }
+        this.softDimacsClauses.add(new Pair<int[],BigInteger>(clause, weight));
+        int softLiteral;
+        if (weight.signum() > 0 && clause.length == 1){
+            softLiteral = clause[0];
+        } else if (weight.signum() < 0 && clause.length == 1){
+            softLiteral = -clause[0];
+        } else {
+            int relaxation = newVariable();
+            if (weight.signum() > 0){
+                //clause or relaxation
+                int[] relaxed = Arrays.copyOf(clause, clause.length+1);
+                relaxed[clause.length] = relaxation;
+                addClause(relaxed);
+            } else {
+                //literal implies relaxation
+                for (int literal : clause){
+                    addClause(new int[]{-literal, relaxation});
+                }
+            }
+            softLiteral = -relaxation;
+        }
+        addSoftLiteral(softLiteral, weight.abs());
+    }
+
+    private void addSoftLiteral(int literal, BigInteger weight){
+        //one of two complementary soft literals is always violated (Sat4j does not give correct explanations for complementary assumptions anyway)
+        BigInteger opposite = this.softLiterals.get(-literal);
+        if (opposite != null){
+            BigInteger min = opposite.min(weight);
+            this.lowerBound = this.lowerBound.add(min);
+            if (opposite.equals(min)){
+                this.softLiterals.remove(-literal);
+            } else {
+                this.softLiterals.put(-literal, opposite.subtract(min));
+            }
+            weight = weight.subtract(min);
+            if (weight.signum() == 0){
+                return;
+            }
+        }
+        BigInteger w = this.softLiterals.get(literal);
+        this.softLiterals.put(literal, w == null ? weight : w.add(weight));
+    }
+
+    /**
+     * Finds an optimal model.
+     * @return the optimal model (DIMACS literals of the variables 1..numVariables) or null if the hard clauses are inconsistent. If the timeout
+     * is reached, the best model found so far is returned (or null if no model was found), isOptimal() can be used to check
+     * whether the returned model is optimal.
+     */
+    public int[] optimize(){
+        if (this.optimal || this.contradiction){
+            return this.bestModel;
+        }
+        long deadline = this.timeout == Integer.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis()+this.timeout;
+        try {
+            //the hard constraints are checked in every call because hard clauses may have been added since the last one,
+            //the clauses added during the search keep them satisfiable, so every core found below is explained by the assumptions
+            //(this also gives an initial model, so that there is something to return when the timeout is reached)
+            if (!isSatisfiable(new VecInt(), deadline)){
+                this.contradiction = true;
+                this.bestModel = null;
+                return null;
+            }
+            updateBest(this.solver.model());
+            BigInteger level = nextLevel(null);
+            while (!this.optimal){
+                if (this.bestCost.equals(this.lowerBound)){
+                    this.optimal = true;
+                    break;
+                }
+                VecInt assumptions = new VecInt();
+                for (Map.Entry<Integer,BigInteger> entry : this.softLiterals.entrySet()){
+                    if (entry.getValue().compareTo(level) >= 0){
+                        assumptions.push(entry.getKey());
+                    }
+                }
+                if (isSatisfiable(assumptions, deadline)){
+                    updateBest(this.solver.model());
+                    BigInteger next = nextLevel(level);
+                    if (next == null){
+                        //all soft literals were satisfied, so the cost of this model equals the lower bound
+                        this.optimal = true;
+                    } else {
+                        level = next;
+                    }
+                } else {
+                    relaxCore(this.solver.unsatExplanation());
+                    if (this.contradiction){
+                        return null;
+                    }
+                    if (level.compareTo(maxWeight()) > 0){
+                        level = nextLevel(null);
+                    }
+                }
+            }
+        } catch (TimeoutException te){
+            //we return the best solution found so far
+        }
+        return this.bestModel;
+    }
+
+    private boolean isSatisfiable(IVecInt assumptions, long deadline) throws TimeoutException {
+        if (deadline != Long.MAX_VALUE){
+            long remaining = deadline-System.currentTimeMillis();
+            if (remaining <= 0){
+                throw new TimeoutException();
+            }
+            this.solver.setTimeoutMs(remaining);
+        }
+        return this.solver.isSatisfiable(assumptions);
+    }
+
+    private void relaxCore(IVecInt explanation){
+        List<Integer> core = new ArrayList<Integer>();
+        if (explanation != null){
+            for (int i = 0; i < explanation.size(); i++){
+                int literal = explanation.get(i);
+                //the explanation may contain the assumptions or their negations, depending on the version of Sat4j
+                if (this.softLiterals.containsKey(literal)){
+                    core.add(literal);
+                } else if (this.softLiterals.containsKey(-literal)){
+                    core.add(-literal);
+                }
+            }
+        }
+        if (core.isEmpty()){
+            //the hard constraints alone are inconsistent
+            this.contradiction = true;
+            this.bestModel = null;
+            return;
+        }
+        BigInteger minWeight = null;
+        for (int literal : core){
+            BigInteger w = this.softLiterals.get(literal);
+            if (minWeight == null || w.compareTo(minWeight) < 0){
+                minWeight = w;
+            }
+        }
+        this.lowerBound = this.lowerBound.add(minWeight);
+        for (int literal : core){
+            BigInteger w = this.softLiterals.get(literal).subtract(minWeight);
+            if (w.signum() == 0){
+                this.softLiterals.remove(literal);
+            } else {
+                this.softLiterals.put(literal, w);
+            }
+            Pair<int[],Integer> output = this.outputs.get(literal);
+            if (output != null && output.s < output.r.length){
+                //"less than bound violated" has been violated, so we continue with "less than bound+1 violated"
+                addSoftOutput(output.r, output.s+1, minWeight);
+            }
+        }
+        if (core.size() == 1){
+            //the literal cannot be satisfied at all
+            addClause(new int[]{-core.get(0)});
+        } else {
+            int[] violations = new int[core.size()];
+            for (int i = 0; i < violations.length; i++){
+                violations[i] = -core.get(i);
+            }
+            addSoftOutput(totalizer(violations), 2, minWeight);
+        }
+    }
+
+    //the soft literal "less than bound of the inputs of the totalizer are true" is the negation of its output number bound
+    private void addSoftOutput(int[] totalizerOutputs, int bound, BigInteger weight){
+        int literal = -totalizerOutputs[bound-1];
+        this.outputs.put(literal, new Pair<int[],Integer>(totalizerOutputs, bound));
+        addSoftLiteral(literal, weight);
+    }
+
+    //returns outputs o_1..o_n of a totalizer over the given inputs, o_k is true if at least k of the inputs are true
+    //(only this direction of the implication is encoded, which is enough because the outputs are only required to be false)
+    private int[] totalizer(int[] inputs){
+        if (inputs.length == 1){
+            return new int[]{inputs[0]};
+        }
+        int[] left = totalizer(Arrays.copyOfRange(inputs, 0, inputs.length/2));
+        int[] right = totalizer(Arrays.copyOfRange(inputs, inputs.length/2, inputs.length));
+        int[] outputs = new int[inputs.length];
+        for (int i = 0; i < outputs.length; i++){
+            outputs[i] = newVariable();
+        }
+        for (int i = 0; i <= left.length; i++){
+            for (int j = 0; j <= right.length; j++){
+                if (i+j > 0){
+                    //left_i and right_j implies output_(i+j)
+                    if (i == 0){
+                        addClause(new int[]{-right[j-1], outputs[j-1]});
+                    } else if (j == 0){
+                        addClause(new int[]{-left[i-1], outputs[i-1]});
+                    } else {
+                        addClause(new int[]{-left[i-1], -right[j-1], outputs[i+j-1]});
+                    }
+                }
+            }
+        }
+        return outputs;
+    }
+
+    //the largest weight of a soft literal which is smaller than level (or the largest weight if level is null)
+    private BigInteger nextLevel(BigInteger level){
+        BigInteger retVal = null;
+        for (BigInteger w : this.softLiterals.values()){
+            if ((level == null || w.compareTo(level) < 0) && (retVal == null || w.compareTo(retVal) > 0)){
+                retVal = w;
+            }
+        }
+        if (level == null && retVal == null){
+            return BigInteger.ZERO;
+        }
+        return retVal;
+    }
+
+    private BigInteger maxWeight(){
+        BigInteger retVal = BigInteger.ZERO;
+        for (BigInteger w : this.softLiterals.values()){
+            if (w.compareTo(retVal) > 0){
+                retVal = w;
+            }
+        }
+        return retVal;
+    }
+
+    private void updateBest(int[] model){
+        boolean[] values = new boolean[this.numVariables+1];
+        for (int literal : model){
+            if (literal > 0 && literal <= this.numVariables){
+                values[literal] = true;
+            }
+        }
+        BigInteger cost = BigInteger.ZERO;
+        for (Pair<int[],BigInteger> clause : this.softDimacsClauses){
+            boolean isTrue = false;
+            for (int literal : clause.r){
+                if ((literal > 0) == values[Math.abs(literal)]){
+                    isTrue = true;
+                    break;
+                }
+            }
+            if (clause.s.signum() > 0 ? !isTrue : isTrue){
+                cost = cost.add(clause.s.abs());
+            }
+        }
+        if (this.bestCost == null || cost.compareTo(this.bestCost) < 0){
+            this.bestCost = cost;
+            int[] best = new int[this.numProblemVariables];
+            for (int i = 1; i <= this.numProblemVariables; i++){
+                best[i-1] = values[i] ? i : -i;
+            }
+            this.bestModel = best;
+        }
+    }
+
+    private void addClause(int[] clause){
+        if (this.contradiction){
+            return;
+        }
+        try {
+            this.solver.addClause(new VecInt(clause));
+        } catch (ContradictionException e){
+            this.contradiction = true;
+        }
+    }
+
+    private int newVariable(){
+        this.numVariables++;
+        this.solver.newVar(this.numVariables);
+        return this.numVariables;
+    }
+
+    /**
+     *
+     * @return true if the last model returned by optimize() is optimal
+     */
+    public boolean isOptimal(){
+        return this.optimal;
+    }
+
+    /**
+     *
+     * @return cost of the best model found so far (null if no model has been found)
+     */
+    public BigInteger bestCost(){
+        return this.bestCost;
+    }
+
+    /**
+     *
+     * @return lower bound on the cost of the optimal model proved so far
+     */
+    public BigInteger lowerBound(){
+        return this.lowerBound;
+    }
+
+    /**
+     *
+     * @param timeout timeout in milliseconds for one call of optimize()
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+}
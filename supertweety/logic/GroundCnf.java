@@ -0,0 +1,305 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.utils.collections.ValueToIndex;
+
+import java.util.*;
+
+/**
+ * Compact store of ground clauses. The atoms are interned in a dictionary (indices start at 1) and the clauses are kept
+ * as DIMACS literals (index for a positive literal, -index for a negative one) in one flat int array, the i-th clause
+ * occupying the positions offsets[i], ..., offsets[i+1]-1. The literals of every clause are sorted by their atoms
+ * (a negative literal before the positive one) and duplicate literals are removed, duplicate clauses are detected
+ * by this sorted signature and stored only once. Models are represented as BitSets of the indices of the true atoms.
+ * Only ordinary clauses can be stored (no @atleast, @atmost or @xor constraints).
+ */
+public class GroundCnf {
+
+    private final ValueToIndex<Literal> atoms;
+
+    private int[] arena = new int[1024];
+
+    private int arenaSize = 0;
+
+    private int[] offsets = new int[257];
+
+    private int[] hashes = new int[256];
+
+    private int size = 0;
+
+    //open addressing, indices of the clauses (-1 = empty slot)
+    private int[] table = newTable(512);
+
+    /**
+     * Creates a new instance of class GroundCnf with an empty dictionary of atoms.
+     */
+    public GroundCnf(){
+        this(new ValueToIndex<Literal>(1));
+    }
+
+    /**
+     * Creates a new instance of class GroundCnf which uses the given dictionary of atoms.
+     * @param atoms dictionary of atoms (the indices must be positive), new atoms are added to it
+     */
+    public GroundCnf(ValueToIndex<Literal> atoms){
+        this.atoms = atoms;
+    }
+
+    /**
+     * Adds a ground clause.
+     * @param clause the clause
+     * @return true if the clause was not in the store yet
+     */
+    public boolean addClause(Clause clause){
+        int[] literals = new int[clause.countLiterals()];
+        int i = 0;
+        for (Literal l : clause.literals()){
+            if (l.predicate().startsWith("@") && (l.predicate().equals("@atleast") || l.predicate().equals("@atmost") || l.predicate().equals("@xor"))){
+                throw new IllegalArgumentException("Constraints "+l.predicate()+" cannot be stored in GroundCnf: "+clause);
+            }
+            literals[i++] = l.isNegated() ? -this.atoms.valueToIndex(l.negation()) : this.atoms.valueToIndex(l);
+        }
+        return addClause(literals);
+    }
+
+    /**
+     * Adds a clause given by DIMACS literals (the array is not modified).
+     * @param literals indices of atoms, negative for negated atoms
+     * @return true if the clause was not in the store yet
+     */
+    public boolean addClause(int[] literals){
+        int[] sorted = sortedSignature(literals);
+        int hash = hash(sorted);
+        int mask = this.table.length-1;
+        int slot = hash & mask;
+        while (this.table[slot] != -1){
+            int other = this.table[slot];
+            if (this.hashes[other] == hash && equalsClause(other, sorted)){
+                return false;
+            }
+            slot = (slot+1) & mask;
+        }
+        if (this.arenaSize + sorted.length > this.arena.length){
+            this.arena = Arrays.copyOf(this.arena, Math.max(2*this.arena.length, this.arenaSize + sorted.length));
+        }
+        System.arraycopy(sorted, 0, this.arena, this.arenaSize, sorted.length);
+        this.arenaSize += sorted.length;
+        if (this.size == this.hashes.length){
+            this.hashes = Arrays.copyOf(this.hashes, 2*this.size);
+            this.offsets = Arrays.copyOf(this.offsets, 2*this.size+1);
+        }
+        this.hashes[this.size] = hash;
+        this.offsets[this.size+1] = this.arenaSize;
+        this.table[slot] = this.size;
+        this.size++;
+        if (2*this.size > this.table.length){
+            rehash();
+        }
+        return true;
+    }
+
+    /**
+     * Adds all clauses.
+     * @param clauses the clauses
+     */
+    public void addAll(Collection<Clause> clauses){
+        for (Clause c : clauses){
+            addClause(c);
+        }
+    }
+
+    private int[] sortedSignature(int[] literals){
+        int[] keys = new int[literals.length];
+        for (int i = 0; i < literals.length; i++){
+            int l = literals[i];
+            if (l == 0 || Math.abs(l) > this.atoms.size()){
+                throw new IllegalArgumentException("Unknown atom: "+l);
+            }
+            keys[i] = l > 0 ? 2*l : -2*l-1;
+        }
+        Arrays.sort(keys);
+        int unique = 0;
+        for (int i = 0, previous = 0; i < keys.length; i++){
+            int key = keys[i];
+            if (i == 0 || key != previous){
+                keys[unique++] = (key & 1) == 0 ? key/2 : -(key+1)/2;
+            }
+            previous = key;
+        }
+        return unique == keys.length ? keys : Arrays.copyOf(keys, unique);
+    }
+
+    private static int hash(int[] sorted){
+        int h = 1;
+        for (int l : sorted){
+            h = 31*h + l;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private boolean equalsClause(int index, int[] sorted){
+        int from = this.offsets[index], to = this.offsets[index+1];
+        if (to-from != sorted.length){
+            return false;
+        }
+        for (int i = 0; i < sorted.length; i++){
+            if (this.arena[from+i] != sorted[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash(){
+        this.table = newTable(2*this.table.length);
+        int mask = this.table.length-1;
+        for (int i = 0; i < this.size; i++){
+            int slot = this.hashes[i] & mask;
+            while (this.table[slot] != -1){
+                slot = (slot+1) & mask;
+            }
+            this.table[slot] = i;
+        }
+    }
+
+    private static int[] newTable(int length){
+        int[] table = new int[length];
+        Arrays.fill(table, -1);
+        return table;
+    }
+
+    /**
+     *
+     * @return number of (distinct) clauses
+     */
+    public int size(){
+        return this.size;
+    }
+
+    /**
+     *
+     * @return number of atoms in the dictionary (they need not all appear in the clauses)
+     */
+    public int numAtoms(){
+        return this.atoms.size();
+    }
+
+    /**
+     *
+     * @param index index of the clause
+     * @return number of literals of the clause
+     */
+    public int length(int index){
+        return this.offsets[index+1]-this.offsets[index];
+    }
+
+    /**
+     *
+     * @param index index of the clause
+     * @param position position of the literal in the clause
+     * @return the DIMACS literal
+     */
+    public int literal(int index, int position){
+        return this.arena[this.offsets[index]+position];
+    }
+
+    /**
+     *
+     * @param index index of the clause
+     * @return the clause as a (new) array of DIMACS literals
+     */
+    public int[] clause(int index){
+        return Arrays.copyOfRange(this.arena, this.offsets[index], this.offsets[index+1]);
+    }
+
+    /**
+     *
+     * @param index index of the clause
+     * @return the clause decoded to literals
+     */
+    public Clause toClause(int index){
+        List<Literal> literals = new ArrayList<Literal>(length(index));
+        for (int i = this.offsets[index]; i < this.offsets[index+1]; i++){
+            int l = this.arena[i];
+            literals.add(l > 0 ? this.atoms.indexToValue(l) : this.atoms.indexToValue(-l).negation());
+        }
+        return new Clause(literals);
+    }
+
+    /**
+     *
+     * @return all clauses decoded to literals
+     */
+    public List<Clause> toClauses(){
+        List<Clause> retVal = new ArrayList<Clause>(this.size);
+        for (int i = 0; i < this.size; i++){
+            retVal.add(toClause(i));
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param atom a positive ground literal
+     * @return index of the atom (it is added to the dictionary if it is not there yet)
+     */
+    public int atomIndex(Literal atom){
+        return this.atoms.valueToIndex(atom);
+    }
+
+    /**
+     *
+     * @param index index of an atom
+     * @return the atom
+     */
+    public Literal atom(int index){
+        return this.atoms.indexToValue(index);
+    }
+
+    /**
+     *
+     * @return the dictionary of atoms
+     */
+    public ValueToIndex<Literal> atoms(){
+        return this.atoms;
+    }
+
+    /**
+     *
+     * @param dimacsModel model as returned by SAT solvers (signed indices of atoms)
+     * @return BitSet of the indices of the true atoms
+     */
+    public static BitSet encodeModel(int[] dimacsModel){
+        BitSet retVal = new BitSet();
+        for (int l : dimacsModel){
+            if (l > 0){
+                retVal.set(l);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     *
+     * @param model BitSet of the indices of the true atoms
+     * @return the set of the true atoms
+     */
+    public Set<Literal> decodeModel(BitSet model){
+        Set<Literal> retVal = new HashSet<Literal>();
+        for (int i = model.nextSetBit(0); i >= 0; i = model.nextSetBit(i+1)){
+            retVal.add(this.atoms.indexToValue(i));
+        }
+        return retVal;
+    }
+}
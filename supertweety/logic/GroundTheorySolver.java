@@ -37,9 +37,8 @@ public class GroundTheorySolver {
 
     private List<Pair<Clause,BigInteger>> softClauses = new ArrayList<Pair<Clause,BigInteger>>();
 
-    private List<Clause> hardClauses = new ArrayList<Clause>();
-
-    private List<int[]> hardDimacsClauses;
+    //ordinary hard clauses, they share the dictionary literalsToIndices
+    private GroundCnf hardClauses;
 
     private List<Pair<int[],BigInteger>> softDimacsClauses;
 
@@ -65,8 +64,35 @@ public class GroundTheorySolver {
 
     private WeightedMaxSatDecorator optimizer;
 
+    private boolean contradictionOnLoad = false;
+
     private final static String ATLEAST = "@atleast", ATMOST = "@atmost", XOR = "@xor";
 
+    /**
+     * MaxSAT algorithms used by optimize(): linear search on the objective (Sat4j's WeightedMaxSatDecorator) or
+     * core-guided search with stratification (CoreGuidedMaxSatSolver)
+     */
+    public final static int LINEAR_SEARCH = 1, CORE_GUIDED = 2;
+
+    private int optimizationAlgorithm = LINEAR_SEARCH;
+
+    //if true, optimize() returns the best solution found before the timeout instead of null (only for CORE_GUIDED)
+    private boolean anytime = false;
+
+    private CoreGuidedMaxSatSolver coreGuidedOptimizer;
+
+    //if true, the hard clauses are simplified by CnfPreprocessor before they are given to Sat4j
+    private boolean preprocessing = true;
+
+    //the simplified hard clauses which are (or will be) loaded in the solvers, it is created when it is needed for the first time
+    private CnfPreprocessor preprocessor;
+
+    //true if the live solver was loaded with the simplified clauses (with eliminated variables)
+    private boolean solverSimplified;
+
+    //atoms which are going to be assumed in solve(...), the preprocessing does not eliminate them
+    private Set<Literal> frozenAtoms = new HashSet<Literal>();
+
     public GroundTheorySolver(Collection<Clause> hardClauses){
         this(hardClauses, null, null);
     }
@@ -79,7 +105,28 @@ public class GroundTheorySolver {
         this(hardClauses, null, softClauses);
     }
 
+    /**
+     * Creates a new instance of class GroundTheorySolver for the ordinary ground clauses stored in the given GroundCnf.
+     * The store is used directly (it is not copied) and the clauses added later by addHardClauses(...) are added to it.
+     * @param hardClauses the clauses
+     * @param groundAtoms atoms which should be in the models even though they do not appear in the clauses (may be null)
+     */
+    public GroundTheorySolver(GroundCnf hardClauses, Set<Literal> groundAtoms){
+        this.literalsToIndices = hardClauses.atoms();
+        this.hardClauses = hardClauses;
+        if (groundAtoms != null){
+            for (Literal l : groundAtoms) {
+                this.literalsToIndices.valueToIndex(l);
+            }
+        }
+        this.softDimacsClauses = new ArrayList<Pair<int[],BigInteger>>();
+        this.hardDimacsAtLeastConstraints = new ArrayList<Pair<int[],Integer>>();
+        this.hardDimacsAtMostConstraints = new ArrayList<Pair<int[],Integer>>();
+        this.hardDimacsXorConstraints = new ArrayList<Pair<int[],Boolean>>();
+    }
+
     public GroundTheorySolver(Collection<Clause> hardClauses, Set<Literal> groundAtoms, Collection<Pair<Clause, BigInteger>> softClauses){
+        this.hardClauses = new GroundCnf(this.literalsToIndices);
         Set<String> allPredicates = new HashSet<String>();
         if (softClauses != null) {
             for (Pair<Clause, BigInteger> c : softClauses) {
@@ -87,7 +134,7 @@ public class GroundTheorySolver {
                     literalsToIndices.valueToIndex(literal.isNegated() ? literal.negation() : literal);
                 }
                 if (c.s == null) {
-                    this.hardClauses.add(c.r);
+                    this.hardClauses.addClause(c.r);
                 } else {
                     Set<String> predicates = c.r.predicates();
                     if (predicates.contains(ATLEAST) || predicates.contains(ATMOST)){
@@ -106,10 +153,7 @@ public class GroundTheorySolver {
             } else if (predicates.contains(XOR)) {
                 addXorConstraint(c);
             } else {
-                for (Literal literal : c.literals()) {
-                    literalsToIndices.valueToIndex(literal.isNegated() ? literal.negation() : literal);
-                }
-                this.hardClauses.add(c);
+                this.hardClauses.addClause(c);
             }
         }
         if (groundAtoms != null){
@@ -119,7 +163,6 @@ public class GroundTheorySolver {
         }
         this.hardDimacsAtLeastConstraints = this.toHardDimacsCardinalityConstraints(this.hardAtLeastConstraints);
         this.hardDimacsAtMostConstraints = this.toHardDimacsCardinalityConstraints(this.hardAtMostConstraints);
-        this.hardDimacsClauses = this.toHardDimacsClauses(this.hardClauses);
         this.hardDimacsXorConstraints = this.toHardDimacsXorConstraints(this.hardXorConstraints);
         for (String predicateName : LogicUtils.freshPredicateNames(allPredicates, this.hardXorConstraints.size())){
             Literal auxLit = new Literal(predicateName);
@@ -128,6 +171,64 @@ public class GroundTheorySolver {
         }
     }
 
+    /**
+     * Adds hard clauses to the theory. If the underlying Sat4j instance used by solve(...) already exists, the clauses are
+     * appended to it, so the clauses learned so far (and the phases of the variables) are kept for the next call of solve(...).
+     * The optimizers are rebuilt when optimize() is called next time. XOR constraints cannot be added this way.
+     * @param clauses ground clauses
+     */
+    public void addHardClauses(Collection<Clause> clauses){
+        int numClauses = this.hardClauses.size();
+        List<Literal> newAtLeast = new ArrayList<Literal>(), newAtMost = new ArrayList<Literal>();
+        for (Clause c : clauses) {
+            Set<String> predicates = c.predicates();
+            if (predicates.contains(XOR)) {
+                throw new IllegalArgumentException("XOR constraints cannot be added to an existing GroundTheorySolver.");
+            } else if (predicates.contains(ATLEAST) || predicates.contains(ATMOST)) {
+                int numAtLeast = this.hardAtLeastConstraints.size(), numAtMost = this.hardAtMostConstraints.size();
+                addCardinalityConstraint(c);
+                newAtLeast.addAll(this.hardAtLeastConstraints.subList(numAtLeast, this.hardAtLeastConstraints.size()));
+                newAtMost.addAll(this.hardAtMostConstraints.subList(numAtMost, this.hardAtMostConstraints.size()));
+            } else {
+                this.hardClauses.addClause(c);
+            }
+        }
+        List<Pair<int[],Integer>> newDimacsAtLeast = this.toHardDimacsCardinalityConstraints(newAtLeast);
+        List<Pair<int[],Integer>> newDimacsAtMost = this.toHardDimacsCardinalityConstraints(newAtMost);
+        this.hardDimacsAtLeastConstraints.addAll(newDimacsAtLeast);
+        this.hardDimacsAtMostConstraints.addAll(newDimacsAtMost);
+        this.optimizer = null;
+        this.coreGuidedOptimizer = null;
+        //the new clauses (and the clauses of the eliminated variables which appear in the new constraints) for the preprocessed instances
+        List<int[]> newDimacsClauses = new ArrayList<int[]>();
+        if (this.preprocessor != null){
+            for (int i = numClauses; i < this.hardClauses.size(); i++) {
+                newDimacsClauses.addAll(this.preprocessor.addClause(this.hardClauses.clause(i)));
+            }
+            for (Pair<int[], Integer> constraint : Sugar.union(newDimacsAtLeast, newDimacsAtMost)) {
+                for (int var : constraint.r){
+                    newDimacsClauses.addAll(this.preprocessor.melt(var));
+                }
+            }
+        }
+        if (this.solver != null && !this.contradictionOnLoad){
+            this.solver.newVar(this.literalsToIndices.size());
+            try {
+                for (int[] clause : newDimacsClauses) {
+                    this.solver.addClause(new VecInt(clause));
+                }
+                for (Pair<int[], Integer> atleast : newDimacsAtLeast) {
+                    this.solver.addAtLeast(new VecInt(atleast.r), atleast.s);
+                }
+                for (Pair<int[], Integer> atmost : newDimacsAtMost) {
+                    this.solver.addAtMost(new VecInt(atmost.r), atmost.s);
+                }
+            } catch (ContradictionException ce){
+                this.contradictionOnLoad = true;
+            }
+        }
+    }
+
     private void addCardinalityConstraint(Clause cardinalityConstraint){
         if (cardinalityConstraint.literals().size() > 1){
             throw new IllegalArgumentException("The predicateNames @atmost and @atleast can only be used on their own. Specifically they cannot be used in clauses containing anything else, at least in this version...");
@@ -151,45 +252,47 @@ public class GroundTheorySolver {
 
 
     public Set<Literal> solve(){
+        return solve(Sugar.<Literal>list());
+    }
+
+    /**
+     * Solves the ground theory under the given assumptions. The underlying Sat4j instance is kept alive
+     * between calls, so clauses learned while answering one call are reused in the next one.
+     * Assumptions on atoms which do not appear in the theory are not passed to the solver,
+     * the positive ones are just copied to the returned model.
+     * @param assumptions ground literals which must be true in the returned model
+     * @return a model of the theory consistent with the assumptions or null if there is none
+     */
+    public Set<Literal> solve(Collection<Literal> assumptions){
         try {
             if (this.solver == null) {
-                this.solver = new GateTranslator(SolverFactory.newDefault());
-                //this.solver = SolverFactory.newMiniLearningHeap();
-                this.solver.newVar(this.literalsToIndices.size());
-                this.solver.setExpectedNumberOfClauses(hardClauses.size() + softClauses.size() + hardXorConstraints.size() + hardAtLeastConstraints.size() + hardAtMostConstraints.size());
-                try {
-                    for (int[] clause : hardDimacsClauses) {
-                        this.solver.addClause(new VecInt(clause));
-                    }
-                    for (Pair<int[], Integer> atleast : this.hardDimacsAtLeastConstraints) {
-                        this.solver.addAtLeast(new VecInt(atleast.r), atleast.s);
-                    }
-                    for (Pair<int[], Integer> atmost : this.hardDimacsAtMostConstraints) {
-                        this.solver.addAtMost(new VecInt(atmost.r), atmost.s);
-                    }
-                    int xorIndex = 0;
-                    for (Pair<int[], Boolean> xor : this.hardDimacsXorConstraints) {
-                        int auxLitIndex = this.literalsToIndices.valueToIndex(auxXorLiterals.get(xorIndex));
-                        this.solver.xor(auxLitIndex, new VecInt(xor.r));
-                        this.solver.addClause(new VecInt(new int[]{xor.s ? auxLitIndex : -auxLitIndex}));
-                        xorIndex++;
+                this.contradictionOnLoad = !initSolver();
+            }
+            if (this.contradictionOnLoad) {
+                return null;
+            }
+            VecInt dimacsAssumptions = new VecInt(assumptions.size());
+            Set<Literal> assumedOutside = new HashSet<Literal>();
+            for (Literal l : assumptions){
+                Literal atom = l.isNegated() ? l.negation() : l;
+                if (this.literalsToIndices.containsValue(atom)){
+                    int index = this.literalsToIndices.valueToIndex(atom);
+                    if (this.preprocessor.isEliminated(index) && !addRestoredClauses(this.preprocessor.melt(index))){
+                        return null;
                     }
-                } catch (ContradictionException ce){
+                    dimacsAssumptions.push(l.isNegated() ? -index : index);
+                } else if (assumedOutside.contains(l.negation())){
                     return null;
+                } else {
+                    assumedOutside.add(l);
                 }
             }
-
             IProblem problem = this.solver;
-            Set<Literal> auxLiteralsSet = Sugar.setFromCollections(this.auxXorLiterals);
-            if (problem.isSatisfiable()) {
-                int[] model = problem.model();
-                Set<Literal> solution = new HashSet<Literal>();
-                for (int i : model){
-                    if (i > 0){
-                        Literal l = literalsToIndices.indexToValue(i);
-                        if (!auxLiteralsSet.contains(l)) {
-                            solution.add(l);
-                        }
+            if (problem.isSatisfiable(dimacsAssumptions)) {
+                Set<Literal> solution = decodeModel(problem.model());
+                for (Literal l : assumedOutside){
+                    if (!l.isNegated()){
+                        solution.add(l);
                     }
                 }
                 return solution;
@@ -201,16 +304,91 @@ public class GroundTheorySolver {
         }
     }
 
+    /**
+     * Solves the ground theory. The model is returned encoded as a BitSet of the indices of the true atoms in the dictionary
+     * of hardCnf() (it can be decoded by hardCnf().decodeModel(...)).
+     * @return the model or null if there is none
+     */
+    public BitSet solveEncoded(){
+        try {
+            if (this.solver == null) {
+                this.contradictionOnLoad = !initSolver();
+            }
+            if (this.contradictionOnLoad || !this.solver.isSatisfiable()) {
+                return null;
+            }
+            boolean[] values = extendModel(this.solver.model());
+            BitSet model = new BitSet(values.length);
+            for (int i = 1; i < values.length; i++){
+                if (values[i]){
+                    model.set(i);
+                }
+            }
+            for (Literal auxLiteral : this.auxXorLiterals){
+                model.clear(this.literalsToIndices.valueToIndex(auxLiteral));
+            }
+            return model;
+        } catch (TimeoutException e){
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private boolean initSolver(){
+        this.solver = new GateTranslator(SolverFactory.newDefault());
+        //this.solver = SolverFactory.newMiniLearningHeap();
+        this.solver.newVar(this.literalsToIndices.size());
+        this.solverSimplified = this.preprocessing;
+        CnfPreprocessor preprocessor = preprocessor(true);
+        if (preprocessor.isContradiction()){
+            return false;
+        }
+        this.solver.setExpectedNumberOfClauses(preprocessor.clauses().size() + softClauses.size() + hardXorConstraints.size() + hardAtLeastConstraints.size() + hardAtMostConstraints.size());
+        try {
+            for (int[] clause : preprocessor.clauses()) {
+                this.solver.addClause(new VecInt(clause));
+            }
+            for (Pair<int[], Integer> atleast : this.hardDimacsAtLeastConstraints) {
+                this.solver.addAtLeast(new VecInt(atleast.r), atleast.s);
+            }
+            for (Pair<int[], Integer> atmost : this.hardDimacsAtMostConstraints) {
+                this.solver.addAtMost(new VecInt(atmost.r), atmost.s);
+            }
+            int xorIndex = 0;
+            for (Pair<int[], Boolean> xor : this.hardDimacsXorConstraints) {
+                int auxLitIndex = this.literalsToIndices.valueToIndex(auxXorLiterals.get(xorIndex));
+                this.solver.xor(auxLitIndex, new VecInt(xor.r));
+                this.solver.addClause(new VecInt(new int[]{xor.s ? auxLitIndex : -auxLitIndex}));
+                xorIndex++;
+            }
+        } catch (ContradictionException ce){
+            return false;
+        }
+        return true;
+    }
+
     public List<Set<Literal>> solveAll(int numSolutions){
         List<Set<Literal>> retVal = new ArrayList<Set<Literal>>();
         try {
+            //the simplified clauses of solve(...) need not contain all atoms (and some of them may be eliminated),
+            //so the solver is rebuilt from the clauses in which no variables are eliminated
+            if (this.solver != null && this.solverSimplified){
+                this.solver = null;
+                this.contradictionOnLoad = false;
+            }
             if (this.solver == null) {
                 this.solver = new GateTranslator(SolverFactory.newDefault());
                 //this.solver = SolverFactory.newMiniLearningHeap();
                 this.solver.newVar(this.literalsToIndices.size());
-                this.solver.setExpectedNumberOfClauses(hardClauses.size() + softClauses.size());
+                this.solverSimplified = false;
+                CnfPreprocessor preprocessor = preprocessor(false);
+                if (preprocessor.isContradiction()){
+                    this.contradictionOnLoad = true;
+                    return retVal;
+                }
+                this.solver.setExpectedNumberOfClauses(preprocessor.clauses().size() + softClauses.size());
                 try {
-                    for (int[] clause : hardDimacsClauses) {
+                    for (int[] clause : preprocessor.clauses()) {
                         this.solver.addClause(new VecInt(clause));
                     }
                     for (Pair<int[], Integer> atleast : this.hardDimacsAtLeastConstraints) {
@@ -236,21 +414,13 @@ public class GroundTheorySolver {
                 }
             }
 
+            if (this.contradictionOnLoad){
+                return retVal;
+            }
             IProblem problem = new ModelIterator(this.solver);
-            Set<Literal> auxLiteralsSet = Sugar.setFromCollections(this.auxXorLiterals);
             int num = 0;
             while (problem.isSatisfiable() && (numSolutions < 0 || num < numSolutions)) {
-                int[] model = problem.model();
-                Set<Literal> solution = new HashSet<Literal>();
-                for (int i : model){
-                    if (i > 0){
-                        Literal l = literalsToIndices.indexToValue(i);
-                        if (!auxLiteralsSet.contains(l)) {
-                            solution.add(l);
-                        }
-                    }
-                }
-                retVal.add(solution);
+                retVal.add(decodeModel(problem.model()));
                 num++;
             }
             return retVal;
@@ -265,6 +435,9 @@ public class GroundTheorySolver {
     }
 
     public Set<Literal> optimize(){
+        if (this.optimizationAlgorithm == CORE_GUIDED){
+            return optimizeCoreGuided();
+        }
         try {
             if (this.optimizer == null) {
                 this.optimizer = new WeightedMaxSatDecorator(org.sat4j.pb.SolverFactory.newDefaultOptimizer());
@@ -280,10 +453,12 @@ public class GroundTheorySolver {
                     this.optimizer.setTopWeight(maxWeight.add(BigInteger.ONE));
                 }
                 this.optimizer.setTimeoutMs(optimizationTimeout);
-                if (this.hardDimacsClauses != null) {
-                    for (int[] clause : hardDimacsClauses) {
-                        this.optimizer.addHardClause(new VecInt(clause));
-                    }
+                CnfPreprocessor preprocessor = preprocessor(true);
+                if (preprocessor.isContradiction()){
+                    return null;
+                }
+                for (int[] clause : preprocessor.clauses()) {
+                    this.optimizer.addHardClause(new VecInt(clause));
                 }
 
                 if (this.softDimacsClauses != null) {
@@ -293,16 +468,7 @@ public class GroundTheorySolver {
                 }
             }
             if (this.optimizer.isSatisfiable()) {
-                int[] model;// = solver.model();
-                Set<Literal> solution = new HashSet<Literal>();
-                model = this.optimizer.model();
-
-                for (int i : model) {
-                    if (i > 0) {
-                        solution.add(literalsToIndices.indexToValue(i));
-                    }
-                }
-                return solution;
+                return decodeModel(this.optimizer.model());
             }
         } catch (Exception e){
             return null;
@@ -310,6 +476,117 @@ public class GroundTheorySolver {
         return null;
     }
 
+    private Set<Literal> optimizeCoreGuided(){
+        if (this.coreGuidedOptimizer == null){
+            CnfPreprocessor preprocessor = preprocessor(true);
+            if (preprocessor.isContradiction()){
+                return null;
+            }
+            this.coreGuidedOptimizer = new CoreGuidedMaxSatSolver(this.literalsToIndices.size());
+            for (int[] clause : preprocessor.clauses()) {
+                this.coreGuidedOptimizer.addHardClause(clause);
+            }
+            for (Pair<int[], Integer> atleast : this.hardDimacsAtLeastConstraints) {
+                this.coreGuidedOptimizer.addAtLeast(atleast.r, atleast.s);
+            }
+            for (Pair<int[], Integer> atmost : this.hardDimacsAtMostConstraints) {
+                this.coreGuidedOptimizer.addAtMost(atmost.r, atmost.s);
+            }
+            for (Pair<int[], BigInteger> clause : this.softDimacsClauses) {
+                this.coreGuidedOptimizer.addSoftClause(clause.r, clause.s);
+            }
+        }
+        this.coreGuidedOptimizer.setTimeout(this.optimizationTimeout);
+        int[] model = this.coreGuidedOptimizer.optimize();
+        if (model == null || (!this.anytime && !this.coreGuidedOptimizer.isOptimal())){
+            return null;
+        }
+        return decodeModel(model);
+    }
+
+    private CnfPreprocessor preprocessor(boolean eliminate){
+        if (this.preprocessor == null){
+            //the variables constrained by something else than the hard clauses cannot be eliminated
+            Set<Integer> frozen = new HashSet<Integer>();
+            if (this.softDimacsClauses != null) {
+                for (Pair<int[], BigInteger> softClause : this.softDimacsClauses) {
+                    for (int l : softClause.r) {
+                        frozen.add(Math.abs(l));
+                    }
+                }
+            }
+            for (Pair<int[], Integer> constraint : Sugar.union(this.hardDimacsAtLeastConstraints, this.hardDimacsAtMostConstraints)){
+                for (int l : constraint.r){
+                    frozen.add(Math.abs(l));
+                }
+            }
+            for (Pair<int[], Boolean> xor : this.hardDimacsXorConstraints){
+                for (int l : xor.r){
+                    frozen.add(Math.abs(l));
+                }
+            }
+            for (Literal auxLiteral : this.auxXorLiterals){
+                frozen.add(this.literalsToIndices.valueToIndex(auxLiteral));
+            }
+            for (Literal atom : this.frozenAtoms){
+                if (this.literalsToIndices.containsValue(atom)){
+                    frozen.add(this.literalsToIndices.valueToIndex(atom));
+                }
+            }
+            this.preprocessor = new CnfPreprocessor(this.hardClauses, frozen, this.preprocessing, eliminate);
+        } else if (!eliminate && this.preprocessor.numEliminated() > 0){
+            this.optimizer = null;
+            this.coreGuidedOptimizer = null;
+            this.preprocessor.meltAll();
+        }
+        return this.preprocessor;
+    }
+
+    //adds the clauses of melted variables to the live Sat4j instance, returns false if a contradiction is detected
+    private boolean addRestoredClauses(List<int[]> clauses){
+        //the models of the optimizers would be extended without the melted variables
+        this.optimizer = null;
+        this.coreGuidedOptimizer = null;
+        try {
+            for (int[] clause : clauses){
+                this.solver.addClause(new VecInt(clause));
+            }
+            return true;
+        } catch (ContradictionException ce){
+            this.contradictionOnLoad = true;
+            return false;
+        }
+    }
+
+    //the values of all atoms (including the eliminated ones) given a model of the preprocessed clauses
+    private boolean[] extendModel(int[] model){
+        boolean[] values = new boolean[this.literalsToIndices.size()+1];
+        for (int i : model){
+            if (i > 0 && i < values.length){
+                values[i] = true;
+            }
+        }
+        if (this.preprocessor != null){
+            this.preprocessor.extendModel(values);
+        }
+        return values;
+    }
+
+    private Set<Literal> decodeModel(int[] model){
+        boolean[] values = extendModel(model);
+        Set<Literal> auxLiteralsSet = Sugar.setFromCollections(this.auxXorLiterals);
+        Set<Literal> solution = new HashSet<Literal>();
+        for (int i = 1; i < values.length; i++){
+            if (values[i]){
+                Literal l = literalsToIndices.indexToValue(i);
+                if (!auxLiteralsSet.contains(l)) {
+                    solution.add(l);
+                }
+            }
+        }
+        return solution;
+    }
+
     private List<Pair<int[],BigInteger>> toSoftDimacsClauses(Collection<Pair<Clause, BigInteger>> program){
         List<Pair<int[],BigInteger>> retVal = new ArrayList<Pair<int[],BigInteger>>();
         for (Pair<Clause,BigInteger> c : program) {
@@ -363,29 +640,19 @@ public class GroundTheorySolver {
         return xor;
     }
 
-    private List<int[]> toHardDimacsClauses(List<Clause> program){
-        List<int[]> retVal = new ArrayList<int[]>();
-        for (Clause c : program) {
-            retVal.add(this.toHardDimacsClause(c));
-        }
-        return retVal;
-    }
-
-    private int[] toHardDimacsClause(Clause c){
-        int[] hardDimacsClause = new int[c.literals().size()];
-        int i = 0;
-        for (Literal l : c.literals()){
-            if (l.isNegated()){
-                hardDimacsClause[i] = -literalsToIndices.valueToIndex(l.negation());
-            } else {
-                hardDimacsClause[i] = literalsToIndices.valueToIndex(l);
-            }
-            i++;
-        }
-        return hardDimacsClause;
+    /**
+     *
+     * @return the ordinary hard clauses (decoded from the compact store, duplicates are not included)
+     */
+    public List<Clause> hardRules(){
+        return this.hardClauses.toClauses();
     }
 
-    public List<Clause> hardRules(){
+    /**
+     *
+     * @return the compact store of the ordinary hard clauses (its dictionary of atoms is the one used by this solver)
+     */
+    public GroundCnf hardCnf(){
         return this.hardClauses;
     }
 
@@ -466,7 +733,59 @@ public class GroundTheorySolver {
         System.out.println(gts.solveAll());
     }
 
+    /**
+     * Marks atoms which are going to appear in the assumptions of solve(...) (e.g. selector atoms guarding groups of clauses).
+     * The preprocessing does not eliminate them, otherwise they would be eliminated (typically as pure literals together with
+     * all the clauses they guard) and then restored with their clauses when they are assumed for the first time.
+     * @param atoms the atoms (negated literals are replaced by their atoms)
+     */
+    public void freeze(Collection<Literal> atoms){
+        for (Literal l : atoms){
+            Literal atom = l.isNegated() ? l.negation() : l;
+            this.frozenAtoms.add(atom);
+            if (this.preprocessor != null && this.literalsToIndices.containsValue(atom)){
+                List<int[]> restored = this.preprocessor.melt(this.literalsToIndices.valueToIndex(atom));
+                if (!restored.isEmpty()){
+                    if (this.solver != null && !this.contradictionOnLoad){
+                        addRestoredClauses(restored);
+                    } else {
+                        this.optimizer = null;
+                        this.coreGuidedOptimizer = null;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     *
+     * @param preprocessing if true (default), the hard clauses are simplified by CnfPreprocessor (unit propagation,
+     *                      subsumption, self-subsuming resolution and, where the models are not enumerated, elimination of
+     *                      pure literals and bounded variable elimination) before they are given to Sat4j; it must be set
+     *                      before the first call of solve(...), solveAll(...) or optimize()
+     */
+    public void setPreprocessing(boolean preprocessing) {
+        this.preprocessing = preprocessing;
+    }
+
     public void setOptimizationTimeout(int optimizationTimeout) {
         this.optimizationTimeout = optimizationTimeout;
     }
+
+    /**
+     *
+     * @param optimizationAlgorithm the MaxSAT algorithm used by optimize(), either LINEAR_SEARCH (default) or CORE_GUIDED
+     */
+    public void setOptimizationAlgorithm(int optimizationAlgorithm) {
+        this.optimizationAlgorithm = optimizationAlgorithm;
+    }
+
+    /**
+     *
+     * @param anytime if true, optimize() returns the best solution found within the optimization timeout when the optimality
+     *                could not be proved (only for CORE_GUIDED), otherwise it returns null in this case
+     */
+    public void setAnytime(boolean anytime) {
+        this.anytime = anytime;
+    }
 }
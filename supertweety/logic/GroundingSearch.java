@@ -0,0 +1,189 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic;
+
+import ida.ilp.logic.*;
+import ida.ilp.logic.subsumption.Matching;
+import ida.ilp.logic.subsumption.SpecialBinaryPredicates;
+import ida.ilp.logic.subsumption.SpecialVarargPredicates;
+import ida.utils.WorkerPool;
+import ida.utils.tuples.Pair;
+import ida.utils.tuples.Triple;
+
+import java.util.*;
+
+/**
+ * Finds the groundings of several rules given by the solutions of queries in one example (typically the violated groundings
+ * of rules in a possible world, the query being the rule with flipped signs). The searches for the individual rules run in
+ * parallel against the shared compiled example (a Matching object can be used by several threads at once). When there are
+ * only a few rules, the search for each of them is further split by the values of the first variable of the query which
+ * appears in a (non-special) positive literal. The results are merged in the order of the rules and of the values, so they
+ * do not depend on the scheduling of the tasks.
+ */
+public class GroundingSearch {
+
+    private final Matching matching;
+
+    private final Collection<Literal> example;
+
+    private int parallelism = WorkerPool.parallelism();
+
+    private boolean splitting = true;
+
+    //(predicate, arity, argument) -> sorted values of the argument in the positive literals of the example
+    private Map<Triple<String,Integer,Integer>,Term[]> domains;
+
+    /**
+     * Creates a new instance of class GroundingSearch
+     * @param matching matching object with the example as its only example (index 0)
+     * @param example literals of the example, they are used for splitting the searches by the values of variables
+     */
+    public GroundingSearch(Matching matching, Collection<Literal> example){
+        this.matching = matching;
+        this.example = example;
+    }
+
+    /**
+     * Computes the groundings.
+     * @param rules the rules
+     * @param queries queries.get(i) is the query whose solutions give the groundings of rules.get(i), it must contain
+     *                all variables of the rule
+     * @return list whose i-th element is the list of groundings of rules.get(i)
+     */
+    public List<List<Clause>> groundings(List<Clause> rules, List<Clause> queries){
+        final int n = rules.size();
+        List<List<Clause>> retVal = new ArrayList<List<Clause>>(n);
+        if (this.parallelism <= 1 || n == 0){
+            for (int i = 0; i < n; i++){
+                retVal.add(groundings(rules.get(i), queries.get(i), null, null));
+            }
+            return retVal;
+        }
+        int chunks = this.splitting && n < 4*this.parallelism ? (4*this.parallelism+n-1)/n : 1;
+        List<List<List<Clause>>> parts = new ArrayList<List<List<Clause>>>(n);
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < n; i++){
+            final Clause rule = rules.get(i);
+            final Clause query = queries.get(i);
+            Pair<Variable,Term[]> split = chunks > 1 ? splitVariable(query) : null;
+            int k = split == null ? 1 : Math.min(chunks, split.s.length);
+            final List<List<Clause>> ruleParts = new ArrayList<List<Clause>>(Collections.<List<Clause>>nCopies(k, null));
+            parts.add(ruleParts);
+            for (int j = 0; j < k; j++){
+                final int index = j;
+                final Variable variable = k > 1 ? split.r : null;
+                final Term[] values = k > 1 ? Arrays.copyOfRange(split.s, j*split.s.length/k, (j+1)*split.s.length/k) : null;
+                tasks.add(new Runnable() {
+                    @Override
+                    public void run() {
+                        ruleParts.set(index, groundings(rule, query, variable, values));
+                    }
+                });
+            }
+        }
+        WorkerPool.invokeAll(tasks, this.parallelism);
+        for (List<List<Clause>> ruleParts : parts){
+            if (ruleParts.size() == 1){
+                retVal.add(ruleParts.get(0));
+            } else {
+                List<Clause> merged = new ArrayList<Clause>();
+                for (List<Clause> part : ruleParts){
+                    merged.addAll(part);
+                }
+                retVal.add(merged);
+            }
+        }
+        return retVal;
+    }
+
+    private List<Clause> groundings(Clause rule, Clause query, Variable variable, Term[] values){
+        List<Clause> retVal = new ArrayList<Clause>();
+        if (variable == null){
+            Pair<Term[], List<Term[]>> substitutions = this.matching.allSubstitutions(query, 0, Integer.MAX_VALUE);
+            for (Term[] subs : substitutions.s) {
+                retVal.add(LogicUtils.substitute(rule, substitutions.r, subs));
+            }
+        } else {
+            for (Term value : values){
+                Clause seededRule = LogicUtils.substitute(rule, variable, value);
+                Pair<Term[], List<Term[]>> substitutions = this.matching.allSubstitutions(LogicUtils.substitute(query, variable, value), 0, Integer.MAX_VALUE);
+                for (Term[] subs : substitutions.s) {
+                    retVal.add(LogicUtils.substitute(seededRule, substitutions.r, subs));
+                }
+            }
+        }
+        return retVal;
+    }
+
+    //the first variable in a positive literal of the query and the values it can take (every solution maps it to one of them)
+    private Pair<Variable,Term[]> splitVariable(Clause query){
+        for (Literal l : query.literals()){
+            if (l.isNegated() || SpecialBinaryPredicates.SPECIAL_PREDICATES.contains(l.predicate()) || SpecialVarargPredicates.SPECIAL_PREDICATES.contains(l.predicate())){
+                continue;
+            }
+            for (int i = 0; i < l.arity(); i++){
+                if (l.get(i) instanceof Variable){
+                    return new Pair<Variable,Term[]>((Variable)l.get(i), domain(l.predicate(), l.arity(), i));
+                }
+            }
+        }
+        return null;
+    }
+
+    private Term[] domain(String predicate, int arity, int argument){
+        if (this.domains == null){
+            Map<Triple<String,Integer,Integer>,Set<Term>> sets = new HashMap<Triple<String,Integer,Integer>,Set<Term>>();
+            for (Literal l : this.example){
+                if (l.isNegated()){
+                    continue;
+                }
+                for (int i = 0; i < l.arity(); i++){
+                    Triple<String,Integer,Integer> key = new Triple<String,Integer,Integer>(l.predicate(), l.arity(), i);
+                    Set<Term> set = sets.get(key);
+                    if (set == null){
+                        sets.put(key, set = new HashSet<Term>());
+                    }
+                    set.add(l.get(i));
+                }
+            }
+            this.domains = new HashMap<Triple<String,Integer,Integer>,Term[]>();
+            for (Map.Entry<Triple<String,Integer,Integer>,Set<Term>> entry : sets.entrySet()){
+                Term[] values = entry.getValue().toArray(new Term[entry.getValue().size()]);
+                Arrays.sort(values, new Comparator<Term>() {
+                    @Override
+                    public int compare(Term o1, Term o2) {
+                        return o1.toString().compareTo(o2.toString());
+                    }
+                });
+                this.domains.put(entry.getKey(), values);
+            }
+        }
+        Term[] values = this.domains.get(new Triple<String,Integer,Integer>(predicate, arity, argument));
+        return values == null ? new Term[0] : values;
+    }
+
+    /**
+     * Sets the maximum number of searches which run at the same time.
+     * @param parallelism maximum number of searches running in parallel
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets whether the searches may be split by the values of variables. Splitting is correct only for theta-subsumption
+     * (under object identity the substituted value could be taken by another variable of the query).
+     * @param splitting true if the searches may be split
+     */
+    public void setSplitting(boolean splitting){
+        this.splitting = splitting;
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.utils.tuples.Pair;
+import org.sat4j.core.Vec;
+import org.sat4j.core.VecInt;
+import org.sat4j.pb.IPBSolver;
+import org.sat4j.pb.SolverFactory;
+import org.sat4j.specs.ContradictionException;
+import org.sat4j.specs.IVec;
+import org.sat4j.specs.TimeoutException;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Weighted MaxSAT session for ground theories which grow over time, e.g. in cutting-plane MAP inference.
+ * All clauses stay in one Sat4j instance, so only the newly added clauses need to be translated and
+ * the clauses learned in previous calls of optimize are reused. Soft clauses are relaxed by fresh variables
+ * and the optimum is found by a linear search (SAT-UNSAT) over the sum of weights of the relaxed clauses. The bounds
+ * used by the search are guarded by selector variables and enabled only through assumptions, so that they
+ * do not constrain the later calls, in which the objective function contains more clauses.
+ *
+ * Soft clauses with negative weights are penalized when they are true. Cardinality and xor constraints
+ * are not supported.
+ */
+public class IncrementalMaxSatSolver {
+
+    private IPBSolver solver = SolverFactory.newDefault();
+
+    private Map<Literal,Integer> atomsToVariables = new HashMap<Literal,Integer>();
+
+    private Map<Integer,Literal> variablesToAtoms = new HashMap<Integer,Literal>();
+
+    private int numVariables = 0;
+
+    private List<int[]> hardDimacsClauses = new ArrayList<int[]>();
+
+    private List<Pair<int[],BigInteger>> softDimacsClauses = new ArrayList<Pair<int[],BigInteger>>();
+
+    //objective: sum of weights of the true relaxation variables
+    private VecInt relaxationVariables = new VecInt();
+
+    private List<BigInteger> relaxationWeights = new ArrayList<BigInteger>();
+
+    private BigInteger sumOfWeights = BigInteger.ZERO;
+
+    private boolean contradiction = false;
+
+    private int optimizationTimeout = Integer.MAX_VALUE;
+
+    public IncrementalMaxSatSolver(){}
+
+    public IncrementalMaxSatSolver(Collection<Clause> hardClauses, Collection<Pair<Clause,BigInteger>> softClauses){
+        this.addHardClauses(hardClauses);
+        this.addClauses(softClauses);
+    }
+
+    public void addHardClauses(Collection<Clause> hardClauses){
+        for (Clause c : hardClauses){
+            this.addHardClause(c);
+        }
+    }
+
+    /**
+     * Adds weighted clauses, the clauses with weight null are added as hard clauses.
+     * @param clauses pairs: ground clause, weight
+     */
+    public void addClauses(Collection<Pair<Clause,BigInteger>> clauses){
+        for (Pair<Clause,BigInteger> c : clauses){
+            if (c.s == null){
+                this.addHardClause(c.r);
+            } else {
+                this.addSoftClause(c.r, c.s);
+            }
+        }
+    }
+
+    public void addHardClause(Clause c){
+        int[] clause = toDimacs(c);
+        this.hardDimacsClauses.add(clause);
+        this.addClause(clause);
+    }
+
+    public void addSoftClause(Clause c, BigInteger weight){
+        int[] clause = toDimacs(c);
+        if (weight.signum() == 0){
+            return;
+        }
+        this.softDimacsClauses.add(new Pair<int[],BigInteger>(clause, weight));
+        int relaxation = newVariable();
+        if (weight.signum() > 0){
+            //clause or relaxation
+            int[] relaxed = Arrays.copyOf(clause, clause.length+1);
+            relaxed[clause.length] = relaxation;
+            this.addClause(relaxed);
+        } else {
+            //the clause is penalized when it is true: literal implies relaxation
+            for (int literal : clause){
+                this.addClause(new int[]{-literal, relaxation});
+            }
+        }
+        this.relaxationVariables.push(relaxation);
+        this.relaxationWeights.add(weight.abs());
+        this.sumOfWeights = this.sumOfWeights.add(weight.abs());
+    }
+
+    /**
+     * Finds an optimal solution of the theory.
+     * @return the set of true atoms in the optimal solution or null if the hard clauses are inconsistent or if no solution
+     * has been found within the timeout
+     */
+    public Set<Literal> optimize(){
+        return optimize(null);
+    }
+
+    /**
+     * Finds an optimal solution of the theory, starting from a known (typically the previous) solution. The cost of the known solution
+     * is used as the initial upper bound, so when it is still optimal, it is enough to prove that there is nothing better. When the timeout is
+     * reached, the best solution found so far is returned.
+     * @param incumbent set of true atoms of a known solution (the atoms not contained in it are false), may be null
+     * @return the set of true atoms in the optimal solution or null if the hard clauses are inconsistent or if no solution
+     * has been found within the timeout
+     */
+    public Set<Literal> optimize(Set<Literal> incumbent){
+        if (this.contradiction){
+            return null;
+        }
+        long deadline = this.optimizationTimeout == Integer.MAX_VALUE ? Long.MAX_VALUE : System.currentTimeMillis()+this.optimizationTimeout;
+        Set<Literal> best = null;
+        BigInteger upperBound = null;
+        if (incumbent != null && (upperBound = cost(incumbent)) != null){
+            best = new HashSet<Literal>();
+            for (Literal l : incumbent){
+                if (!l.isNegated() && this.atomsToVariables.containsKey(l)){
+                    best.add(l);
+                }
+            }
+        }
+        try {
+            while (upperBound == null || upperBound.signum() > 0){
+                long remaining = deadline == Long.MAX_VALUE ? Integer.MAX_VALUE : deadline-System.currentTimeMillis();
+                if (remaining <= 0){
+                    break;
+                }
+                VecInt assumptions = new VecInt();
+                int selector = 0;
+                if (upperBound != null){
+                    selector = addGuardedBound(upperBound.subtract(BigInteger.ONE));
+                    if (selector != 0){
+                        assumptions.push(selector);
+                    }
+                }
+                this.solver.setTimeoutMs(remaining);
+                boolean satisfiable;
+                try {
+                    satisfiable = this.solver.isSatisfiable(assumptions);
+                } finally {
+                    if (selector != 0){
+                        //the bound is relative to the current objective, it must not restrict any later calls
+                        this.addClause(new int[]{-selector});
+                    }
+                }
+                if (!satisfiable){
+                    if (upperBound == null){
+                        //the hard clauses alone are inconsistent
+                        this.contradiction = true;
+                    }
+                    break;
+                }
+                best = modelToAtoms(this.solver.model());
+                upperBound = cost(best);
+            }
+        } catch (TimeoutException te){
+            //we return the best solution found so far
+        }
+        if (this.contradiction){
+            return null;
+        }
+        return best;
+    }
+
+    /**
+     * Computes the sum of weights of the soft clauses violated by the given solution.
+     * @param solution set of true atoms (the atoms not contained in it are false)
+     * @return the cost or null if the solution violates some of the hard clauses
+     */
+    public BigInteger cost(Set<Literal> solution){
+        for (int[] clause : this.hardDimacsClauses){
+            if (!isTrue(clause, solution)){
+                return null;
+            }
+        }
+        BigInteger cost = BigInteger.ZERO;
+        for (Pair<int[],BigInteger> clause : this.softDimacsClauses){
+            if (clause.s.signum() > 0 ? !isTrue(clause.r, solution) : isTrue(clause.r, solution)){
+                cost = cost.add(clause.s.abs());
+            }
+        }
+        return cost;
+    }
+
+    private boolean isTrue(int[] clause, Set<Literal> solution){
+        for (int literal : clause){
+            if ((literal > 0) == solution.contains(this.variablesToAtoms.get(Math.abs(literal)))){
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //adds constraint "sum of weights of true relaxation variables <= bound" which is enforced only when the returned selector is true, returns 0 if the bound is trivially satisfied
+    private int addGuardedBound(BigInteger bound){
+        BigInteger slack = this.sumOfWeights.subtract(bound);
+        if (slack.signum() <= 0){
+            return 0;
+        }
+        int selector = newVariable();
+        VecInt literals = new VecInt(this.relaxationVariables.size()+1);
+        IVec<BigInteger> coefficients = new Vec<BigInteger>(this.relaxationVariables.size()+1);
+        for (int i = 0; i < this.relaxationVariables.size(); i++){
+            literals.push(this.relaxationVariables.get(i));
+            coefficients.push(this.relaxationWeights.get(i));
+        }
+        literals.push(selector);
+        coefficients.push(slack);
+        try {
+            this.solver.addAtMost(literals, coefficients, this.sumOfWeights);
+        } catch (ContradictionException e){
+            //cannot happen, the constraint is satisfied by setting the selector to false
+            throw new IllegalStateException(e);
+        }
+        return selector;
+    }
+
+    private Set<Literal> modelToAtoms(int[] model){
+        Set<Literal> retVal = new HashSet<Literal>();
+        for (int i : model){
+            Literal atom;
+            if (i > 0 && (atom = this.variablesToAtoms.get(i)) != null){
+                retVal.add(atom);
+            }
+        }
+        return retVal;
+    }
+
+    private void addClause(int[] clause){
+        if (this.contradiction){
+            return;
+        }
+        try {
+            this.solver.addClause(new VecInt(clause));
+        } catch (ContradictionException e){
+            this.contradiction = true;
+        }
+    }
+
+    private int[] toDimacs(Clause c){
+        int[] clause = new int[c.countLiterals()];
+        int i = 0;
+        for (Literal l : c.literals()){
+            Literal atom = l.isNegated() ? l.negation() : l;
+            Integer variable = this.atomsToVariables.get(atom);
+            if (variable == null){
+                variable = newVariable();
+                this.atomsToVariables.put(atom, variable);
+                this.variablesToAtoms.put(variable, atom);
+            }
+            clause[i++] = l.isNegated() ? -variable : variable;
+        }
+        return clause;
+    }
+
+    private int newVariable(){
+        this.numVariables++;
+        this.solver.newVar(this.numVariables);
+        return this.numVariables;
+    }
+
+    public void setOptimizationTimeout(int optimizationTimeout) {
+        this.optimizationTimeout = optimizationTimeout;
+    }
+}
@@ -11,11 +11,13 @@
 package supertweety.logic;
 
 import ida.ilp.logic.*;
+import ida.ilp.logic.subsumption.JoinGrounder;
 import ida.ilp.logic.subsumption.Matching;
 import ida.ilp.logic.subsumption.SpecialBinaryPredicates;
 import ida.ilp.logic.subsumption.SpecialVarargPredicates;
 import ida.utils.IntegerFunction;
 import ida.utils.Sugar;
+import ida.utils.WorkerPool;
 import ida.utils.tuples.Pair;
 import ida.utils.tuples.Triple;
 
@@ -40,13 +42,21 @@ public class TheorySolver {
 
     private int mode = CUTTING_PLANES;
 
+    //backends used by groundAll: theta-subsumption (Matching) or hash joins (JoinGrounder), both give the same ground rules
+    public final static int SUBSUMPTION_GROUNDING = 1, JOIN_GROUNDING = 2;
+
+    private int groundingMode = SUBSUMPTION_GROUNDING;
+
     private int activeRuleSubsample = Integer.MAX_VALUE;
 
     private int activeRuleSubsamplingLevelStep = 1;
 
+    private int parallelism = WorkerPool.parallelism();
+
     private IntegerFunction restartSequence = new IntegerFunction.ConstantFunction(Integer.MAX_VALUE);
 
-    private SatSolver satSolver = new SatSolver() {
+    //when this solver is used, solve(...) keeps one GroundTheorySolver for all cutting-plane iterations and only appends the new ground rules to it
+    private final SatSolver defaultSatSolver = new SatSolver() {
 
         @Override
         public Set<Literal> solve(Collection<Clause> satProblem) {
@@ -64,6 +74,8 @@ public class TheorySolver {
         }
     };
 
+    private SatSolver satSolver = defaultSatSolver;
+
     public Set<Literal> solve(Collection<Clause> rules) {
         return this.solve(rules, Sugar.<Literal>set());
     }
@@ -124,19 +136,42 @@ public class TheorySolver {
 
         Set<Clause> activeRules = new HashSet<Clause>(initRules);
 
+        //the live SAT instance (only with the default SAT solver) and the active rules which have not been added to it yet,
+        //the active rules are then kept only in its compact clause store (activeRules contains just the initial rules)
+        GroundTheorySolver incrementalSolver = null;
+        List<Clause> newRules = new ArrayList<Clause>();
+
+        ViolationTracker violationTracker = new ViolationTracker(rules);
+
         int iteration = 1;
         int restart = 0;
         while (true) {
             if (DEBUG) {
-                System.out.println("Active rules: " + activeRules.size() + ", iteration: " + iteration);
+                System.out.println("Active rules: " + (incrementalSolver == null ? activeRules.size() : incrementalSolver.hardCnf().size()) + ", iteration: " + iteration);
             }
             //System.out.println(activeRules);
-            if ((state = satSolver.solve(activeRules)) == null) {
+            if (this.satSolver == this.defaultSatSolver) {
+                if (incrementalSolver == null) {
+                    incrementalSolver = new GroundTheorySolver(Sugar.setFromCollections(activeRules));
+                } else {
+                    incrementalSolver.addHardClauses(newRules);
+                }
+                newRules.clear();
+                state = incrementalSolver.solve();
+            } else {
+                state = satSolver.solve(activeRules);
+            }
+            if (state == null) {
                 return null;
             }
             state.addAll(deterministic);
 
-            Set<Clause> violatedRules = Sugar.setFromCollections(findViolatedRules(rules, state));
+            Set<Clause> violatedRules;
+            if (this.activeRuleSubsample == Integer.MAX_VALUE) {
+                violatedRules = Sugar.setFromCollections(violationTracker.findViolatedRules(state));
+            } else {
+                violatedRules = Sugar.setFromCollections(findViolatedRules(rules, state));
+            }
 
             violatedRules = Sugar.<Clause, Clause>funcallAndRemoveNulls(violatedRules, new Sugar.Fun<Clause, Clause>() {
                 @Override
@@ -150,8 +185,11 @@ public class TheorySolver {
                 }
             });
 
-            activeRules.addAll(initRules);
-            activeRules.addAll(violatedRules);
+            if (incrementalSolver != null) {
+                newRules.addAll(violatedRules);
+            } else {
+                activeRules.addAll(violatedRules);
+            }
 
             iteration++;
             if (violatedRules.isEmpty()) {
@@ -167,6 +205,9 @@ public class TheorySolver {
             if (iteration >= this.restartSequence.f(restart)){
                 Set<Clause> oldActiveRules = activeRules;
                 activeRules = new HashSet<Clause>(initRules);//Sugar.union(violatedRules, initRules);
+                incrementalSolver = null;
+                newRules.clear();
+                violationTracker.reset();
 //                for (Clause c : oldActiveRules){
 //                    if (Math.random() < 0.1){
 //                        activeRules.add(c);
@@ -237,6 +278,14 @@ public class TheorySolver {
             }
         });
 
+        if (this.satSolver == this.defaultSatSolver && isClausal(rules) && isClausal(initRules)){
+            //the ground rules go directly to the compact store, no intermediate set of ground clauses is kept
+            GroundCnf cnf = new GroundCnf();
+            cnf.addAll(initRules);
+            groundAll(rules, evidence, groundAtoms, cnf);
+            return new GroundTheorySolver(cnf, groundAtoms).solveAll(maxReturnedCount);
+        }
+
         Set<Clause> activeRules = new HashSet<Clause>();
         activeRules.addAll(initRules);
 
@@ -312,6 +361,37 @@ public class TheorySolver {
 
     public List<Clause> findViolatedRules(Collection<Clause> rules, Set<Literal> currentState){
         List<Clause> violated = new ArrayList<Clause>();
+        Clause example = stateExample(rules, currentState);
+        Matching matching = newM(example);
+        if (this.activeRuleSubsample == Integer.MAX_VALUE) {
+            List<Clause> ruleList = Sugar.listFromCollections(rules);
+            List<Clause> queries = new ArrayList<Clause>();
+            for (Clause rule : ruleList){
+                queries.add(LogicUtils.flipSigns(rule));
+            }
+            for (List<Clause> groundings : groundingSearch(matching, example).groundings(ruleList, queries)){
+                violated.addAll(groundings);
+            }
+            return violated;
+        }
+        for (Clause rule : rules){
+            Pair<Term[], List<Term[]>> substitutions0 = matching.allSubstitutions(LogicUtils.flipSigns(rule), 0, this.activeRuleSubsample);
+            if (substitutions0.s.size() < this.activeRuleSubsample){
+                for (Term[] subs : substitutions0.s) {
+                    violated.add(LogicUtils.substitute(rule, substitutions0.r, subs));
+                }
+            } else {
+                Triple<Term[], List<Term[]>, Double> substitutions = matching.searchTreeSampler(LogicUtils.flipSigns(rule), 0, this.activeRuleSubsample, this.activeRuleSubsamplingLevelStep);
+                for (Term[] subs : substitutions.s) {
+                    violated.add(LogicUtils.substitute(rule, substitutions.r, subs));
+                }
+            }
+        }
+        return violated;
+    }
+
+    //the state and the constants from the rules which do not appear in the state (so that the variables can range over them too)
+    private Clause stateExample(Collection<Clause> rules, Set<Literal> currentState){
         Set<Constant> constants = LogicUtils.constants(rules);
         for (Literal l : currentState){
             for (int i = 0; i < l.arity(); i++){
@@ -328,33 +408,40 @@ public class TheorySolver {
             constantIntroductionLiteral.set(c, constantIndex++);
         }
 
-        Matching matching = newM(new Clause(Sugar.union(currentState, constantIntroductionLiteral)));
-        for (Clause rule : rules){
-            if (this.activeRuleSubsample == Integer.MAX_VALUE) {
-                Pair<Term[], List<Term[]>> substitutions = matching.allSubstitutions(LogicUtils.flipSigns(rule), 0, Integer.MAX_VALUE);
-                for (Term[] subs : substitutions.s) {
-                    violated.add(LogicUtils.substitute(rule, substitutions.r, subs));
-                }
-            } else {
-                Pair<Term[], List<Term[]>> substitutions0 = matching.allSubstitutions(LogicUtils.flipSigns(rule), 0, this.activeRuleSubsample);
-                if (substitutions0.s.size() < this.activeRuleSubsample){
-                    for (Term[] subs : substitutions0.s) {
-                        violated.add(LogicUtils.substitute(rule, substitutions0.r, subs));
-                    }
-                } else {
-                    Triple<Term[], List<Term[]>, Double> substitutions = matching.searchTreeSampler(LogicUtils.flipSigns(rule), 0, this.activeRuleSubsample, this.activeRuleSubsamplingLevelStep);
-                    for (Term[] subs : substitutions.s) {
-                        violated.add(LogicUtils.substitute(rule, substitutions.r, subs));
-                    }
-                }
-            }
-        }
-        return violated;
+        return new Clause(Sugar.union(currentState, constantIntroductionLiteral));
+    }
+
+    private GroundingSearch groundingSearch(Matching matching, Clause example){
+        GroundingSearch groundingSearch = new GroundingSearch(matching, example.literals());
+        groundingSearch.setParallelism(this.parallelism);
+        groundingSearch.setSplitting(this.subsumptionMode == Matching.THETA_SUBSUMPTION);
+        return groundingSearch;
     }
 
     public List<Clause> groundAll(Collection<Clause> rules, Set<Literal> evidence, Set<Literal> groundAtoms){
         List<Clause> groundRules = new ArrayList<Clause>();
-        Matching matching;
+        groundAll(rules, evidence, groundAtoms, groundRules, null);
+        return groundRules;
+    }
+
+    /**
+     * Grounds the rules in the same way as groundAll(rules, evidence, groundAtoms) but stores the ground rules directly
+     * in the given compact store. Special and deterministic predicates are removed from the ground rules and the ground
+     * rules which are vacuously true (w.r.t. the deterministic literals) are left out.
+     * @param rules the rules
+     * @param evidence the evidence
+     * @param groundAtoms atoms whose constants should be used for grounding (may be null)
+     * @param cnf the store to which the ground rules are added
+     * @return the store
+     */
+    public GroundCnf groundAll(Collection<Clause> rules, Set<Literal> evidence, Set<Literal> groundAtoms, GroundCnf cnf){
+        groundAll(rules, evidence, groundAtoms, null, cnf);
+        return cnf;
+    }
+
+    //the ground rules are added either to the list groundRules or (filtered) to cnf
+    private void groundAll(Collection<Clause> rules, Set<Literal> evidence, Set<Literal> groundAtoms, List<Clause> groundRules, GroundCnf cnf){
+        Set<Literal> deterministic = this.deterministicLiterals == null ? Sugar.<Literal>set() : this.deterministicLiterals;
         Set<Constant> constantsInGroundAtoms;
         if (groundAtoms == null || groundAtoms.isEmpty()){
             constantsInGroundAtoms = new HashSet<Constant>();
@@ -362,22 +449,50 @@ public class TheorySolver {
             constantsInGroundAtoms = LogicUtils.constants(new Clause(groundAtoms));
         }
         Literal constantIntroduction = new Literal("", Sugar.listFromCollections(constantsInGroundAtoms));
+        Clause example;
         if (this.deterministicLiterals != null) {
-            matching = newM(new Clause(Sugar.union(this.deterministicLiterals, evidence, Sugar.list(constantIntroduction))));
+            example = new Clause(Sugar.union(this.deterministicLiterals, evidence, Sugar.list(constantIntroduction)));
         } else {
-            matching = newM(new Clause(Sugar.union(evidence, groundAtoms)));
+            example = new Clause(Sugar.union(evidence, groundAtoms));
+        }
+        Matching matching = null;
+        JoinGrounder joinGrounder = null;
+        if (this.groundingMode == JOIN_GROUNDING){
+            joinGrounder = new JoinGrounder(example);
+            joinGrounder.setSubsumptionMode(this.subsumptionMode);
+        } else {
+            matching = newM(example);
         }
-        matching.setSubsumptionMode(this.subsumptionMode);
         for (Clause rule : rules){
             Clause stub = ruleStub(rule);
-            Pair<Term[], List<Term[]>> substitutions = matching.allSubstitutions(LogicUtils.flipSigns(stub), 0, Integer.MAX_VALUE);
+            Pair<Term[], List<Term[]>> substitutions;
+            if (joinGrounder != null){
+                substitutions = joinGrounder.allSubstitutions(LogicUtils.flipSigns(stub));
+            } else {
+                substitutions = matching.allSubstitutions(LogicUtils.flipSigns(stub), 0, Integer.MAX_VALUE);
+            }
             for (Term[] subs : substitutions.s) {
-                groundRules.add(LogicUtils.substitute(rule, substitutions.r, subs));
+                Clause groundRule = LogicUtils.substitute(rule, substitutions.r, subs);
+                if (cnf == null){
+                    groundRules.add(groundRule);
+                } else if (!isGroundClauseVacuouslyTrue(groundRule, deterministic)){
+                    cnf.addClause(removeSpecialAndDeterministicPredicates(groundRule));
+                }
                 //System.out.println(rule+" --> "+LogicUtils.substitute(rule, substitutions.r, subs));
             }
         }
+    }
 
-        return groundRules;
+    //true if the rules contain no @atleast, @atmost and @xor constraints (which cannot be stored in GroundCnf)
+    private static boolean isClausal(Collection<Clause> rules){
+        for (Clause rule : rules){
+            for (Literal l : rule.literals()){
+                if (l.predicate().equals("@atleast") || l.predicate().equals("@atmost") || l.predicate().equals("@xor")){
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     private Clause ruleStub(Clause rule){
@@ -447,6 +562,15 @@ public class TheorySolver {
         return m;
     }
 
+    /**
+     * Sets the maximum number of rules (or parts of the domains of their variables) which are searched for violated
+     * groundings at the same time.
+     * @param parallelism maximum number of violation searches running in parallel
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
     public void setActiveRuleSubsampling(int numSamples){
         this.activeRuleSubsample = numSamples;
     }
@@ -459,6 +583,14 @@ public class TheorySolver {
         this.mode = mode;
     }
 
+    /**
+     *
+     * @param groundingMode SUBSUMPTION_GROUNDING or JOIN_GROUNDING (typically faster on large evidence)
+     */
+    public void setGroundingMode(int groundingMode){
+        this.groundingMode = groundingMode;
+    }
+
     public void setSatSolver(SatSolver solver){
         this.satSolver = solver;
     }
@@ -468,4 +600,116 @@ public class TheorySolver {
     }
 
 
+    /**
+     * Finds the violated groundings of the rules in the consecutive states of the cutting-plane loop. It relies on the fact
+     * that all groundings violated in the previous state have been added to the SAT problem, so a grounding violated in the
+     * current state must contain an atom which changed its truth value: either a negative literal of the rule whose atom
+     * became true or a positive literal whose atom became false. Only these groundings are searched for: the changed atoms are
+     * added to the example under marker predicates and the respective literal of the rule is required to match them. The full
+     * search is used in the first iteration, after reset() and whenever the state contains a constant which was not in the previous
+     * state (groundings with such constants need not touch any changed atom).
+     */
+    private class ViolationTracker {
+
+        private Collection<Clause> rules;
+
+        //predicate -> (rule, literal) for the negative resp. positive literals of the rules (special predicates are left out)
+        private Map<Pair<String,Integer>,List<Pair<Clause,Literal>>> negativeOccurrences = new HashMap<Pair<String,Integer>,List<Pair<Clause,Literal>>>();
+
+        private Map<Pair<String,Integer>,List<Pair<Clause,Literal>>> positiveOccurrences = new HashMap<Pair<String,Integer>,List<Pair<Clause,Literal>>>();
+
+        private Set<Literal> previousState;
+
+        private Set<Term> previousConstants;
+
+        private final static String ADDED = "$added:", REMOVED = "$removed:";
+
+        private ViolationTracker(Collection<Clause> rules){
+            this.rules = rules;
+            for (Clause rule : rules){
+                for (Literal l : rule.literals()){
+                    if (SpecialVarargPredicates.SPECIAL_PREDICATES.contains(l.predicate()) || SpecialBinaryPredicates.SPECIAL_PREDICATES.contains(l.predicate())){
+                        continue;
+                    }
+                    Map<Pair<String,Integer>,List<Pair<Clause,Literal>>> occurrences = l.isNegated() ? this.negativeOccurrences : this.positiveOccurrences;
+                    Pair<String,Integer> predicate = new Pair<String,Integer>(l.predicate(), l.arity());
+                    List<Pair<Clause,Literal>> list = occurrences.get(predicate);
+                    if (list == null){
+                        occurrences.put(predicate, list = new ArrayList<Pair<Clause,Literal>>());
+                    }
+                    list.add(new Pair<Clause,Literal>(rule, l));
+                }
+            }
+        }
+
+        private void reset(){
+            this.previousState = null;
+            this.previousConstants = null;
+        }
+
+        private List<Clause> findViolatedRules(Set<Literal> currentState){
+            Set<Term> constants = new HashSet<Term>();
+            for (Literal l : currentState){
+                for (int i = 0; i < l.arity(); i++){
+                    constants.add(l.get(i));
+                }
+            }
+            List<Clause> violated;
+            if (this.previousState == null || subsumptionMode != Matching.THETA_SUBSUMPTION || !this.previousConstants.containsAll(constants)){
+                violated = TheorySolver.this.findViolatedRules(this.rules, currentState);
+            } else {
+                //the changed atoms are added to the example under marker predicates which then seed the queries
+                Set<Literal> example = new HashSet<Literal>(currentState);
+                Set<Pair<String,Integer>> addedPredicates = new HashSet<Pair<String,Integer>>();
+                Set<Pair<String,Integer>> removedPredicates = new HashSet<Pair<String,Integer>>();
+                for (Literal l : currentState){
+                    if (!this.previousState.contains(l)){
+                        example.add(marker(ADDED, l));
+                        addedPredicates.add(new Pair<String,Integer>(l.predicate(), l.arity()));
+                    }
+                }
+                for (Literal l : this.previousState){
+                    if (!currentState.contains(l)){
+                        example.add(marker(REMOVED, l));
+                        removedPredicates.add(new Pair<String,Integer>(l.predicate(), l.arity()));
+                    }
+                }
+                Clause stateExample = stateExample(this.rules, example);
+                List<Clause> seededRules = new ArrayList<Clause>();
+                List<Clause> queries = new ArrayList<Clause>();
+                for (Pair<String,Integer> predicate : addedPredicates){
+                    addQueries(ADDED, this.negativeOccurrences.get(predicate), seededRules, queries);
+                }
+                for (Pair<String,Integer> predicate : removedPredicates){
+                    addQueries(REMOVED, this.positiveOccurrences.get(predicate), seededRules, queries);
+                }
+                Set<Clause> found = new LinkedHashSet<Clause>();
+                for (List<Clause> groundings : groundingSearch(newM(stateExample), stateExample).groundings(seededRules, queries)){
+                    found.addAll(groundings);
+                }
+                violated = Sugar.listFromCollections(found);
+            }
+            this.previousState = new HashSet<Literal>(currentState);
+            this.previousConstants = constants;
+            return violated;
+        }
+
+        private void addQueries(String marker, List<Pair<Clause,Literal>> occurrences, List<Clause> rules, List<Clause> queries){
+            if (occurrences == null){
+                return;
+            }
+            for (Pair<Clause,Literal> occurrence : occurrences){
+                rules.add(occurrence.r);
+                queries.add(new Clause(Sugar.union(LogicUtils.flipSigns(occurrence.r).literals(), marker(marker, occurrence.s))));
+            }
+        }
+
+        private Literal marker(String marker, Literal l){
+            Literal m = new Literal(marker + l.predicate(), l.arity());
+            for (int i = 0; i < l.arity(); i++){
+                m.set(l.get(i), i);
+            }
+            return m;
+        }
+    }
 }
@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic.utils;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.ilp.logic.LogicUtils;
+import ida.utils.Sugar;
+import ida.utils.collections.ValueToIndex;
+import supertweety.logic.ModelCounter;
+
+import java.math.BigInteger;
+import java.util.*;
+
+/**
+ * Exact model counter for ground CNFs which runs completely in the JVM. It is a DPLL-style counter
+ * with unit propagation, decomposition of the residual formula into connected components
+ * and a cache of the counts of the components which have already been seen (in the spirit of relsat and Cachet).
+ *
+ * The models are counted over the atoms which appear in the given clauses (the same as for {@link RelsatExecutor}).
+ */
+public class ComponentCachingModelCounter implements ModelCounter {
+
+    private int maxCacheSize = 1000000;
+
+    private Map<ComponentKey,BigInteger> cache = new HashMap<ComponentKey,BigInteger>();
+
+    public ComponentCachingModelCounter(){}
+
+    public ComponentCachingModelCounter(int maxCacheSize){
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    @Override
+    public BigInteger modelCount(Collection<Clause> satProblem) {
+        ValueToIndex<Literal> vti = new ValueToIndex<Literal>(1);
+        List<int[]> clauses = new ArrayList<int[]>();
+        for (Clause c : satProblem){
+            if (!LogicUtils.isGround(c)){
+                throw new IllegalArgumentException("ComponentCachingModelCounter can only count models of ground theories, got: "+c);
+            }
+            int[] dimacs = new int[c.countLiterals()];
+            int i = 0;
+            for (Literal l : c.literals()){
+                dimacs[i++] = l.isNegated() ? -vti.valueToIndex(l.negation()) : vti.valueToIndex(l);
+            }
+            if ((dimacs = normalize(dimacs)) != null) {
+                clauses.add(dimacs);
+            }
+        }
+        try {
+            return count(clauses, vti.size());
+        } finally {
+            this.cache.clear();
+        }
+    }
+
+    /**
+     * Counts models of a CNF given in the DIMACS-like integer representation.
+     * @param clauses the clauses
+     * @param numVariables number of variables (the variables are 1..numVariables, some of them do not have to appear in the clauses)
+     * @return the number of models over the numVariables variables
+     */
+    public BigInteger count(List<int[]> clauses, int numVariables){
+        List<int[]> normalized = new ArrayList<int[]>(clauses.size());
+        for (int[] clause : clauses){
+            if (clause.length == 0){
+                return BigInteger.ZERO;
+            }
+            int[] n = normalize(clause);
+            if (n != null){
+                normalized.add(n);
+            }
+        }
+        return new Search(normalized.toArray(new int[normalized.size()][]), numVariables).count();
+    }
+
+    /**
+     * The state of one counting run: the values of the variables are kept on a trail, unit propagation uses occurrence lists
+     * and per-clause counters of true and false literals (they are restored when the trail is unwound) and the branching
+     * is driven by an explicit stack of frames instead of recursion, so deep instances do not overflow the call stack.
+     */
+    private class Search {
+
+        private final int[][] clauses;
+
+        private final int numVariables;
+
+        //occurrences[code(l)] = indices of the clauses containing the literal l
+        private final int[][] occurrences;
+
+        private final int[] numTrue, numFalse;
+
+        //0 = unassigned, 1 = true, -1 = false
+        private final byte[] values;
+
+        private final int[] trail;
+
+        private int trailSize = 0;
+
+        //literals on the trail before this position have been propagated (their effect is included in the counters)
+        private int propagated = 0;
+
+        //marks used by the component analysis
+        private final int[] clauseStamps, variableStamps;
+
+        private int stamp = 0;
+
+        private Search(int[][] clauses, int numVariables){
+            this.clauses = clauses;
+            this.numVariables = numVariables;
+            int[] counts = new int[2*numVariables+2];
+            for (int[] clause : clauses){
+                for (int l : clause){
+                    counts[code(l)]++;
+                }
+            }
+            this.occurrences = new int[2*numVariables+2][];
+            for (int i = 0; i < counts.length; i++){
+                this.occurrences[i] = new int[counts[i]];
+                counts[i] = 0;
+            }
+            for (int c = 0; c < clauses.length; c++){
+                for (int l : clauses[c]){
+                    int code = code(l);
+                    this.occurrences[code][counts[code]++] = c;
+                }
+            }
+            this.numTrue = new int[clauses.length];
+            this.numFalse = new int[clauses.length];
+            this.values = new byte[numVariables+1];
+            this.trail = new int[numVariables];
+            this.clauseStamps = new int[clauses.length];
+            this.variableStamps = new int[numVariables+1];
+        }
+
+        private BigInteger count(){
+            for (int[] clause : this.clauses){
+                if (clause.length == 1 && !assign(clause[0])){
+                    return BigInteger.ZERO;
+                }
+            }
+            if (!propagate()){
+                return BigInteger.ZERO;
+            }
+            int[] all = new int[this.clauses.length];
+            for (int c = 0; c < all.length; c++){
+                all[c] = c;
+            }
+            int[] variables = new int[this.numVariables];
+            for (int var = 1; var <= this.numVariables; var++){
+                variables[var-1] = var;
+            }
+            //the root frame does not branch, it only multiplies the counts of the components of the formula after the initial propagation
+            Frame root = new Frame(new Component(all, variables, null));
+            root.branch = 1;
+            startBranch(root);
+            Deque<Frame> stack = new ArrayDeque<Frame>();
+            stack.push(root);
+            BigInteger returned = null;
+            while (true){
+                Frame frame = stack.peek();
+                if (returned != null){
+                    frame.product = frame.product.multiply(returned);
+                    returned = null;
+                }
+                if (frame.components != null && frame.next < frame.components.size() && frame.product.signum() != 0){
+                    Component component = frame.components.get(frame.next++);
+                    BigInteger cached = cache.get(component.key);
+                    if (cached != null){
+                        frame.product = frame.product.multiply(cached);
+                    } else {
+                        stack.push(new Frame(component));
+                    }
+                    continue;
+                }
+                if (frame.components != null){
+                    //the branch is finished
+                    frame.sum = frame.sum.add(frame.product);
+                    frame.components = null;
+                    undo(frame.trailMark);
+                }
+                if (frame.branch < 1){
+                    frame.branch++;
+                    frame.trailMark = this.trailSize;
+                    int literal = frame.branch == 0 ? frame.branchVariable : -frame.branchVariable;
+                    if (assign(literal) && propagate()){
+                        startBranch(frame);
+                    } else {
+                        undo(frame.trailMark);
+                    }
+                    continue;
+                }
+                stack.pop();
+                if (stack.isEmpty()){
+                    return frame.sum;
+                }
+                if (cache.size() >= maxCacheSize){
+                    cache.clear();
+                }
+                cache.put(frame.component.key, frame.sum);
+                returned = frame.sum;
+            }
+        }
+
+        //splits the residual clauses of the frame's component into components, the variables of the component which do not appear in them are free
+        private void startBranch(Frame frame){
+            frame.components = components(frame.component.clauses);
+            int free = 0;
+            for (int var : frame.component.variables){
+                if (this.values[var] == 0 && this.variableStamps[var] != this.stamp){
+                    free++;
+                }
+            }
+            frame.product = BigInteger.ONE.shiftLeft(free);
+            frame.next = 0;
+        }
+
+        private List<Component> components(int[] candidateClauses){
+            this.stamp++;
+            List<Component> retVal = new ArrayList<Component>();
+            int[] clauseQueue = new int[candidateClauses.length];
+            List<Integer> componentVariables = new ArrayList<Integer>();
+            for (int start : candidateClauses){
+                if (this.numTrue[start] > 0 || this.clauseStamps[start] == this.stamp){
+                    continue;
+                }
+                int head = 0, tail = 0;
+                clauseQueue[tail++] = start;
+                this.clauseStamps[start] = this.stamp;
+                componentVariables.clear();
+                while (head < tail){
+                    int c = clauseQueue[head++];
+                    for (int l : this.clauses[c]){
+                        int var = Math.abs(l);
+                        if (this.values[var] != 0 || this.variableStamps[var] == this.stamp){
+                            continue;
+                        }
+                        this.variableStamps[var] = this.stamp;
+                        componentVariables.add(var);
+                        for (int code = code(var), k = 0; k < 2; k++, code = code(-var)){
+                            for (int d : this.occurrences[code]){
+                                if (this.numTrue[d] == 0 && this.clauseStamps[d] != this.stamp){
+                                    this.clauseStamps[d] = this.stamp;
+                                    clauseQueue[tail++] = d;
+                                }
+                            }
+                        }
+                    }
+                }
+                int[] componentClauses = Arrays.copyOf(clauseQueue, tail);
+                int[] variables = new int[componentVariables.size()];
+                for (int i = 0; i < variables.length; i++){
+                    variables[i] = componentVariables.get(i);
+                }
+                int[][] residual = new int[tail][];
+                for (int i = 0; i < tail; i++){
+                    residual[i] = residualClause(componentClauses[i]);
+                }
+                retVal.add(new Component(componentClauses, variables, new ComponentKey(residual)));
+            }
+            return retVal;
+        }
+
+        //the unassigned literals of the clause (in the original order, i.e. sorted)
+        private int[] residualClause(int c){
+            int[] clause = this.clauses[c];
+            int[] retVal = new int[clause.length-this.numFalse[c]];
+            int j = 0;
+            for (int l : clause){
+                if (this.values[Math.abs(l)] == 0){
+                    retVal[j++] = l;
+                }
+            }
+            return retVal;
+        }
+
+        private boolean assign(int literal){
+            int var = Math.abs(literal);
+            byte value = literal > 0 ? (byte)1 : (byte)-1;
+            if (this.values[var] != 0){
+                return this.values[var] == value;
+            }
+            this.values[var] = value;
+            this.trail[this.trailSize++] = literal;
+            return true;
+        }
+
+        //returns false if a conflict has been derived, the counters of a literal are always updated completely so that undo(...) can restore them
+        private boolean propagate(){
+            boolean conflict = false;
+            while (this.propagated < this.trailSize){
+                int literal = this.trail[this.propagated++];
+                for (int c : this.occurrences[code(literal)]){
+                    this.numTrue[c]++;
+                }
+                for (int c : this.occurrences[code(-literal)]){
+                    this.numFalse[c]++;
+                    if (conflict || this.numTrue[c] > 0){
+                        continue;
+                    }
+                    int unassigned = this.clauses[c].length - this.numFalse[c];
+                    if (unassigned == 0){
+                        conflict = true;
+                    } else if (unassigned == 1){
+                        for (int l : this.clauses[c]){
+                            if (this.values[Math.abs(l)] == 0){
+                                assign(l);
+                                break;
+                            }
+                        }
+                    }
+                }
+                if (conflict){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void undo(int trailMark){
+            while (this.trailSize > trailMark){
+                int literal = this.trail[--this.trailSize];
+                if (this.trailSize < this.propagated){
+                    for (int c : this.occurrences[code(literal)]){
+                        this.numTrue[c]--;
+                    }
+                    for (int c : this.occurrences[code(-literal)]){
+                        this.numFalse[c]--;
+                    }
+                }
+                this.values[Math.abs(literal)] = 0;
+            }
+            this.propagated = Math.min(this.propagated, trailMark);
+        }
+
+        //the variable with the most occurrences (occurrences in binary clauses count three times), ties are broken in favour
+        //of the variable found in the middle of the breadth-first search of the component (e.g. long chains of implications
+        //are then split in halves instead of being shortened by one variable in every branching)
+        private int branchVariable(Component component){
+            Map<Integer,Integer> scores = new HashMap<Integer,Integer>();
+            for (int c : component.clauses){
+                int weight = this.clauses[c].length - this.numFalse[c] == 2 ? 3 : 1;
+                for (int l : this.clauses[c]){
+                    int var = Math.abs(l);
+                    if (this.values[var] == 0){
+                        Integer o = scores.get(var);
+                        scores.put(var, (o == null ? 0 : o) + weight);
+                    }
+                }
+            }
+            int best = 0, bestScore = -1, bestDistance = Integer.MAX_VALUE;
+            int middle = component.variables.length/2;
+            for (int i = 0; i < component.variables.length; i++){
+                int var = component.variables[i];
+                int score = scores.get(var);
+                int distance = Math.abs(i - middle);
+                if (score > bestScore || (score == bestScore && distance < bestDistance)){
+                    best = var;
+                    bestScore = score;
+                    bestDistance = distance;
+                }
+            }
+            return best;
+        }
+
+        private class Frame {
+
+            private final Component component;
+
+            private final int branchVariable;
+
+            //-1 = no branch started, 0 = the positive branch, 1 = the negative branch
+            private int branch = -1;
+
+            private int trailMark;
+
+            private BigInteger sum = BigInteger.ZERO;
+
+            //components of the current branch (null if no branch is in progress), the next one to be counted and the product so far
+            private List<Component> components;
+
+            private int next;
+
+            private BigInteger product;
+
+            private Frame(Component component){
+                this.component = component;
+                this.branchVariable = component.key == null ? 0 : branchVariable(component);
+            }
+        }
+    }
+
+    private static int code(int literal){
+        return literal > 0 ? 2*literal : -2*literal+1;
+    }
+
+    private static class Component {
+
+        //indices of the (not satisfied) clauses and the unassigned variables (in the order of the breadth-first search)
+        private final int[] clauses, variables;
+
+        private final ComponentKey key;
+
+        private Component(int[] clauses, int[] variables, ComponentKey key){
+            this.clauses = clauses;
+            this.variables = variables;
+            this.key = key;
+        }
+    }
+
+    //sorts the literals and removes duplicates, returns null for tautologies
+    private static int[] normalize(int[] clause){
+        int[] sorted = Arrays.copyOf(clause, clause.length);
+        Arrays.sort(sorted);
+        int j = 0;
+        for (int i = 0; i < sorted.length; i++){
+            if (j > 0 && sorted[j-1] == sorted[i]){
+                continue;
+            }
+            if (Arrays.binarySearch(sorted, -sorted[i]) >= 0){
+                return null;
+            }
+            sorted[j++] = sorted[i];
+        }
+        return j == sorted.length ? sorted : Arrays.copyOf(sorted, j);
+    }
+
+    private static class ComponentKey {
+
+        private final int[] encoding;
+
+        private final int hashCode;
+
+        private ComponentKey(int[][] component){
+            int[][] sorted = component.clone();
+            Arrays.sort(sorted, new Comparator<int[]>() {
+                @Override
+                public int compare(int[] o1, int[] o2) {
+                    for (int i = 0; i < Math.min(o1.length, o2.length); i++){
+                        if (o1[i] != o2[i]){
+                            return o1[i] < o2[i] ? -1 : 1;
+                        }
+                    }
+                    return o1.length - o2.length;
+                }
+            });
+            int length = 0;
+            for (int[] clause : sorted){
+                length += clause.length+1;
+            }
+            this.encoding = new int[length];
+            int i = 0;
+            for (int[] clause : sorted){
+                System.arraycopy(clause, 0, this.encoding, i, clause.length);
+                //0 separates the clauses
+                i += clause.length+1;
+            }
+            this.hashCode = Arrays.hashCode(this.encoding);
+        }
+
+        @Override
+        public int hashCode(){
+            return this.hashCode;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            return o instanceof ComponentKey && ((ComponentKey)o).hashCode == this.hashCode && Arrays.equals(((ComponentKey)o).encoding, this.encoding);
+        }
+    }
+
+    public static void main(String[] args){
+        ComponentCachingModelCounter mc = new ComponentCachingModelCounter();
+        BigInteger bi = mc.modelCount(Sugar.<Clause>list(
+                Clause.parse("!bird(x),flies(x)"),
+                Clause.parse("bird(x),pig(x)")
+        ));
+        System.out.println(bi);
+    }
+}
@@ -29,15 +29,15 @@ public class CryptoMiniSatExecutor implements SatSolver {
 
     private String path = "/Users/kuzelkao_cardiff/Dropbox/Experiments/IJCAI17/cryptominisat/build/";
 
-    private long id;
-
     private final static Random random = new Random(System.nanoTime());
 
+    //every instance uses its own file, so several instances can be used in parallel
+    private final long id = random.nextLong();
+
     public CryptoMiniSatExecutor(){}
 
     public CryptoMiniSatExecutor(String path){
         this.path = path;
-        this.id = random.nextLong();
     }
 
     public Set<Literal> solve(Collection<Clause> satProblem){
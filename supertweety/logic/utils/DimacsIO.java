@@ -15,6 +15,7 @@ import ida.ilp.logic.Function;
 import ida.ilp.logic.Literal;
 import ida.utils.Sugar;
 import ida.utils.collections.ValueToIndex;
+import supertweety.logic.GroundCnf;
 
 import java.io.*;
 import java.util.*;
@@ -78,6 +79,125 @@ public class DimacsIO {
         pw.flush();
     }
 
+    /**
+     * Writes the clauses from the compact store in the DIMACS format, the variables are the indices of the atoms of the store.
+     * @param cnf the clauses
+     * @param writer the writer
+     * @throws IOException
+     */
+    public static void write(GroundCnf cnf, Writer writer) throws IOException {
+        PrintWriter pw = new PrintWriter(writer);
+        pw.println("p cnf "+cnf.numAtoms()+" "+cnf.size());
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < cnf.size(); i++){
+            sb.setLength(0);
+            for (int j = 0; j < cnf.length(i); j++){
+                sb.append(cnf.literal(i, j));
+                sb.append(" ");
+            }
+            sb.append("0");
+            pw.println(sb);
+        }
+        pw.flush();
+    }
+
+    /**
+     * Reads clauses in the DIMACS format to the compact store. The variable i is interpreted as the atom with index i
+     * in the dictionary of the store (e.g. the clauses written by write(cnf, writer) can be read back to the same store or
+     * to a new store with the same dictionary). Variables which are not in the dictionary yet (all of them when reading
+     * to a new GroundCnf) are added to it as placeholder atoms v1, v2, ... (up to the number of variables
+     * in the header or the largest variable in the clauses). XOR clauses are not supported.
+     * @param reader the reader
+     * @param cnf the store to which the clauses are added
+     * @return the store
+     * @throws IOException
+     */
+    public static GroundCnf read(Reader reader, GroundCnf cnf) throws IOException {
+        StreamTokenizer tokenizer = new StreamTokenizer(new BufferedReader(reader));
+        tokenizer.resetSyntax();
+        tokenizer.whitespaceChars(0, ' ');
+        tokenizer.wordChars('!', 255);
+        tokenizer.eolIsSignificant(true);
+        int[] clause = new int[16];
+        int length = 0;
+        boolean skipLine = false;
+        boolean lineStart = true;
+        //position of the next token on the problem line "p cnf <variables> <clauses>", 0 outside of it
+        int headerPosition = 0;
+        int token;
+        while ((token = tokenizer.nextToken()) != StreamTokenizer.TT_EOF){
+            if (token == StreamTokenizer.TT_EOL){
+                skipLine = false;
+                lineStart = true;
+                headerPosition = 0;
+                continue;
+            }
+            if (skipLine){
+                continue;
+            }
+            String word = tokenizer.sval;
+            if (lineStart && word.equals("%")){
+                //end of the clauses in the SATLIB files
+                break;
+            }
+            if (lineStart && word.equals("c")){
+                skipLine = true;
+                continue;
+            }
+            if (lineStart && word.equals("p")){
+                lineStart = false;
+                headerPosition = 1;
+                continue;
+            }
+            if (headerPosition > 0){
+                if (headerPosition == 2){
+                    try {
+                        addPlaceholderAtoms(cnf, Integer.parseInt(word));
+                    } catch (NumberFormatException nfe){
+                        throw new IOException("Unexpected token in DIMACS header: "+word);
+                    }
+                    skipLine = true;
+                }
+                headerPosition++;
+                continue;
+            }
+            lineStart = false;
+            if (word.startsWith("x")){
+                throw new IOException("XOR clauses cannot be read to GroundCnf.");
+            }
+            int literal;
+            try {
+                literal = Integer.parseInt(word);
+            } catch (NumberFormatException nfe){
+                throw new IOException("Unexpected token in DIMACS input: "+word);
+            }
+            if (literal == 0){
+                cnf.addClause(Arrays.copyOf(clause, length));
+                length = 0;
+            } else {
+                addPlaceholderAtoms(cnf, Math.abs(literal));
+                if (length == clause.length){
+                    clause = Arrays.copyOf(clause, 2*length);
+                }
+                clause[length++] = literal;
+            }
+        }
+        if (length > 0){
+            cnf.addClause(Arrays.copyOf(clause, length));
+        }
+        return cnf;
+    }
+
+    private static void addPlaceholderAtoms(GroundCnf cnf, int variable) throws IOException {
+        while (!cnf.atoms().containsIndex(variable)){
+            int index = cnf.numAtoms()+1;
+            Literal placeholder = new Literal("v"+index);
+            if (index > variable || cnf.atoms().containsValue(placeholder) || cnf.atomIndex(placeholder) != index){
+                throw new IOException("Variable "+variable+" cannot be added to the dictionary of atoms (it collides with the existing atoms).");
+            }
+        }
+    }
+
     private static String clauseToString(Clause clause, ValueToIndex<Literal> vti){
         StringBuilder sb = new StringBuilder();
         List<Integer> literals = new ArrayList<Integer>();
@@ -104,8 +224,4 @@ public class DimacsIO {
         return sb.toString();
     }
 
-//    public static Collection<Clause> read(Reader reader) throws IOException {
-//        return null;
-//    }
-
 }
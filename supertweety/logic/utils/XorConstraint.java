@@ -10,212 +10,249 @@
 
 package supertweety.logic.utils;
 
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * System of XOR constraints (linear equations over GF(2)) over variables 0..numVariables-1, kept in reduced row-echelon form
+ * while the variables are being assigned. Assigning a variable substitutes its value into the rows (if the variable was a pivot,
+ * a new pivot is selected in its row and eliminated from the other rows), so all implied variables can be read from the rows
+ * with a single remaining variable and the system becomes inconsistent exactly when some row reduces to 0 = 1.
+ * The state can be saved and restored (push/pop) when backtracking.
+ */
 public class XorConstraint {
 
+    private final int numVariables;
+
+    private final int words;
+
+    private long[][] rows;
+
+    private boolean[] rightHandSides;
+
+    //pivot variable of every row (-1 for rows with no variables left)
+    private int[] pivots;
+
+    //row of every pivot variable (-1 for variables which are not pivots)
+    private int[] pivotRows;
+
+    private boolean consistent = true;
+
+    private Snapshot[] snapshots = new Snapshot[16];
+
+    private int numSnapshots = 0;
+
+    /**
+     * Creates a new instance of class XorConstraint
+     * @param numVariables number of variables
+     * @param variables for every constraint, the variables whose XOR is constrained (repeated variables cancel out)
+     * @param parities for every constraint, the required XOR of its variables (true = odd number of true variables)
+     */
+    public XorConstraint(int numVariables, List<int[]> variables, List<Boolean> parities){
+        this.numVariables = numVariables;
+        this.words = (numVariables+63)/64;
+        int numRows = variables.size();
+        this.rows = new long[numRows][this.words];
+        this.rightHandSides = new boolean[numRows];
+        this.pivots = new int[numRows];
+        this.pivotRows = new int[numVariables];
+        Arrays.fill(this.pivots, -1);
+        Arrays.fill(this.pivotRows, -1);
+        for (int i = 0; i < numRows; i++){
+            for (int var : variables.get(i)){
+                this.rows[i][var >>> 6] ^= 1L << var;
+            }
+            this.rightHandSides[i] = parities.get(i);
+        }
+        for (int i = 0; i < numRows; i++){
+            selectPivot(i);
+        }
+    }
+
+    //selects a new pivot for the given row (which has no pivot) and eliminates it from the other rows, rows without
+    //pivots are either empty or (only in the constructor) not processed yet
+    private void selectPivot(int row){
+        int pivot = firstVariable(this.rows[row]);
+        if (pivot == -1){
+            if (this.rightHandSides[row]){
+                this.consistent = false;
+            }
+            this.pivots[row] = -1;
+            return;
+        }
+        this.pivots[row] = pivot;
+        this.pivotRows[pivot] = row;
+        int word = pivot >>> 6;
+        long bit = 1L << pivot;
+        for (int i = 0; i < this.rows.length; i++){
+            if (i != row && (this.rows[i][word] & bit) != 0){
+                long[] target = this.rows[i];
+                long[] source = this.rows[row];
+                for (int w = 0; w < this.words; w++){
+                    target[w] ^= source[w];
+                }
+                //the pivot of row i (if it has one) is not in the source row, so it stays the pivot of row i
+                this.rightHandSides[i] ^= this.rightHandSides[row];
+            }
+        }
+    }
+
+    private static int firstVariable(long[] row){
+        for (int w = 0; w < row.length; w++){
+            if (row[w] != 0){
+                return (w << 6) + Long.numberOfTrailingZeros(row[w]);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Substitutes the value of the variable into the system.
+     * @param variable the variable
+     * @param value its value
+     * @return false if the system became inconsistent
+     */
+    public boolean assign(int variable, boolean value){
+        int word = variable >>> 6;
+        long bit = 1L << variable;
+        for (int i = 0; i < this.rows.length; i++){
+            if ((this.rows[i][word] & bit) != 0){
+                this.rows[i][word] &= ~bit;
+                this.rightHandSides[i] ^= value;
+            }
+        }
+        int row = this.pivotRows[variable];
+        if (row != -1){
+            this.pivotRows[variable] = -1;
+            this.pivots[row] = -1;
+            selectPivot(row);
+        }
+        return this.consistent;
+    }
+
+    /**
+     *
+     * @return false if the system has no solution
+     */
+    public boolean isConsistent(){
+        return this.consistent;
+    }
+
+    /**
+     * Finds the variables whose values are implied by the system, i.e. the rows with exactly one variable.
+     * @param outVariables the implied variables are stored here
+     * @param outValues their values are stored here
+     * @return number of implied variables
+     */
+    public int impliedVariables(int[] outVariables, boolean[] outValues){
+        int num = 0;
+        for (int i = 0; i < this.rows.length; i++){
+            int pivot = this.pivots[i];
+            if (pivot != -1){
+                long[] row = this.rows[i];
+                boolean single = true;
+                for (int w = 0; w < this.words; w++){
+                    long rest = w == (pivot >>> 6) ? row[w] & ~(1L << pivot) : row[w];
+                    if (rest != 0){
+                        single = false;
+                        break;
+                    }
+                }
+                if (single){
+                    outVariables[num] = pivot;
+                    outValues[num] = this.rightHandSides[i];
+                    num++;
+                }
+            }
+        }
+        return num;
+    }
+
+    /**
+     *
+     * @param variable
+     * @return true if the variable is a pivot, i.e. its value is determined by the values of the non-pivot variables
+     */
+    public boolean isPivot(int variable){
+        return this.pivotRows[variable] != -1;
+    }
+
+    /**
+     * Computes the value of a pivot variable from the values of the non-pivot variables.
+     * @param variable a pivot variable
+     * @param values values of the variables, only the non-pivot variables of the row of the pivot are read
+     * @return value of the pivot variable
+     */
+    public boolean pivotValue(int variable, boolean[] values){
+        int row = this.pivotRows[variable];
+        boolean retVal = this.rightHandSides[row];
+        long[] r = this.rows[row];
+        for (int w = 0; w < this.words; w++){
+            long bits = r[w];
+            while (bits != 0){
+                int var = (w << 6) + Long.numberOfTrailingZeros(bits);
+                bits &= bits-1;
+                if (var != variable && values[var]){
+                    retVal = !retVal;
+                }
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Saves the current state of the system.
+     */
+    public void push(){
+        if (this.numSnapshots == this.snapshots.length){
+            this.snapshots = Arrays.copyOf(this.snapshots, 2*this.snapshots.length);
+        }
+        Snapshot snapshot = this.snapshots[this.numSnapshots];
+        if (snapshot == null){
+            snapshot = new Snapshot(this.rows.length, this.words, this.numVariables);
+            this.snapshots[this.numSnapshots] = snapshot;
+        }
+        for (int i = 0; i < this.rows.length; i++){
+            System.arraycopy(this.rows[i], 0, snapshot.rows[i], 0, this.words);
+        }
+        System.arraycopy(this.rightHandSides, 0, snapshot.rightHandSides, 0, this.rows.length);
+        System.arraycopy(this.pivots, 0, snapshot.pivots, 0, this.rows.length);
+        System.arraycopy(this.pivotRows, 0, snapshot.pivotRows, 0, this.numVariables);
+        snapshot.consistent = this.consistent;
+        this.numSnapshots++;
+    }
+
+    /**
+     * Restores the state saved by the last call of push().
+     */
+    public void pop(){
+        Snapshot snapshot = this.snapshots[--this.numSnapshots];
+        for (int i = 0; i < this.rows.length; i++){
+            System.arraycopy(snapshot.rows[i], 0, this.rows[i], 0, this.words);
+        }
+        System.arraycopy(snapshot.rightHandSides, 0, this.rightHandSides, 0, this.rows.length);
+        System.arraycopy(snapshot.pivots, 0, this.pivots, 0, this.rows.length);
+        System.arraycopy(snapshot.pivotRows, 0, this.pivotRows, 0, this.numVariables);
+        this.consistent = snapshot.consistent;
+    }
+
+    private static class Snapshot {
+
+        private long[][] rows;
+
+        private boolean[] rightHandSides;
+
+        private int[] pivots;
+
+        private int[] pivotRows;
+
+        private boolean consistent;
 
-//    private boolean[] certainOnes;
-//
-//    private boolean[] certainZeros;
-//
-//    //[A,b], i.e. the last column is the right-hand side of the equation
-//    private BitSet[] system;
-//
-//    private final static int SWAP = 1, ADD = 2, SET = 3, STOP = 4;
-//
-//
-//    //[op,i,j] ~ perform op on i-th and j-th row
-//    //[SWAP,i,j]
-//    //[ADD,i,j] ~ add i-th row to j-th row
-//    //[SET,row,column,value]
-//    private Stack<int[]> history = new Stack<int[]>();
-//
-//    private Stack<IntegerSet> termsInDomainsHistory = new Stack<IntegerSet>();
-//
-//    private XorConstraint(int numVars){
-//        this.certainOnes = new boolean[numVars];
-//        this.certainZeros = new boolean[numVars];
-//        this.termsInDomainsHistory.push(numVars);
-//    }
-//
-//    public XorConstraint(int numVars, boolean[][] leftHandSystem, boolean[] rightHandSystem, SubsumptionEngineJ2.ClauseC clauseC){
-//        this(numVars);
-//        this.setXorSystem(leftHandSystem, rightHandSystem);
-//    }
-//
-//    private void setXorSystem(boolean[][] left, boolean[] right){
-//        BitSet[] s = new BitSet[left.length];
-//        for (int i = 0; i < left.length; i++) {
-//            s[i] = VectorUtils.toBitSet(left[i]);
-//            s[i].set(left[i].length, right[i]);
-//        }
-//        this.system = s;
-//    }
-//
-//    public boolean propagate(boolean[] trues, boolean[] falses){
-//        this.history.push(new int[]{STOP});
-//        for (int i = 0; i < trues.length; i++){
-//
-//        }
-//        if (!transformToRowEchelon()){
-//            return false;
-//        }
-//
-//        throw new RuntimeException();
-//    }
-//
-//    private boolean set_simple(int termIndex, boolean value){
-//        if (value) {
-//            this.certainOnes[termIndex] = true;
-//        }
-//        if (!value){
-//            this.certainZeros[termIndex] = false;
-//        }
-//        for (int i = 0; i < this.system.length; i++){
-//            if (this.system[i].get(termIndex)) {
-//                history.add(new int[]{SET, i, termIndex, value ? 1 : 0});
-//                this.system[i].set(termIndex, false);
-//                this.system[i].set(certainOnes.length, this.system[i].get(certainOnes.length) ^ value);
-//                if (!isRowConsistent(i)){
-//                    return false;
-//                }
-//            }
-//        }
-//        return true;
-//    }
-//
-//    public void undoPropagation(){
-//        int[] h;
-//        while ((h = history.pop()) != null && h[0] != STOP){
-//            switch (h[0]){
-//                case SWAP:
-//                    swap(h[2], h[1], false);
-//                    break;
-//                case ADD:
-//                    add(h[1], h[2], false);
-//                    break;
-//                case SET:
-//                    this.certainOnes[h[2]] = false;
-//                    this.certainZeros[h[2]] = false;
-//                    this.system[h[1]].set(h[2], true);
-//                    this.system[h[1]].set(certainOnes.length, this.system[h[1]].get(certainOnes.length) ^ (h[3] == 1));
-//                    break;
-//            }
-//        }
-//        this.termsInDomainsHistory.pop();
-//    }
-//
-//    private boolean transformToRowEchelon(){
-//        for (int i = 0; i < system.length; i++) {
-//            int col = -1;
-//            int selected = 0;
-//            for (int j = i; j < system.length; j++) {
-//                int c = system[j].nextSetBit(0);
-//                //0 = 1
-//                if (c == certainOnes.length){
-//                    return false;
-//                }
-//                if (c != -1 && (c < col || col == -1)) {
-//                    selected = j;
-//                    col = c;
-//                }
-//            }
-//            if (col == -1){
-//                break;
-//            } else {
-//                if (selected > i){
-//                    swap(i, selected, true);
-//                }
-//                for (int j = i+1; j < system.length; j++){
-//                    if (system[j].get(col)){
-//                        add(i, j, true);
-//                    }
-//                }
-//            }
-//        }
-//        for (int i = 0; i < system.length; i++){
-//            if (!isRowConsistent(i)){
-//                return false;
-//            }
-//            int forcedOne = forcedOne(i);
-//            if (forcedOne != -1 && !this.certainOnes[forcedOne]){
-//                set_simple(forcedOne, true);
-//            }
-//        }
-//        return true;
-//    }
-//
-//    private int forcedOne(int row){
-//        int firstOne = system[row].nextSetBit(0);
-//        if (firstOne == -1){
-//            return -1;
-//        }
-//        int secondOne = system[row].nextSetBit(firstOne+1);
-//        if (secondOne == certainOnes.length){
-//            return firstOne;
-//        }
-//        return -1;
-//    }
-//
-//    private int forcedZero(int row){
-//        int firstOne = system[row].nextSetBit(0);
-//        if (firstOne == -1){
-//            return -1;
-//        }
-//        int secondOne = system[row].nextSetBit(firstOne+1);
-//        if (secondOne == -1){
-//            return firstOne;
-//        }
-//        return -1;
-//    }
-//
-//    private void swap(int i, int j, boolean history){
-//        if (i != j){
-//            if (history) {
-//                this.history.add(new int[]{SWAP, i, j});
-//            }
-//            BitSet temp = this.system[i];
-//            this.system[i] = this.system[j];
-//            this.system[j] = temp;
-//        }
-//    }
-//
-//    private void add(int what, int to, boolean history){
-//        if (history) {
-//            this.history.add(new int[]{ADD, what, to});
-//        }
-//        this.system[to].xor(this.system[what]);
-//    }
-//
-//    private boolean isRowConsistent(int row){
-//        int firstOne = system[row].nextSetBit(0);
-//        //0 = 1
-//        if (firstOne == certainOnes.length){
-//            return false;
-//        }
-//        //0 = 0
-//        if (firstOne == -1){
-//            return true;
-//        }
-//        return true;
-//    }
-//
-//    public boolean needsStrongPropagation(){
-//        return true;
-//    }
-//
-//    public static void main(String[] args){
-////        MaxCardXorConstraint constraint = new MaxCardXorConstraint();
-////        boolean[][] b = new boolean[][]{
-////                {true,true,false,true},
-////                {true,false,false,true},
-////                {false,true,true,true}
-////        };
-////        constraint.system = VectorUtils.toBitSets(b);
-////        constraint.numVariables = 3;
-////        constraint.maxCard = 2;
-////        Boolean suc = constraint.transformToRowEchelon();
-////        System.out.println(suc);
-////        System.out.println(Sugar.objectArrayToString(constraint.system));
-//    }
-
-}
\ No newline at end of file
+        private Snapshot(int numRows, int words, int numVariables){
+            this.rows = new long[numRows][words];
+            this.rightHandSides = new boolean[numRows];
+            this.pivots = new int[numRows];
+            this.pivotRows = new int[numVariables];
+        }
+    }
+}
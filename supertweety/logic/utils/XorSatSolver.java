@@ -0,0 +1,364 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.logic.utils;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.ilp.logic.LogicUtils;
+import ida.utils.Sugar;
+import ida.utils.collections.ValueToIndex;
+import supertweety.logic.GroundTheorySolver;
+import supertweety.logic.SatSolver;
+
+import java.util.*;
+
+/**
+ * In-process SAT solver for ground clauses combined with XOR constraints (clauses consisting of a single literal @xor(...),
+ * a positive literal requires an odd number of its arguments to be true, a negated literal an even number). Unlike
+ * GroundTheorySolver, which encodes every XOR constraint by Tseitin gates, the XOR constraints are kept in a
+ * XorConstraint system in reduced row-echelon form which is updated incrementally during a DPLL search, so XOR
+ * propagation and conflicts are found by Gaussian elimination. Once all clauses are satisfied, the remaining models
+ * are enumerated directly from the solution space of the XOR system (2^k models for k free variables), which makes
+ * the bounded enumeration of the models in one cell (as needed in ApproximateModelCounter) cheap.
+ *
+ * Problems containing @atleast or @atmost constraints are passed to GroundTheorySolver.
+ */
+public class XorSatSolver implements SatSolver {
+
+    private final static String ATLEAST = "@atleast", ATMOST = "@atmost", XOR = "@xor";
+
+    public Set<Literal> solve(Collection<Clause> satProblem){
+        List<Set<Literal>> sols = solveAll(satProblem, 1);
+        if (sols.isEmpty()){
+            return null;
+        }
+        return Sugar.chooseOne(sols);
+    }
+
+    public List<Set<Literal>> solveAll(Collection<Clause> satProblem, int maxCount) {
+        return solveAll(satProblem, Sugar.<Literal>set(), maxCount);
+    }
+
+    @Override
+    public List<Set<Literal>> solveAll(Collection<Clause> satProblem, Set<Literal> groundAtoms, int maxCount) {
+        for (Clause c : satProblem){
+            Set<String> predicates = c.predicates();
+            if (predicates.contains(ATLEAST) || predicates.contains(ATMOST)){
+                return new GroundTheorySolver(Sugar.setFromCollections(satProblem), groundAtoms).solveAll(maxCount);
+            }
+        }
+        return new Search(satProblem, groundAtoms).solveAll(maxCount);
+    }
+
+    private static class Search {
+
+        private ValueToIndex<Literal> atoms = new ValueToIndex<Literal>();
+
+        private boolean trivialConflict = false;
+
+        //clauses[c] = literals of the clause, literal = 2*variable (+1 if negated)
+        private int[][] clauses;
+
+        private int[][] occurrences;
+
+        private int[] numSatisfied, numFalsified;
+
+        private int numUnsatisfiedClauses;
+
+        private XorConstraint xors;
+
+        private int numVariables;
+
+        //0 = unassigned, 1 = true, -1 = false
+        private byte[] values;
+
+        private int[] trail;
+
+        private int trailSize = 0;
+
+        //clauses which became unit or empty since the last propagation
+        private int[] pending;
+
+        private int numPending = 0;
+
+        private int[] impliedVariables;
+
+        private boolean[] impliedValues;
+
+        private Search(Collection<Clause> satProblem, Set<Literal> groundAtoms){
+            for (Literal groundAtom : groundAtoms){
+                this.atoms.valueToIndex(groundAtom);
+            }
+            List<int[]> clauseList = new ArrayList<int[]>();
+            List<int[]> xorVariables = new ArrayList<int[]>();
+            List<Boolean> xorParities = new ArrayList<Boolean>();
+            for (Clause c : satProblem){
+                if (c.predicates().contains(XOR)){
+                    if (c.literals().size() > 1){
+                        throw new IllegalArgumentException("The predicate @xor can only be used on its own. Specifically it cannot be used in clauses containing anything else, at least in this version...");
+                    }
+                    Literal xor = Sugar.chooseOne(c.literals());
+                    int[] vars = new int[xor.arity()];
+                    for (int i = 0; i < vars.length; i++){
+                        vars[i] = this.atoms.valueToIndex(LogicUtils.termToLiteral(xor.get(i)));
+                    }
+                    xorVariables.add(vars);
+                    xorParities.add(!xor.isNegated());
+                } else {
+                    int[] clause = toIntClause(c);
+                    if (clause == null){
+                        continue;
+                    }
+                    if (clause.length == 0){
+                        this.trivialConflict = true;
+                    }
+                    clauseList.add(clause);
+                }
+            }
+            this.numVariables = this.atoms.size();
+            this.clauses = clauseList.toArray(new int[clauseList.size()][]);
+            this.xors = new XorConstraint(this.numVariables, xorVariables, xorParities);
+            if (!this.xors.isConsistent()){
+                this.trivialConflict = true;
+            }
+            int[] numOccurrences = new int[2*this.numVariables];
+            for (int[] clause : this.clauses){
+                for (int lit : clause){
+                    numOccurrences[lit]++;
+                }
+            }
+            this.occurrences = new int[2*this.numVariables][];
+            for (int lit = 0; lit < numOccurrences.length; lit++){
+                this.occurrences[lit] = new int[numOccurrences[lit]];
+                numOccurrences[lit] = 0;
+            }
+            for (int i = 0; i < this.clauses.length; i++){
+                for (int lit : this.clauses[i]){
+                    this.occurrences[lit][numOccurrences[lit]++] = i;
+                }
+            }
+            this.numSatisfied = new int[this.clauses.length];
+            this.numFalsified = new int[this.clauses.length];
+            this.numUnsatisfiedClauses = this.clauses.length;
+            this.values = new byte[this.numVariables];
+            this.trail = new int[this.numVariables];
+            //every clause is added at most twice (when it becomes unit and when it becomes empty) between two backtracks
+            this.pending = new int[2*this.clauses.length];
+            for (int i = 0; i < this.clauses.length; i++){
+                if (this.clauses[i].length == 1){
+                    this.pending[this.numPending++] = i;
+                }
+            }
+            this.impliedVariables = new int[xorVariables.size()];
+            this.impliedValues = new boolean[xorVariables.size()];
+        }
+
+        //returns null for tautologies
+        private int[] toIntClause(Clause c){
+            Set<Integer> lits = new HashSet<Integer>();
+            boolean tautology = false;
+            for (Literal l : c.literals()){
+                //the atoms of tautologies are still variables of the problem
+                int var = this.atoms.valueToIndex(l.isNegated() ? l.negation() : l);
+                int lit = 2*var + (l.isNegated() ? 1 : 0);
+                tautology |= lits.contains(lit ^ 1);
+                lits.add(lit);
+            }
+            if (tautology){
+                return null;
+            }
+            int[] retVal = new int[lits.size()];
+            int i = 0;
+            for (Integer lit : lits){
+                retVal[i++] = lit;
+            }
+            return retVal;
+        }
+
+        private List<Set<Literal>> solveAll(int maxCount){
+            List<Set<Literal>> retVal = new ArrayList<Set<Literal>>();
+            if (this.trivialConflict || maxCount == 0){
+                return retVal;
+            }
+            //decision literals and the trail sizes before them
+            int[] decisions = new int[this.numVariables];
+            int[] trailMarks = new int[this.numVariables];
+            boolean[] flipped = new boolean[this.numVariables];
+            int level = 0;
+            while (true) {
+                boolean conflict = !propagate();
+                if (!conflict){
+                    if (this.numUnsatisfiedClauses == 0){
+                        if (enumerate(retVal, maxCount)){
+                            return retVal;
+                        }
+                    } else {
+                        int lit = decisionLiteral();
+                        decisions[level] = lit;
+                        trailMarks[level] = this.trailSize;
+                        flipped[level] = false;
+                        level++;
+                        this.xors.push();
+                        assign(lit);
+                        continue;
+                    }
+                }
+                //backtracking (after a conflict or after all models in the current branch were enumerated)
+                while (true){
+                    if (level == 0){
+                        return retVal;
+                    }
+                    level--;
+                    undo(trailMarks[level]);
+                    this.xors.pop();
+                    if (!flipped[level]){
+                        flipped[level] = true;
+                        level++;
+                        this.xors.push();
+                        assign(decisions[level-1] ^ 1);
+                        break;
+                    }
+                }
+            }
+        }
+
+        private int decisionLiteral(){
+            for (int i = 0; i < this.clauses.length; i++){
+                if (this.numSatisfied[i] == 0){
+                    for (int lit : this.clauses[i]){
+                        if (this.values[lit >>> 1] == 0){
+                            return lit;
+                        }
+                    }
+                }
+            }
+            throw new IllegalStateException();
+        }
+
+        //returns false if the assignment is in conflict with the XOR constraints
+        private boolean assign(int lit){
+            int var = lit >>> 1;
+            boolean value = (lit & 1) == 0;
+            this.values[var] = (byte)(value ? 1 : -1);
+            this.trail[this.trailSize++] = var;
+            for (int c : this.occurrences[lit]){
+                if (this.numSatisfied[c]++ == 0){
+                    this.numUnsatisfiedClauses--;
+                }
+            }
+            for (int c : this.occurrences[lit ^ 1]){
+                if (++this.numFalsified[c] >= this.clauses[c].length-1 && this.numSatisfied[c] == 0){
+                    this.pending[this.numPending++] = c;
+                }
+            }
+            return this.xors.assign(var, value);
+        }
+
+        private void undo(int trailMark){
+            while (this.trailSize > trailMark){
+                int var = this.trail[--this.trailSize];
+                int lit = 2*var + (this.values[var] == 1 ? 0 : 1);
+                this.values[var] = 0;
+                for (int c : this.occurrences[lit]){
+                    if (--this.numSatisfied[c] == 0){
+                        this.numUnsatisfiedClauses++;
+                    }
+                }
+                for (int c : this.occurrences[lit ^ 1]){
+                    this.numFalsified[c]--;
+                }
+            }
+            this.numPending = 0;
+        }
+
+        //unit propagation over the clauses and the XOR constraints, returns false on conflict
+        private boolean propagate(){
+            if (!this.xors.isConsistent()){
+                this.numPending = 0;
+                return false;
+            }
+            while (true) {
+                while (this.numPending > 0) {
+                    int c = this.pending[--this.numPending];
+                    if (this.numSatisfied[c] > 0) {
+                        continue;
+                    }
+                    int unassigned = -1;
+                    for (int lit : this.clauses[c]) {
+                        if (this.values[lit >>> 1] == 0) {
+                            unassigned = lit;
+                            break;
+                        }
+                    }
+                    if (unassigned == -1 || !assign(unassigned)) {
+                        this.numPending = 0;
+                        return false;
+                    }
+                }
+                int numImplied = this.xors.impliedVariables(this.impliedVariables, this.impliedValues);
+                if (numImplied == 0){
+                    return true;
+                }
+                for (int i = 0; i < numImplied; i++){
+                    int var = this.impliedVariables[i];
+                    //an earlier implied assignment may have changed the rows of the system
+                    if (this.values[var] == 0 && !assign(2*var + (this.impliedValues[i] ? 0 : 1))){
+                        this.numPending = 0;
+                        return false;
+                    }
+                }
+            }
+        }
+
+        //enumerates the models of the XOR system over the unassigned variables, returns true if maxCount was reached
+        private boolean enumerate(List<Set<Literal>> retVal, int maxCount){
+            List<Integer> free = new ArrayList<Integer>();
+            List<Integer> pivots = new ArrayList<Integer>();
+            boolean[] assignment = new boolean[this.numVariables];
+            for (int var = 0; var < this.numVariables; var++){
+                if (this.values[var] == 0){
+                    if (this.xors.isPivot(var)){
+                        pivots.add(var);
+                    } else {
+                        free.add(var);
+                    }
+                } else {
+                    assignment[var] = this.values[var] == 1;
+                }
+            }
+            while (true){
+                Set<Literal> model = new HashSet<Literal>();
+                for (int var : pivots){
+                    assignment[var] = this.xors.pivotValue(var, assignment);
+                }
+                for (int var = 0; var < this.numVariables; var++){
+                    if (assignment[var]){
+                        model.add(this.atoms.indexToValue(var));
+                    }
+                }
+                retVal.add(model);
+                if (maxCount >= 0 && retVal.size() >= maxCount){
+                    return true;
+                }
+                //next assignment of the free variables (binary counter)
+                int i = 0;
+                while (i < free.size() && assignment[free.get(i)]){
+                    assignment[free.get(i)] = false;
+                    i++;
+                }
+                if (i == free.size()){
+                    return false;
+                }
+                assignment[free.get(i)] = true;
+            }
+        }
+    }
+}
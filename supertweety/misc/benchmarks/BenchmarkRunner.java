@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.misc.benchmarks;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Minimal harness for repeatable micro-benchmarks: every benchmark is run for a number of warm-up iterations
+ * (not measured) and then for a number of measured iterations. For every benchmark, the runner reports latency statistics
+ * per operation, bytes allocated per operation (summed over all live threads, when the JVM supports it) and the time spent in GC.
+ */
+public class BenchmarkRunner {
+
+    //checksum of the results of the operations, written so that the computations cannot be optimized away
+    private static volatile int sink;
+
+    private int warmupIterations = 5;
+
+    private int measurementIterations = 20;
+
+    public BenchmarkRunner(){}
+
+    public BenchmarkRunner(int warmupIterations, int measurementIterations){
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+    }
+
+    /**
+     * A benchmarked operation.
+     */
+    public interface Operation {
+
+        /**
+         * Performs one operation.
+         * @param iteration index of the iteration (can be used e.g. to select the input)
+         * @return any result of the computation (it is consumed by the runner so that the computation cannot be eliminated)
+         * @throws Exception
+         */
+        public Object run(int iteration) throws Exception;
+
+    }
+
+    /**
+     * Result of one benchmark.
+     */
+    public static class Result {
+
+        private String name;
+
+        private double[] millis;
+
+        private long allocatedBytes;
+
+        private long gcMillis;
+
+        private Result(String name, double[] millis, long allocatedBytes, long gcMillis){
+            this.name = name;
+            this.millis = millis;
+            this.allocatedBytes = allocatedBytes;
+            this.gcMillis = gcMillis;
+        }
+
+        public double mean(){
+            double sum = 0;
+            for (double m : millis){
+                sum += m;
+            }
+            return sum/millis.length;
+        }
+
+        public double percentile(double p){
+            double[] sorted = Arrays.copyOf(millis, millis.length);
+            Arrays.sort(sorted);
+            return sorted[Math.min(sorted.length-1, (int)Math.floor(p*sorted.length))];
+        }
+
+        /**
+         *
+         * @return bytes allocated per operation or -1 if it could not be measured
+         */
+        public double allocatedBytesPerOperation(){
+            return this.allocatedBytes < 0 ? -1 : this.allocatedBytes/(double)millis.length;
+        }
+
+        @Override
+        public String toString(){
+            return String.format(Locale.ENGLISH, "%-56s ops: %5d, mean: %10.3f ms/op, p50: %10.3f ms, p90: %10.3f ms, max: %10.3f ms, alloc: %12.0f B/op, gc: %6d ms",
+                    name, millis.length, mean(), percentile(0.5), percentile(0.9), percentile(1.0), allocatedBytesPerOperation(), gcMillis);
+        }
+    }
+
+    public Result run(String name, Operation operation) throws Exception {
+        int consumed = 0;
+        for (int i = 0; i < this.warmupIterations; i++){
+            consumed += consume(operation.run(i));
+        }
+        System.gc();
+        double[] millis = new double[this.measurementIterations];
+        long gcBefore = gcMillis();
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < this.measurementIterations; i++){
+            long m1 = System.nanoTime();
+            Object result = operation.run(i);
+            long m2 = System.nanoTime();
+            consumed += consume(result);
+            millis[i] = (m2-m1)/1e6;
+        }
+        long allocatedAfter = allocatedBytes();
+        long gcAfter = gcMillis();
+        Result result = new Result(name, millis, allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter-allocatedBefore, gcAfter-gcBefore);
+        sink = consumed;
+        System.out.println(result);
+        return result;
+    }
+
+    private static int consume(Object o){
+        return o == null ? 0 : o.hashCode();
+    }
+
+    private static long allocatedBytes(){
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)){
+            return -1;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+        if (!sunBean.isThreadAllocatedMemorySupported() || !sunBean.isThreadAllocatedMemoryEnabled()){
+            return -1;
+        }
+        long sum = 0;
+        for (long allocated : sunBean.getThreadAllocatedBytes(sunBean.getAllThreadIds())){
+            if (allocated > 0){
+                sum += allocated;
+            }
+        }
+        return sum;
+    }
+
+    private static long gcMillis(){
+        long sum = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()){
+            sum += Math.max(0, bean.getCollectionTime());
+        }
+        return sum;
+    }
+}
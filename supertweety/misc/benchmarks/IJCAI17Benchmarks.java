@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.misc.benchmarks;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Constant;
+import ida.ilp.logic.Literal;
+import ida.ilp.logic.LogicUtils;
+import ida.ilp.logic.io.EvidenceDatabase;
+import ida.ilp.logic.subsumption.Matching;
+import ida.utils.Combinatorics;
+import ida.utils.Sugar;
+import supertweety.SuperTweetyContradictionException;
+import supertweety.logic.TheorySolver;
+import supertweety.logic.utils.ComponentCachingModelCounter;
+import supertweety.possibilistic.RelationalPossibilisticLogicTheory;
+
+import java.io.File;
+import java.io.FileReader;
+import java.util.*;
+
+/**
+ * Offline performance baseline on the datasets bundled in datasets/ijcai17 (uwcse and yeast). For every dataset, it measures:
+ * latency of RelationalPossibilisticLogicTheory.solve per query (evidence = random subsets of test.db), throughput of
+ * Matching.subsumption (all rules of the theory against train.db), TheorySolver.groundAll (hard rules w.r.t. train.db restricted
+ * to a sample of its constants, both grounding backends) and exact model counting of the grounded hard rules over a small domain.
+ *
+ * Usage: IJCAI17Benchmarks [datasetsDirectory [warmupIterations measurementIterations]], the default directory is datasets/ijcai17.
+ * All random choices are seeded, so the inputs are the same in all runs.
+ */
+public class IJCAI17Benchmarks {
+
+    private final static String[] DATASETS = {"uwcse", "yeast"};
+
+    //number of queries (evidence sets) for the solve benchmark
+    private final static int NUM_QUERIES = 20;
+
+    //evidence size = this fraction of test.db
+    private final static double EVIDENCE_FRACTION = 0.1;
+
+    //number of constants of train.db to which the evidence is restricted in the grounding benchmark
+    //(the rules have to be grounded over all tuples of constants, which is not feasible for the whole database)
+    private final static int GROUNDING_DOMAIN = 10;
+
+    //size of the domain for model counting
+    private final static int MODEL_COUNTING_DOMAIN = 3;
+
+    private BenchmarkRunner runner;
+
+    public IJCAI17Benchmarks(BenchmarkRunner runner){
+        this.runner = runner;
+    }
+
+    public static Clause readDatabase(File file) throws Exception {
+        return EvidenceDatabase.read(file, true).toClause();
+    }
+
+    private static Clause readDatabaseByLines(File file) throws Exception {
+        List<Literal> literals = new ArrayList<Literal>();
+        for (String line : Sugar.readLines(new FileReader(file))){
+            line = line.trim();
+            if (line.length() > 0){
+                literals.add(Literal.parseLiteral(line));
+            }
+        }
+        //the databases use upper-case identifiers which would be parsed as variables
+        return LogicUtils.constantizeClause(new Clause(literals));
+    }
+
+    public void run(File folder) throws Exception {
+        String name = folder.getName();
+        final Clause train = readDatabase(new File(folder, "train.db"));
+        final Clause test = readDatabase(new File(folder, "test.db"));
+        final RelationalPossibilisticLogicTheory theory = RelationalPossibilisticLogicTheory.read(new FileReader(new File(folder, name+".poss")));
+        System.out.println(name+": train.db "+train.countLiterals()+" literals, test.db "+test.countLiterals()+" literals, "+
+                theory.hardRules().size()+" hard rules, "+theory.flatten().size()+" soft rules");
+
+        //loading train.db
+        final File trainFile = new File(folder, "train.db");
+        runner.run(name+": load train.db (Literal.parseLiteral)", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run(int iteration) throws Exception {
+                return readDatabaseByLines(trainFile).countLiterals();
+            }
+        });
+        runner.run(name+": load train.db (EvidenceDatabase + ClauseE)", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run(int iteration) throws Exception {
+                return new Matching(EvidenceDatabase.read(trainFile, true)).examples().size();
+            }
+        });
+
+        //RelationalPossibilisticLogicTheory.solve
+        Random random = new Random(1);
+        final List<Set<Literal>> queries = new ArrayList<Set<Literal>>();
+        List<Literal> testLiterals = Sugar.listFromCollections(test.literals());
+        int evidenceSize = Math.max(1, (int)(EVIDENCE_FRACTION*testLiterals.size()));
+        for (int i = 0; i < NUM_QUERIES; i++){
+            queries.add(Sugar.setFromCollections(Combinatorics.randomCombination(testLiterals, evidenceSize, random).toList()));
+        }
+        runner.run(name+": PLT.solve (per query)", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run(int iteration) throws Exception {
+                try {
+                    return theory.solve(queries.get(iteration % queries.size()));
+                } catch (SuperTweetyContradictionException stce){
+                    return null;
+                }
+            }
+        });
+
+        //Matching.subsumption
+        final List<Clause> rules = new ArrayList<Clause>();
+        for (Clause c : Sugar.union(theory.hardRules(), theory.flatten())){
+            rules.add(LogicUtils.flipSigns(c));
+        }
+        final Matching matching = new Matching(Sugar.<Clause>list(train));
+        runner.run(name+": Matching.subsumption ("+rules.size()+" rules)", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run(int iteration) throws Exception {
+                int covered = 0;
+                for (Clause rule : rules){
+                    if (matching.subsumption(rule, 0)){
+                        covered++;
+                    }
+                }
+                return covered;
+            }
+        });
+
+        //TheorySolver.groundAll
+        final Set<Clause> hardRules = theory.hardRules();
+        Set<Constant> groundingDomain = Sugar.setFromCollections(Combinatorics.randomCombination(
+                Sugar.listFromCollections(LogicUtils.constants(train)), Math.min(GROUNDING_DOMAIN, LogicUtils.constants(train).size()), random).toList());
+        final Set<Literal> groundingEvidence = new HashSet<Literal>();
+        for (Literal l : train.literals()){
+            if (groundingDomain.containsAll(l.terms())){
+                groundingEvidence.add(l);
+            }
+        }
+        for (final int groundingMode : new int[]{TheorySolver.SUBSUMPTION_GROUNDING, TheorySolver.JOIN_GROUNDING}){
+            runner.run(name+": TheorySolver.groundAll ("+(groundingMode == TheorySolver.JOIN_GROUNDING ? "joins" : "subsumption")+")", new BenchmarkRunner.Operation() {
+                @Override
+                public Object run(int iteration) throws Exception {
+                    TheorySolver ts = new TheorySolver();
+                    ts.setGroundingMode(groundingMode);
+                    return ts.groundAll(hardRules, groundingEvidence, Sugar.<Literal>set()).size();
+                }
+            });
+        }
+
+        //model counting
+        Set<Constant> domain = new HashSet<Constant>();
+        for (int i = 0; i < MODEL_COUNTING_DOMAIN; i++){
+            domain.add(Constant.construct("c"+i));
+        }
+        Set<Literal> allAtoms = LogicUtils.allGroundAtoms(LogicUtils.predicates(hardRules, true), domain);
+        final List<Clause> groundTheory = new ArrayList<Clause>();
+        for (Clause c : new TheorySolver().groundAll(hardRules, Sugar.<Literal>set(), allAtoms)){
+            groundTheory.add(c);
+        }
+        runner.run(name+": ComponentCachingModelCounter ("+groundTheory.size()+" clauses)", new BenchmarkRunner.Operation() {
+            @Override
+            public Object run(int iteration) throws Exception {
+                return new ComponentCachingModelCounter().modelCount(groundTheory);
+            }
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        File root = new File(args.length > 0 ? args[0] : "datasets/ijcai17");
+        BenchmarkRunner runner = args.length > 2 ? new BenchmarkRunner(Integer.parseInt(args[1]), Integer.parseInt(args[2])) : new BenchmarkRunner();
+        IJCAI17Benchmarks benchmarks = new IJCAI17Benchmarks(runner);
+        for (String dataset : DATASETS){
+            benchmarks.run(new File(root, dataset));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015 Ondrej Kuzelka
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package supertweety.possibilistic;
+
+import ida.ilp.logic.Clause;
+import ida.ilp.logic.Literal;
+import ida.ilp.logic.LogicUtils;
+import ida.utils.Sugar;
+import supertweety.logic.GroundTheorySolver;
+
+import java.util.*;
+
+/**
+ * Solving session for ground possibilistic logic theories. The hard rules and all levels of the theory
+ * are loaded into one SAT instance, each level guarded by its own selector atom, and alpha-cuts
+ * are then solved just by assuming the selectors of the levels which they contain. This way the clauses
+ * are translated only once and the clauses learned by the SAT solver are shared between the consecutive
+ * calls (e.g. between the steps of the binary search in {@link PossibilisticLogicTheory#solve(Collection)}).
+ *
+ * The session reflects the theory at the time of its construction, it needs to be recreated
+ * whenever the theory changes.
+ */
+public class GroundPossibilisticSolver {
+
+    private GroundTheorySolver solver;
+
+    private TreeMap<Double,Literal> selectors = new TreeMap<Double,Literal>();
+
+    public GroundPossibilisticSolver(PossibilisticLogicTheory plt){
+        if (!plt.isGround()){
+            throw new IllegalArgumentException("GroundPossibilisticSolver can be used only with ground theories.");
+        }
+        List<Double> weights = Sugar.listFromCollections(plt.weights());
+        //the selectors get the reserved "$" prefix (so they cannot clash with atoms of the evidence) and names which do not
+        //appear in the theory
+        List<String> selectorNames = LogicUtils.freshPredicateNames(LogicUtils.predicateNames(plt.flatten(), plt.hardRules()), "$selector", weights.size());
+        List<Clause> clauses = new ArrayList<Clause>(plt.hardRules());
+        for (int i = 0; i < weights.size(); i++){
+            Literal selector = new Literal(selectorNames.get(i));
+            this.selectors.put(weights.get(i), selector);
+            for (Clause rule : plt.level(weights.get(i))){
+                clauses.add(new Clause(Sugar.union(rule.literals(), selector.negation())));
+            }
+        }
+        this.solver = new GroundTheorySolver(clauses);
+        //the selectors appear only negated, so the preprocessing would eliminate them as pure literals with all the levels
+        this.solver.freeze(this.selectors.values());
+    }
+
+    /**
+     * Finds a model of the alpha-cut of the theory (including its hard rules) and the evidence.
+     * @param alpha the level of the alpha-cut
+     * @param evidence ground literals which must be true in the model
+     * @return the model (without the selector atoms) or null if the alpha-cut is inconsistent with the evidence
+     */
+    public synchronized Set<Literal> solve(double alpha, Collection<Literal> evidence){
+        List<Literal> assumptions = new ArrayList<Literal>(evidence.size()+this.selectors.size());
+        assumptions.addAll(evidence);
+        for (Map.Entry<Double,Literal> entry : this.selectors.entrySet()){
+            if (entry.getKey() >= alpha){
+                assumptions.add(entry.getValue());
+            } else {
+                assumptions.add(entry.getValue().negation());
+            }
+        }
+        Set<Literal> solution = this.solver.solve(assumptions);
+        if (solution != null){
+            solution.removeAll(this.selectors.values());
+        }
+        return solution;
+    }
+
+}
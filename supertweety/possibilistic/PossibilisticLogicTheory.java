@@ -21,6 +21,7 @@ import ida.ilp.logic.LogicUtils;
 import ida.utils.Cache;
 import ida.utils.Sugar;
 import ida.utils.VectorUtils;
+import ida.utils.WorkerPool;
 import ida.utils.collections.DoubleCounters;
 import ida.utils.collections.MultiMap;
 import ida.utils.tuples.Pair;
@@ -35,6 +36,8 @@ import supertweety.probabilistic.DiscreteProbabilityDistribution;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static ida.utils.Sugar.collectionDifference;
 import static ida.utils.Sugar.union;
@@ -65,10 +68,21 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
 
     private Boolean isConsistent = null;
 
-    private final static Cache<Set<Clause>,Set<Literal>> cache = new Cache<Set<Clause>,Set<Literal>>();
+    private GroundPossibilisticSolver groundSolver;
+
+    //bounded by the total number of clauses of the cached problems and atoms of their solutions
+    private final static Cache<Set<Clause>,Set<Literal>> cache = new Cache<Set<Clause>,Set<Literal>>(1 << 22, new Cache.Weigher<Set<Clause>,Set<Literal>>() {
+        @Override
+        public int weigh(Set<Clause> key, Set<Literal> value) {
+            return key.size() + value.size();
+        }
+    });
 
     private final static Set<Literal> NIL_SOLUTION = new HashSet<Literal>();
 
+    //maximum number of queries answered in parallel by solveAll(...)
+    private int parallelism = WorkerPool.parallelism();
+
 
     static {
         Logging.init();
@@ -157,6 +171,7 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
         this.rules = newMM;
         this.weights = newWeightsTreeSet;
         this.weightOfFalsity = newWeightOfFalsity;
+        this.groundSolver = null;
     }
 
     private void set(MultiMap<Double,Clause> rules){
@@ -168,6 +183,7 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
         }
         this.isGround = null;
         this.isConsistent = null;
+        this.groundSolver = null;
     }
 
     public void addRule(Clause rule, double weight){
@@ -177,6 +193,7 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
             this.isGround = Boolean.FALSE;
         }
         this.isConsistent = null;
+        this.groundSolver = null;
     }
 
     public void addHardRule(Clause hardRule){
@@ -185,6 +202,7 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
             this.isGround = false;
         }
         this.isConsistent = null;
+        this.groundSolver = null;
     }
 
     public void remove(Clause rule, double weight){
@@ -193,12 +211,14 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
             this.weights.remove(weight);
         }
         this.isConsistent = null;
+        this.groundSolver = null;
     }
 
     public void removeHardRule(Clause hardRule){
         this.hardRules.remove(hardRule);
         this.isGround = null;
         this.isConsistent = null;
+        this.groundSolver = null;
     }
 
     public void remove(Clause rule){
@@ -248,6 +268,14 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
         this.weightOfFalsity = weightOfFalsity;
     }
 
+    /**
+     *
+     * @param parallelism maximum number of queries answered in parallel by solveAll(...)
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
     // End of edit-methods...
     // and beginning of inference methods
 
@@ -282,14 +310,226 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
         }
     }
 
+    /**
+     * Answers a batch of queries. The i-th element of the returned list has the same inconsistency level as
+     * solve(evidence.get(i)) and a model of the respective alpha-cut and the evidence (not necessarily the same one),
+     * or it is null if the evidence is inconsistent with the hard rules. Identical evidence sets are answered only once
+     * and the queries are answered in parallel (see setParallelism(int)).
+     *
+     * Ground theories are compiled only once for the whole batch: the theory is split into independent subtheories
+     * (connected components w.r.t. shared atoms), every query is answered from the results of the subtheories for
+     * its evidence restricted to them and these results are shared by all queries of the batch.
+     *
+     * @param evidence the evidence sets
+     * @return list of pairs (model, inconsistency level) or nulls, in the order of the evidence sets
+     */
+    public List<Pair<Set<Literal>,Double>> solveAll(List<? extends Collection<Literal>> evidence){
+        final List<Pair<Set<Literal>,Double>> results = new ArrayList<Pair<Set<Literal>,Double>>(Collections.<Pair<Set<Literal>,Double>>nCopies(evidence.size(), null));
+        Map<Set<Literal>,List<Integer>> queries = new LinkedHashMap<Set<Literal>,List<Integer>>();
+        for (int i = 0; i < evidence.size(); i++){
+            Set<Literal> e = Sugar.setFromCollections(evidence.get(i));
+            List<Integer> indices = queries.get(e);
+            if (indices == null){
+                indices = new ArrayList<Integer>();
+                queries.put(e, indices);
+            }
+            indices.add(i);
+        }
+        final GroundComponents components = !USE_CACHING && this.isGround() ? new GroundComponents() : null;
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final Map.Entry<Set<Literal>,List<Integer>> query : queries.entrySet()){
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    Pair<Set<Literal>,Double> result;
+                    if (components != null){
+                        result = components.solve(query.getKey());
+                    } else {
+                        try {
+                            result = solve(query.getKey());
+                        } catch (SuperTweetyContradictionException stce){
+                            result = null;
+                        }
+                    }
+                    for (int index : query.getValue()){
+                        results.set(index, result == null || index == query.getValue().get(0) ? result : new Pair<Set<Literal>,Double>(new HashSet<Literal>(result.r), result.s));
+                    }
+                }
+            });
+        }
+        WorkerPool.invokeAll(tasks, this.parallelism);
+        return results;
+    }
+
+    /**
+     * Independent subtheories of a ground theory. The inconsistency level of the theory and evidence is the maximum of
+     * the inconsistency levels of the subtheories and the evidence restricted to them (with the evidence on atoms which
+     * do not appear in the theory being consistent unless it contains complementary literals), and the union of models of
+     * the subtheories at their own inconsistency levels is a model of the alpha-cut at the maximum level.
+     */
+    private class GroundComponents {
+
+        private final double[] levels;
+
+        private final Map<Literal,Integer> atomsToComponents = new HashMap<Literal,Integer>();
+
+        private final List<PossibilisticLogicTheory> components = new ArrayList<PossibilisticLogicTheory>();
+
+        //GroundPossibilisticSolver.solve(...) is synchronized, so one solver answers only one query at a time; every component
+        //has a pool of solvers so that queries on the same component can run in parallel
+        private final List<ConcurrentLinkedQueue<GroundPossibilisticSolver>> solvers = new ArrayList<ConcurrentLinkedQueue<GroundPossibilisticSolver>>();
+
+        //(component, evidence restricted to it) -> (index of its inconsistency level or levels.length, model or null if it violates the hard rules)
+        private final Map<Pair<Integer,Set<Literal>>,Pair<Integer,Set<Literal>>> solutions = new ConcurrentHashMap<Pair<Integer,Set<Literal>>,Pair<Integer,Set<Literal>>>();
+
+        private GroundComponents(){
+            this.levels = VectorUtils.toDoubleArray(rules.keySet());
+            Arrays.sort(this.levels);
+            List<Pair<Clause,Double>> clauses = new ArrayList<Pair<Clause,Double>>();
+            for (Clause hardRule : hardRules){
+                clauses.add(new Pair<Clause,Double>(hardRule, Double.POSITIVE_INFINITY));
+            }
+            for (Map.Entry<Double,Set<Clause>> entry : rules.entrySet()){
+                for (Clause rule : entry.getValue()){
+                    clauses.add(new Pair<Clause,Double>(rule, entry.getKey()));
+                }
+            }
+            //union-find over the atoms
+            Map<Literal,Literal> parents = new HashMap<Literal,Literal>();
+            for (Pair<Clause,Double> clause : clauses){
+                Literal first = null;
+                for (Literal l : clause.r.literals()){
+                    Literal atom = find(l.isNegated() ? l.negation() : l, parents);
+                    if (first == null){
+                        first = atom;
+                    } else if (!first.equals(atom)){
+                        parents.put(atom, first);
+                    }
+                }
+            }
+            Map<Literal,Integer> rootsToComponents = new HashMap<Literal,Integer>();
+            for (Pair<Clause,Double> clause : clauses){
+                Integer component;
+                if (clause.r.literals().isEmpty()){
+                    component = null;
+                } else {
+                    Literal l = Sugar.chooseOne(clause.r.literals());
+                    Literal root = find(l.isNegated() ? l.negation() : l, parents);
+                    if ((component = rootsToComponents.get(root)) == null){
+                        rootsToComponents.put(root, component = this.components.size());
+                    }
+                }
+                if (component == null || component == this.components.size()){
+                    this.components.add(new PossibilisticLogicTheory());
+                    this.solvers.add(new ConcurrentLinkedQueue<GroundPossibilisticSolver>());
+                    component = this.components.size()-1;
+                }
+                if (clause.s == Double.POSITIVE_INFINITY){
+                    this.components.get(component).addHardRule(clause.r);
+                } else {
+                    this.components.get(component).addRule(clause.r, clause.s);
+                }
+            }
+            for (Literal atom : parents.keySet()){
+                this.atomsToComponents.put(atom, rootsToComponents.get(find(atom, parents)));
+            }
+        }
+
+        private Literal find(Literal atom, Map<Literal,Literal> parents){
+            Literal parent = parents.get(atom);
+            if (parent == null){
+                parents.put(atom, atom);
+                return atom;
+            }
+            if (parent.equals(atom)){
+                return atom;
+            }
+            Literal root = find(parent, parents);
+            parents.put(atom, root);
+            return root;
+        }
+
+        private Pair<Set<Literal>,Double> solve(Set<Literal> evidence){
+            Map<Integer,Set<Literal>> evidenceOfComponents = new HashMap<Integer,Set<Literal>>();
+            Set<Literal> model = new HashSet<Literal>();
+            for (Literal l : evidence){
+                Integer component = this.atomsToComponents.get(l.isNegated() ? l.negation() : l);
+                if (component == null){
+                    if (evidence.contains(l.negation())){
+                        return null;
+                    }
+                    if (!l.isNegated()){
+                        model.add(l);
+                    }
+                } else {
+                    Set<Literal> e = evidenceOfComponents.get(component);
+                    if (e == null){
+                        evidenceOfComponents.put(component, e = new HashSet<Literal>());
+                    }
+                    e.add(l);
+                }
+            }
+            int level = 0;
+            for (int i = 0; i < this.components.size(); i++){
+                Set<Literal> e = evidenceOfComponents.get(i);
+                Pair<Integer,Set<Literal>> solution = solution(i, e == null ? Collections.<Literal>emptySet() : e);
+                if (solution.s == null){
+                    return null;
+                }
+                level = Math.max(level, solution.r);
+                model.addAll(solution.s);
+            }
+            return new Pair<Set<Literal>,Double>(model, level < this.levels.length ? this.levels[level] : Double.POSITIVE_INFINITY);
+        }
+
+        private Pair<Integer,Set<Literal>> solution(int component, Set<Literal> evidence){
+            Pair<Integer,Set<Literal>> key = new Pair<Integer,Set<Literal>>(component, evidence);
+            Pair<Integer,Set<Literal>> solution = this.solutions.get(key);
+            if (solution == null){
+                GroundPossibilisticSolver solver = this.solvers.get(component).poll();
+                if (solver == null){
+                    solver = new GroundPossibilisticSolver(this.components.get(component));
+                }
+                try {
+                    solution = solve(solver, evidence);
+                } finally {
+                    this.solvers.get(component).offer(solver);
+                }
+                this.solutions.put(key, solution);
+            }
+            return solution;
+        }
+
+        //binary search for the inconsistency level as in PossibilisticLogicTheory.solve(Collection)
+        private Pair<Integer,Set<Literal>> solve(GroundPossibilisticSolver solver, Set<Literal> evidence){
+            int min = 0;
+            int max = this.levels.length-1;
+            Set<Literal> solution = null;
+            int solutionLevel = this.levels.length;
+            while (max >= min){
+                int mid = (min+max)/2;
+                Set<Literal> currentSolution = null;
+                if ((currentSolution = solver.solve(this.levels[mid], evidence)) != null){
+                    max = mid-1;
+                    solution = currentSolution;
+                    solutionLevel = mid;
+                } else {
+                    min = mid+1;
+                }
+            }
+            if (solution == null){
+                solution = solver.solve(Double.POSITIVE_INFINITY, evidence);
+            }
+            return new Pair<Integer,Set<Literal>>(solutionLevel, solution);
+        }
+    }
+
     private static double cached = 0, noncached = 0;
 
     private Set<Literal> solveSatProblem(Set<Clause> satProblem){
         Set<Literal> solution;
         if (USE_CACHING) {
-            synchronized (cache) {
-                solution = cache.get(satProblem);
-            }
+            solution = cache.get(satProblem);
             if (solution != null) {
                 cached++;
                 if (solution == NIL_SOLUTION) {
@@ -313,12 +553,10 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
                     GroundTheorySolver gts = new GroundTheorySolver(satProblem);
                     solution = gts.solve();
                 }
-                synchronized (cache) {
-                    if (solution == null) {
-                        cache.put(satProblem, NIL_SOLUTION);
-                    } else {
-                        cache.put(satProblem, solution);
-                    }
+                if (solution == null) {
+                    cache.put(satProblem, NIL_SOLUTION);
+                } else {
+                    cache.put(satProblem, solution);
                 }
                 return solution;
             }
@@ -359,7 +597,7 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
             return true;
         }
         Pair<Set<Literal>,Double> aSolutionForEvidence = solve(antecedent);
-        Set<Literal> solution = solveSatProblem(Sugar.union(this.getAlphaCut(aSolutionForEvidence.s), wrapLiteralsToClauses(antecedent), wrapLiteralsToClauses(LogicUtils.flipSigns(consequent).literals())));
+        Set<Literal> solution = solve(aSolutionForEvidence.s, Sugar.union(antecedent, LogicUtils.flipSigns(consequent).literals()));
         if (solution == null){
             return true;
         }
@@ -422,11 +660,20 @@ public class PossibilisticLogicTheory implements DiscreteProbabilityDistribution
             } else {
                 return null;
             }
+        } else if (!USE_CACHING && this.isGround()) {
+            return groundSolver().solve(alpha, evidence);
         } else {
             return solveSatProblem(Sugar.union(this.hardRules, this.getAlphaCut(alpha), wrapLiteralsToClauses(evidence)));
         }
     }
 
+    private synchronized GroundPossibilisticSolver groundSolver(){
+        if (this.groundSolver == null){
+            this.groundSolver = new GroundPossibilisticSolver(this);
+        }
+        return this.groundSolver;
+    }
+
     public boolean isConsistent(){
         if (this.isConsistent == null){
             Set<Literal> solution = this.solveSatProblem(Sugar.setFromCollections(this.hardRules, Sugar.flatten(this.rules.values())));
@@ -23,7 +23,6 @@ import ida.utils.*;
 import ida.utils.collections.MultiMap;
 import ida.utils.tuples.Pair;
 import supertweety.SuperTweetyContradictionException;
-import supertweety.logic.ApproximateModelCounter;
 import supertweety.logic.ModelCounter;
 import supertweety.logic.TheorySolver;
 import supertweety.misc.Logging;
@@ -35,6 +34,7 @@ import supertweety.shorty.ModelCounterFactory;
 import java.io.Reader;
 import java.math.BigInteger;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static ida.utils.Sugar.collectionDifference;
 
@@ -61,10 +61,19 @@ public class RelationalPossibilisticLogicTheory {
 
     private Boolean isConsistent = null;
 
-    private final static Cache<Set<Clause>,Set<Literal>> cache = new Cache<Set<Clause>,Set<Literal>>();
+    //bounded by the total number of clauses of the cached problems and atoms of their solutions
+    private final static Cache<Set<Clause>,Set<Literal>> cache = new Cache<Set<Clause>,Set<Literal>>(1 << 22, new Cache.Weigher<Set<Clause>,Set<Literal>>() {
+        @Override
+        public int weigh(Set<Clause> key, Set<Literal> value) {
+            return key.size() + value.size();
+        }
+    });
 
     private final static Set<Literal> NIL_SOLUTION = new HashSet<Literal>();
 
+    //maximum number of queries answered in parallel by solveAll(...)
+    private int parallelism = WorkerPool.parallelism();
+
 
     static {
         Logging.init();
@@ -204,20 +213,32 @@ public class RelationalPossibilisticLogicTheory {
         this.weightOfFalsity = weightOfFalsity;
     }
 
+    /**
+     *
+     * @param parallelism maximum number of queries answered in parallel by solveAll(...)
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
     // End of edit-methods...
     // and beginning of inference methods
 
     public Pair<Set<Literal>,Double> solve(Collection<Literal> evidence) {
-        double[] levels = VectorUtils.toDoubleArray(this.rules.keySet());
-        Arrays.sort(levels);
+        return solve(evidence, new AlphaCuts());
+    }
+
+    private Pair<Set<Literal>,Double> solve(Collection<Literal> evidence, AlphaCuts alphaCuts) {
+        double[] levels = alphaCuts.levels;
         int min = 0;
         int max = levels.length-1;
         Set<Literal> solution = null;
         double solutionLevel = Double.NaN;
+        Set<Clause> evidenceClauses = wrapLiteralsToClauses(evidence);
         while (max >= min){
             int mid = (min+max)/2;
             Set<Literal> currentSolution = null;
-            if ((currentSolution = this.solve(levels[mid], evidence)) != null){
+            if ((currentSolution = this.solveSatProblem(Sugar.union(alphaCuts.get(mid), evidenceClauses))) != null){
                 max = mid-1;
                 solution = currentSolution;
                 solutionLevel = levels[mid];
@@ -227,7 +248,7 @@ public class RelationalPossibilisticLogicTheory {
         }
         //Maybe it completely drowns but it still satisfies the hard constraints...
         if (solution == null){
-            solution = this.solve(Double.POSITIVE_INFINITY, evidence);
+            solution = this.solveSatProblem(Sugar.union(alphaCuts.get(levels.length), evidenceClauses));
             if (solution == null){
                 throw new SuperTweetyContradictionException("Hard rules of the theory are violated");
             } else {
@@ -238,14 +259,83 @@ public class RelationalPossibilisticLogicTheory {
         }
     }
 
+    /**
+     * Answers a batch of queries. The i-th element of the returned list is the result of solve(evidence.get(i))
+     * (the returned model may be a different one) or null if the evidence is inconsistent with the hard rules.
+     * The alpha-cuts of the theory are constructed only once for the whole batch, identical evidence sets are answered
+     * only once and the queries are answered in parallel (see setParallelism(int)).
+     *
+     * Unlike in PossibilisticLogicTheory.solveAll(...), the queries are not split among independent subtheories because the rules
+     * are grounded over the constants of the current model, so subtheories with disjoint predicates still interact via the domain.
+     *
+     * @param evidence the evidence sets
+     * @return list of pairs (model, inconsistency level) or nulls, in the order of the evidence sets
+     */
+    public List<Pair<Set<Literal>,Double>> solveAll(List<? extends Collection<Literal>> evidence){
+        final List<Pair<Set<Literal>,Double>> results = new ArrayList<Pair<Set<Literal>,Double>>(Collections.<Pair<Set<Literal>,Double>>nCopies(evidence.size(), null));
+        Map<Set<Literal>,List<Integer>> queries = new LinkedHashMap<Set<Literal>,List<Integer>>();
+        for (int i = 0; i < evidence.size(); i++){
+            Set<Literal> e = Sugar.setFromCollections(evidence.get(i));
+            List<Integer> indices = queries.get(e);
+            if (indices == null){
+                indices = new ArrayList<Integer>();
+                queries.put(e, indices);
+            }
+            indices.add(i);
+        }
+        final AlphaCuts alphaCuts = new AlphaCuts();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final Map.Entry<Set<Literal>,List<Integer>> query : queries.entrySet()){
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    Pair<Set<Literal>,Double> result;
+                    try {
+                        result = solve(query.getKey(), alphaCuts);
+                    } catch (SuperTweetyContradictionException stce){
+                        result = null;
+                    }
+                    for (int index : query.getValue()){
+                        results.set(index, result == null || index == query.getValue().get(0) ? result : new Pair<Set<Literal>,Double>(new HashSet<Literal>(result.r), result.s));
+                    }
+                }
+            });
+        }
+        WorkerPool.invokeAll(tasks, this.parallelism);
+        return results;
+    }
+
+    /**
+     * Levels of the theory and the hard rules together with the alpha-cuts at these levels (index levels.length stands for the hard rules only),
+     * the alpha-cuts are constructed lazily.
+     */
+    private class AlphaCuts {
+
+        private final double[] levels;
+
+        private final Map<Integer,Set<Clause>> cuts = new ConcurrentHashMap<Integer,Set<Clause>>();
+
+        private AlphaCuts(){
+            this.levels = VectorUtils.toDoubleArray(rules.keySet());
+            Arrays.sort(this.levels);
+        }
+
+        private Set<Clause> get(int levelIndex){
+            Set<Clause> cut = this.cuts.get(levelIndex);
+            if (cut == null){
+                cut = Sugar.union(hardRules, getAlphaCut(levelIndex < this.levels.length ? this.levels[levelIndex] : Double.POSITIVE_INFINITY));
+                this.cuts.put(levelIndex, cut);
+            }
+            return cut;
+        }
+    }
+
     private static double cached = 0, noncached = 0;
 
     private Set<Literal> solveSatProblem(Set<Clause> satProblem){
         Set<Literal> solution;
         if (USE_CACHING) {
-            synchronized (cache) {
-                solution = cache.get(satProblem);
-            }
+            solution = cache.get(satProblem);
             if (solution != null) {
                 cached++;
                 if (solution == NIL_SOLUTION) {
@@ -263,12 +353,10 @@ public class RelationalPossibilisticLogicTheory {
                     }
                 }
                 newTS().solve(satProblem, Sugar.<Literal>set(), constantIntroduction == null ? Sugar.<Literal>set() : Sugar.<Literal>set(constantIntroduction));
-                synchronized (cache) {
-                    if (solution == null) {
-                        cache.put(satProblem, NIL_SOLUTION);
-                    } else {
-                        cache.put(satProblem, solution);
-                    }
+                if (solution == null) {
+                    cache.put(satProblem, NIL_SOLUTION);
+                } else {
+                    cache.put(satProblem, solution);
                 }
                 return solution;
             }
@@ -371,6 +459,21 @@ public class RelationalPossibilisticLogicTheory {
     }
 
     public RelationalPossibilisticLogicTheory maximumLikelihoodWeightEstimation(RelationalDataset dataset, int k, ModelCounterFactory mcf, MutableDouble logLikelihood_out){
+        return maximumLikelihoodWeightEstimation(dataset, k, mcf, logLikelihood_out, null);
+    }
+
+    /**
+     * Estimates the weights of the levels of this theory by maximizing likelihood.
+     * @param dataset the dataset
+     * @param k size of the subsets of constants
+     * @param mcf factory for model counters
+     * @param logLikelihood_out the log-likelihood of the resulting theory is stored here
+     * @param initialPoint starting point for the optimization (warm start) or null, it is given as the values (i.e. -weights) of the falsity level
+     *                     followed by the values of the levels of this theory, ordered by increasing weight (i.e. as in a theory returned by this method);
+     *                     it is used only if it has the right dimension and can be made strictly feasible by scaling
+     * @return the theory with estimated weights or null if the optimization failed
+     */
+    public RelationalPossibilisticLogicTheory maximumLikelihoodWeightEstimation(RelationalDataset dataset, int k, ModelCounterFactory mcf, MutableDouble logLikelihood_out, double[] initialPoint){
         RelationalPossibilisticLogicTheory plt = RelationalPossibilisticLogicTheory.fromStratification(this.removeDrownedLevels(k).toLevelList(), hardRules());
         RelationalPossibilisticLogicTheory pltWithoutHardRules = RelationalPossibilisticLogicTheory.fromStratification(this.removeDrownedLevels(k).toLevelList());
         plt.addRule(new Clause(new HashSet<Literal>()), 0);
@@ -406,15 +509,13 @@ public class RelationalPossibilisticLogicTheory {
         int index = 0;
         for (double alpha : plt.weights()){
             List<Clause> alphaCut = plt.getAlphaCut(alpha);
-            ApproximateModelCounter amc = mcf.create(alphaCut, plt.freshConstants(k), plt.allAtoms(k));
-            logModelCounts[index] = amc.logApproxCount()/*+collectionDifference(plt.allAtoms(k), plt.allAtoms(alphaCut, k)).size()*/;
+            logModelCounts[index] = mcf.logApproxCount(alphaCut, plt.freshConstants(k), plt.allAtoms(k))/*+collectionDifference(plt.allAtoms(k), plt.allAtoms(alphaCut, k)).size()*/;
             index++;
         }
         if (plt.hardRules.isEmpty()){
             logModelCounts[index] = collectionDifference(plt.allAtoms(k), plt.allAtoms(plt.hardRules(), k)).size();
         } else {
-            ApproximateModelCounter amc = mcf.create(plt.hardRules(), plt.freshConstants(k), plt.allAtoms(k));
-            logModelCounts[index] = amc.logApproxCount()/*+collectionDifference(plt.allAtoms(k), plt.allAtoms(this.hardRules(), k)).size()*/;
+            logModelCounts[index] = mcf.logApproxCount(plt.hardRules(), plt.freshConstants(k), plt.allAtoms(k))/*+collectionDifference(plt.allAtoms(k), plt.allAtoms(this.hardRules(), k)).size()*/;
         }
 
         //coping with estimation "noise"
@@ -435,9 +536,12 @@ public class RelationalPossibilisticLogicTheory {
         inequalities[inequalities.length-1] = new LogTransformedPosynomial(normalizationIneqExponents, normalizationIneqCoeffs);
 
         //initialization point
-        double[] init = VectorUtils.doubleSequence(E.length,1.0,-1.0);
-        VectorUtils.multiply(init, 0.9/VectorUtils.sum(init));
-        VectorUtils.multiply(init, 1.0/Math.exp(logModelCounts[logModelCounts.length-1])*Math.log(2));
+        double[] init = warmStart(initialPoint, normalizationIneqCoeffs);
+        if (init == null) {
+            init = VectorUtils.doubleSequence(E.length, 1.0, -1.0);
+            VectorUtils.multiply(init, 0.9 / VectorUtils.sum(init));
+            VectorUtils.multiply(init, 1.0 / Math.exp(logModelCounts[logModelCounts.length - 1]) * Math.log(2));
+        }
         for (int i = 0; i < init.length; i++){
             init[i] = Math.log(init[i]);
         }
@@ -491,6 +595,32 @@ public class RelationalPossibilisticLogicTheory {
         return retVal;
     }
 
+    /**
+     * Makes the given point strictly feasible w.r.t. the constraints of the weight-estimation problem (the values must be strictly decreasing
+     * and satisfy the normalization inequality, which is achieved by scaling).
+     * @return the strictly feasible point (not in log-space) or null if the given point cannot be used
+     */
+    private static double[] warmStart(double[] initialPoint, double[] normalizationIneqCoeffs){
+        if (initialPoint == null || initialPoint.length != normalizationIneqCoeffs.length){
+            return null;
+        }
+        double normalization = 0;
+        for (int i = 0; i < initialPoint.length; i++){
+            if (!(initialPoint[i] > 0) || Double.isInfinite(initialPoint[i]) || (i > 0 && initialPoint[i] >= initialPoint[i-1])){
+                return null;
+            }
+            normalization += Math.exp(normalizationIneqCoeffs[i])*initialPoint[i];
+        }
+        if (Double.isNaN(normalization) || Double.isInfinite(normalization)){
+            return null;
+        }
+        double[] retVal = VectorUtils.copyArray(initialPoint);
+        if (normalization > 0.9){
+            VectorUtils.multiply(retVal, 0.9/normalization);
+        }
+        return retVal;
+    }
+
     private Set<Constant> freshConstants(int num){
         Set<Constant> retVal = new HashSet<Constant>();
         for (int i = 0; i < num; i++){
@@ -181,14 +181,13 @@ public class DensityEstimationTree implements DiscreteProbabilityDistribution {
     }
 
     private static double splitScore(BinaryDataset dataset, String attribute, int freeAttributes, double N){
-        Pair<BinaryDataset,BinaryDataset> split = dataset.splitOnAttribute(attribute);
-        double yesScore = score(split.r, freeAttributes, N);
-        double noScore = score(split.s, freeAttributes, N);
+        //only the sums of weights of the two halves are needed, so the split itself is not constructed
+        double yesScore = score(dataset.sum(new String[]{attribute}, new boolean[]{true}), freeAttributes, N);
+        double noScore = score(dataset.sum(new String[]{attribute}, new boolean[]{false}), freeAttributes, N);
         return yesScore+noScore;
     }
 
-    private static double score(BinaryDataset dataset, int freeAttributes, double N){
-        double t = dataset.sumOfWeights();
+    private static double score(double t, int freeAttributes, double N){
         double volume = Math.pow(2, freeAttributes);
         return t*t/(N*N*volume);
     }
@@ -15,9 +15,12 @@ import ida.ilp.logic.subsumption.Matching;
 import ida.ilp.logic.subsumption.SpecialBinaryPredicates;
 import ida.ilp.logic.subsumption.SpecialVarargPredicates;
 import ida.utils.Sugar;
+import ida.utils.WorkerPool;
 import ida.utils.tuples.Pair;
 import supertweety.SuperTweetyContradictionException;
 import supertweety.logic.GroundTheorySolver;
+import supertweety.logic.GroundingSearch;
+import supertweety.logic.IncrementalMaxSatSolver;
 import supertweety.logic.TheorySolver;
 
 import java.math.BigInteger;
@@ -48,6 +51,8 @@ public class MarkovLogicNetwork {
 
     private SpecialBinaryPredicates specialBinaryPredicates = new SpecialBinaryPredicates();
 
+    private int parallelism = WorkerPool.parallelism();
+
     public MarkovLogicNetwork(){}
 
     public MarkovLogicNetwork(Collection<Pair<Clause, BigInteger>> rules){
@@ -203,6 +208,18 @@ public class MarkovLogicNetwork {
         if (matching == null) {
             matching = new Matching(Sugar.list(new Clause(state)));
         }
+        //the violated groundings of the non-ground hard and positive-weight rules are searched for in parallel
+        List<Clause> searchedRules = new ArrayList<Clause>();
+        List<Clause> queries = new ArrayList<Clause>();
+        for (Pair<Clause,BigInteger> rule : rules){
+            if (!LogicUtils.isGround(rule.r) && (rule.s == null || rule.s.compareTo(BigInteger.ZERO) > 0)){
+                searchedRules.add(rule.r);
+                queries.add(LogicUtils.flipSigns(rule.r));
+            }
+        }
+        GroundingSearch groundingSearch = new GroundingSearch(matching, state);
+        groundingSearch.setParallelism(this.parallelism);
+        Iterator<List<Clause>> searchedGroundings = groundingSearch.groundings(searchedRules, queries).iterator();
         for (Pair<Clause,BigInteger> rule : rules){
             if (LogicUtils.isGround(rule.r)){
                 if (rule.s == null || rule.s.compareTo(BigInteger.ZERO) > 0){
@@ -220,9 +237,8 @@ public class MarkovLogicNetwork {
                 }
             } else {
                 if (rule.s == null || rule.s.compareTo(BigInteger.ZERO) > 0) {
-                    Pair<Term[], List<Term[]>> substitutions = matching.allSubstitutions(LogicUtils.flipSigns(rule.r), 0, Integer.MAX_VALUE);
-                    for (Term[] subs : substitutions.s) {
-                        violated.add(new Pair<Clause, BigInteger>(LogicUtils.substitute(rule.r, substitutions.r, subs), rule.s));
+                    for (Clause grounding : searchedGroundings.next()) {
+                        violated.add(new Pair<Clause, BigInteger>(grounding, rule.s));
                     }
                 } else if (rule.s.compareTo(BigInteger.ZERO) < 0) {
                     Pair<Term[], List<Term[]>> substitutions = matching.allTrueGroundings(rule.r, 0);
@@ -265,6 +281,8 @@ public class MarkovLogicNetwork {
                 }
             }), Sugar.listFromCollections(this.rules));
             gps.setOptimizationTimeout(this.mapTimeout);
+            gps.setOptimizationAlgorithm(GroundTheorySolver.CORE_GUIDED);
+            gps.setAnytime(true);
             Set<Literal> newState = gps.optimize();
             if (newState == null) {
                 throw new SuperTweetyContradictionException();
@@ -282,6 +300,16 @@ public class MarkovLogicNetwork {
             }
         } else {
             Set<Pair<Clause, BigInteger>> activeRules = new HashSet<Pair<Clause, BigInteger>>();
+            //one MaxSAT session for all iterations, each iteration adds just the new ground rules
+            Set<Pair<Clause, BigInteger>> loadedRules = new HashSet<Pair<Clause, BigInteger>>();
+            IncrementalMaxSatSolver maxSatSolver = new IncrementalMaxSatSolver();
+            maxSatSolver.addHardClauses(Sugar.sfuncall(this.evidence, new Sugar.Fun<Literal, Clause>() {
+                @Override
+                public Clause apply(Literal literal) {
+                    return new Clause(literal);
+                }
+            }));
+            maxSatSolver.setOptimizationTimeout(this.mapTimeout);
             for (int i = 0; i < iterations; i++) {
                 int numActiveRulesBefore = activeRules.size();
 
@@ -301,14 +329,10 @@ public class MarkovLogicNetwork {
                     break;
                 }
 
-                GroundTheorySolver gps = new GroundTheorySolver(Sugar.sfuncall(this.evidence, new Sugar.Fun<Literal, Clause>() {
-                    @Override
-                    public Clause apply(Literal literal) {
-                        return new Clause(literal);
-                    }
-                }), Sugar.listFromCollections(activeRules));
-                gps.setOptimizationTimeout(this.mapTimeout);
-                Set<Literal> newState = gps.optimize();
+                maxSatSolver.addClauses(Sugar.setDifference(activeRules, loadedRules));
+                loadedRules.addAll(activeRules);
+                //the current state is the previous optimum, its cost is the initial upper bound
+                Set<Literal> newState = maxSatSolver.optimize(this.state);
                 if (newState == null) {
                     throw new SuperTweetyContradictionException();
                 }
@@ -559,4 +583,13 @@ public class MarkovLogicNetwork {
     public void setMAPTimeout(int mapTimeout) {
         this.mapTimeout = mapTimeout;
     }
+
+    /**
+     * Sets the maximum number of rules (or parts of the domains of their variables) which are searched for violated
+     * groundings at the same time.
+     * @param parallelism maximum number of violation searches running in parallel
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
 }
@@ -13,7 +13,10 @@ package supertweety.shorty;
 import ida.ilp.logic.Clause;
 import ida.ilp.logic.Constant;
 import ida.ilp.logic.Literal;
+import ida.ilp.logic.special.IsoClauseWrapper;
 import ida.ilp.logic.subsumption.Matching;
+import ida.utils.Cache;
+import ida.utils.tuples.Triple;
 import supertweety.logic.ApproximateModelCounter;
 
 import java.util.Collection;
@@ -28,6 +31,8 @@ public class ModelCounterFactory {
 
     private double delta = 0.1;
 
+    private final Cache<Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>>,Double> logCounts = new Cache<Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>>,Double>();
+
     public ApproximateModelCounter create(Collection<Clause> theory, Set<Constant> universe, Set<Literal> allGroundAtoms){
         ApproximateModelCounter amc = new ApproximateModelCounter(theory, universe, allGroundAtoms);
         amc.setSubsumptionMode(Matching.OI_SUBSUMPTION);
@@ -36,5 +41,27 @@ public class ModelCounterFactory {
         return amc;
     }
 
+    /**
+     * Computes (approximately) the logarithm of the number of models of the given theory. The results are memoized (in a bounded
+     * cache) by the content of the theory (up to the order of the clauses and renaming of variables), so when the same theory
+     * (e.g. the same alpha-cut of two different stratifications) is counted again, the memoized value is used. The method does not
+     * wait for other threads: if two threads count the same theory at the same time, both of them count it (the counter is seeded
+     * deterministically, so they get the same value).
+     * @param theory the theory
+     * @param universe the constants
+     * @param allGroundAtoms all ground atoms
+     * @return the logarithm (base 2) of the approximate number of models
+     */
+    public double logApproxCount(Collection<Clause> theory, Set<Constant> universe, Set<Literal> allGroundAtoms){
+        ApproximateModelCounter amc = create(theory, universe, allGroundAtoms);
+        Triple<Set<IsoClauseWrapper>,Set<Constant>,Set<Literal>> key = amc.representative();
+        Double logCount = this.logCounts.get(key);
+        if (logCount == null){
+            logCount = amc.logApproxCount();
+            this.logCounts.put(key, logCount);
+        }
+        return logCount;
+    }
+
 
 }
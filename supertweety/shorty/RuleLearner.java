@@ -12,6 +12,7 @@ import ida.ilp.logic.*;
 import ida.ilp.logic.special.IsoClauseWrapper;
 import ida.ilp.logic.subsumption.SpecialVarargPredicates;
 import ida.utils.Sugar;
+import ida.utils.WorkerPool;
 import ida.utils.collections.MultiMap;
 import ida.utils.tuples.Pair;
 import supertweety.RelationalDataset;
@@ -39,6 +40,8 @@ public class RuleLearner {
 
     private Saturator saturator;
 
+    private int parallelism = WorkerPool.parallelism();
+
     private static Random random = new Random(RuleLearner.class.getName().hashCode());
 
     public RuleLearner(RelationalDataset dataset, int k){
@@ -147,11 +150,28 @@ public class RuleLearner {
         return best.r;
     }
 
-    private List<HornClause> selectTop(List<HornClause> candidatesList, List<HornClause> currentClauses, int num, Pair<HornClause, Double> outBest){
+    private List<HornClause> selectTop(final List<HornClause> candidatesList, final List<HornClause> currentClauses, int num, Pair<HornClause, Double> outBest){
+        //the candidates are scored in parallel, the scores are stored by position, so the result does not depend on the order
+        //in which the tasks finish
+        final double[] accuracies = new double[candidatesList.size()];
+        final TopScores topScores = new TopScores(num);
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (int i = 0; i < candidatesList.size(); i++){
+            final int index = i;
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    //candidates which cannot get among the best num candidates found so far are not scored exactly
+                    double acc = dataset.accuracy(Sugar.<HornClause>append(currentClauses, candidatesList.get(index)), k, topScores.threshold());
+                    accuracies[index] = acc;
+                    topScores.add(acc);
+                }
+            });
+        }
+        WorkerPool.invokeAll(tasks, this.parallelism);
         List<Pair<HornClause,Double>> pairs = new ArrayList<Pair<HornClause, Double>>();
-        for (HornClause hc : candidatesList){
-            double acc = dataset.accuracy(Sugar.<HornClause>append(currentClauses, hc), k);
-            pairs.add(new Pair<HornClause, Double>(hc, acc));
+        for (int i = 0; i < candidatesList.size(); i++){
+            pairs.add(new Pair<HornClause, Double>(candidatesList.get(i), accuracies[i]));
         }
         Collections.shuffle(pairs, this.random);
         Collections.sort(pairs, new Comparator<Pair<HornClause, Double>>() {
@@ -295,4 +315,39 @@ public class RuleLearner {
     public void setMinSupport(int minSupport) {
         this.minSupport = minSupport;
     }
+
+    /**
+     * Sets the maximum number of candidates which are scored at the same time.
+     * @param parallelism maximum number of candidates scored in parallel
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * The num best scores seen so far. The smallest of them is the threshold below which scores do not need to be computed exactly.
+     */
+    private static class TopScores {
+
+        private final int num;
+
+        private final PriorityQueue<Double> scores = new PriorityQueue<Double>();
+
+        private TopScores(int num){
+            this.num = num;
+        }
+
+        private synchronized void add(double score){
+            if (this.scores.size() < this.num){
+                this.scores.add(score);
+            } else if (this.num > 0 && score > this.scores.peek()){
+                this.scores.poll();
+                this.scores.add(score);
+            }
+        }
+
+        private synchronized double threshold(){
+            return this.num <= 0 || this.scores.size() < this.num ? Double.NEGATIVE_INFINITY : this.scores.peek();
+        }
+    }
 }
@@ -15,6 +15,7 @@ import ida.ilp.logic.subsumption.Matching;
 import ida.ilp.logic.subsumption.SpecialVarargPredicates;
 import ida.utils.MutableDouble;
 import ida.utils.Sugar;
+import ida.utils.WorkerPool;
 import ida.utils.tuples.Pair;
 import supertweety.RelationalDataset;
 import supertweety.possibilistic.RelationalPossibilisticLogicTheory;
@@ -41,6 +42,11 @@ public class Stratifier {
 
     private ModelCounterFactory modelCounterFactory = new ModelCounterFactory();
 
+    private int parallelism = WorkerPool.parallelism();
+
+    //weights estimated for the current stratification (used for warm-starting the weight estimation)
+    private RelationalPossibilisticLogicTheory currentEstimate;
+
 
     public Stratifier(RelationalDataset dataset, List<Clause> rules, List<Clause> hardConstraints, int cardinality){
         this.dataset = dataset;
@@ -118,12 +124,7 @@ public class Stratifier {
                 }
 
                 List<Clause> bestCandidateStratification = null;
-                MutableDouble logLik = new MutableDouble(){
-                    public void set(double d){
-                        super.set(d);
-                        System.out.println("logLik: "+d);
-                    }
-                };
+                RelationalPossibilisticLogicTheory bestCandidateEstimate = null;
                 int startI = 0;
 
                 for (int i = stratification.size()-1; i >= 0; i--){
@@ -137,22 +138,49 @@ public class Stratifier {
                     System.out.println("startI: " + startI);
                 }
 
-                double currentBestLogLik = Double.NEGATIVE_INFINITY;
+                //the insertion positions are evaluated in parallel, the counts of the alpha-cuts shared by the candidate
+                //stratifications are memoized by the model counter factory (the sampling in the counters is seeded by the
+                //counted theory or query, so it does not depend on the order in which the tasks run)
+                final List<List<Clause>> candidateStratifications = new ArrayList<List<Clause>>();
                 for (int i = startI; i < stratification.size() + 1; i++) {
                     List<Clause> candidateStratification = new ArrayList<Clause>();
                     candidateStratification.addAll(stratification.subList(0, i));
                     candidateStratification.add(rule);
                     candidateStratification.addAll(stratification.subList(i, stratification.size()));
-                    RelationalPossibilisticLogicTheory rplt = fromStratification(candidateStratification);
-                    rplt.maximumLikelihoodWeightEstimation(dataset, cardinality, modelCounterFactory, logLik);
-                    if (logLik.value() > currentBestLogLik) {
-                        currentBestLogLik = logLik.value();
-                        bestCandidateStratification = candidateStratification;
+                    candidateStratifications.add(candidateStratification);
+                }
+                final double[] logLiks = new double[candidateStratifications.size()];
+                final RelationalPossibilisticLogicTheory[] estimates = new RelationalPossibilisticLogicTheory[candidateStratifications.size()];
+                final RelationalPossibilisticLogicTheory previousEstimate = this.currentEstimate;
+                List<Runnable> tasks = new ArrayList<Runnable>();
+                for (int i = 0; i < candidateStratifications.size(); i++){
+                    final int index = i;
+                    tasks.add(new Runnable() {
+                        @Override
+                        public void run() {
+                            List<Clause> candidateStratification = candidateStratifications.get(index);
+                            MutableDouble logLik = new MutableDouble(Double.NEGATIVE_INFINITY);
+                            RelationalPossibilisticLogicTheory rplt = fromStratification(candidateStratification);
+                            estimates[index] = rplt.maximumLikelihoodWeightEstimation(dataset, cardinality, modelCounterFactory, logLik, warmStart(candidateStratification, previousEstimate));
+                            logLiks[index] = logLik.value();
+                        }
+                    });
+                }
+                WorkerPool.invokeAll(tasks, this.parallelism);
+
+                double currentBestLogLik = Double.NEGATIVE_INFINITY;
+                for (int i = 0; i < candidateStratifications.size(); i++) {
+                    System.out.println("logLik: "+logLiks[i]);
+                    if (logLiks[i] > currentBestLogLik) {
+                        currentBestLogLik = logLiks[i];
+                        bestCandidateStratification = candidateStratifications.get(i);
+                        bestCandidateEstimate = estimates[i];
                     }
                 }
                 if (bestCandidateStratification != null && (1.0+minRelativeLikelihoodImprovement)*Math.abs(currentBestLogLik) < Math.abs(bestLogLik)) {
                     bestLogLik = currentBestLogLik;
                     stratification = bestCandidateStratification;
+                    this.currentEstimate = bestCandidateEstimate;
                     stratification = TheorySimplifier.removeDrownedLevels(stratification, hardConstraints, cardinality);
 
                     List<Clause> implied = TheorySimplifier.rulesImpliedByRankedKB(stratification, hardConstraints, cardinality);
@@ -176,7 +204,59 @@ public class Stratifier {
             }
             reinsertIters++;
         } while (!toInsert.isEmpty() && reinsertIters < maxReinsertIters);
-        return fromStratification(stratification).maximumLikelihoodWeightEstimation(dataset, cardinality, modelCounterFactory);
+        return fromStratification(stratification).maximumLikelihoodWeightEstimation(dataset, cardinality, modelCounterFactory, new MutableDouble(Double.NaN), warmStart(stratification, this.currentEstimate));
+    }
+
+    /**
+     * Constructs the initial point for weight estimation of the given stratification from the weights estimated for a previous
+     * stratification: levels (rules) which were present in the previous stratification keep their values, the values of the other
+     * levels are interpolated from their neighbours.
+     * @param stratification the stratification (one rule per level, ordered by increasing weight)
+     * @param previous the theory with weights estimated for the previous stratification (or null)
+     * @return the initial point in the format expected by RelationalPossibilisticLogicTheory.maximumLikelihoodWeightEstimation(...) or null
+     */
+    private static double[] warmStart(List<Clause> stratification, RelationalPossibilisticLogicTheory previous){
+        if (previous == null){
+            return null;
+        }
+        Map<Clause,Double> values = new HashMap<Clause,Double>();
+        for (double weight : previous.weights()){
+            for (Clause rule : previous.level(weight)){
+                values.put(rule, -weight);
+            }
+        }
+        double[] retVal = new double[stratification.size()+1];
+        retVal[0] = -previous.weightOfFalsity();
+        for (int i = 0; i < stratification.size(); i++){
+            Double value = values.get(stratification.get(i));
+            retVal[i+1] = value == null ? Double.NaN : value;
+        }
+        if (!(retVal[0] > 0)){
+            return null;
+        }
+        for (int i = 1; i < retVal.length; i++){
+            if (Double.isNaN(retVal[i])){
+                int next = i+1;
+                while (next < retVal.length && Double.isNaN(retVal[next])){
+                    next++;
+                }
+                //geometric interpolation between the known neighbours (or halving after the last known value)
+                double ratio = next < retVal.length && retVal[next] < retVal[i-1] ? Math.pow(retVal[next]/retVal[i-1], 1.0/(next-i+1)) : 0.5;
+                for (int j = i; j < next; j++){
+                    retVal[j] = retVal[j-1]*ratio;
+                }
+                i = next-1;
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Sets the maximum number of insertion positions which are evaluated at the same time.
+     * @param parallelism maximum number of insertion positions evaluated in parallel
+     */
+    public void setParallelism(int parallelism){
+        this.parallelism = parallelism;
     }
 
     private RelationalPossibilisticLogicTheory fromStratification(List<Clause> stratification){
@@ -11,13 +11,9 @@
 package temp;
 
 import ida.ilp.logic.Clause;
-import ida.ilp.logic.Literal;
-import ida.ilp.logic.LogicUtils;
-import ida.utils.Sugar;
+import ida.ilp.logic.io.EvidenceDatabase;
 
-import java.io.FileReader;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.File;
 
 /**
  * Created by kuzelkao_cardiff on 02/02/17.
@@ -25,20 +21,11 @@ import java.util.List;
 public class IMDB {
 
     public static Clause imdb(){
-        List<Literal> literals = new ArrayList<Literal>();
         try {
-            for (String line : Sugar.readLines(new FileReader("/Users/kuzelkao_cardiff/Dropbox/Experiments/IJCAI17/uwcse/uw-cse/imdb.1.db"))) {
-                line = line.trim();
-                if (line.length() > 0) {
-                    Literal l = Literal.parseLiteral(line);
-                    literals.add(Sugar.chooseOne(LogicUtils.constantizeClause(new Clause(l)).literals()));
-
-                }
-            }
+            return EvidenceDatabase.read(new File("/Users/kuzelkao_cardiff/Dropbox/Experiments/IJCAI17/uwcse/uw-cse/imdb.1.db"), true).toClause();
         } catch (Exception e){
             throw new RuntimeException(e);
         }
-        return new Clause(literals);
     }
 
 }